@@ -5,6 +5,9 @@ import '../models/notificacion_model.dart';
 class NotificacionFirestoreService {
   final FirebaseFirestore _firestore = FirebaseFirestore.instance;
 
+  // Contenido de las difusiones ya leídas: no cambia una vez escrito
+  final Map<String, Future<Map<String, dynamic>?>> _difusiones = {};
+
   // Referencia a la colección de notificaciones de un usuario
   CollectionReference _getNotificacionesRef(String userId) {
     return _firestore
@@ -30,20 +33,21 @@ class NotificacionFirestoreService {
     return _getNotificacionesRef(userId)
         // .orderBy('fecha', descending: true) // COMENTADO TEMPORALMENTE: Posible falta de índice
         .snapshots()
-        .map((snapshot) {
+        .asyncMap((snapshot) async {
           print(
             'Recibidos ${snapshot.docs.length} documentos de notificaciones',
           );
-          return snapshot.docs.map((doc) {
+          final documentos = await _resolverDifusiones(snapshot.docs);
+          return documentos.map((doc) {
             try {
-              final data = doc.data() as Map<String, dynamic>;
+              final data = doc.value;
               data['userId'] = userId;
-              return Notificacion.fromJson({'id': doc.id, ...data});
+              return Notificacion.fromJson({'id': doc.key, ...data});
             } catch (e) {
-              print('Error al parsear notificación ${doc.id}: $e');
+              print('Error al parsear notificación ${doc.key}: $e');
               // Retornar una notificación de error o filtrar después
               return Notificacion(
-                id: doc.id,
+                id: doc.key,
                 userId: userId,
                 titulo: 'Error',
                 mensaje: 'Error de formato',
@@ -66,15 +70,63 @@ class NotificacionFirestoreService {
         .where('leida', isEqualTo: false)
         .orderBy('fecha', descending: true)
         .snapshots()
-        .map((snapshot) {
-          return snapshot.docs.map((doc) {
-            final data = doc.data() as Map<String, dynamic>;
+        .asyncMap((snapshot) async {
+          final documentos = await _resolverDifusiones(snapshot.docs);
+          return documentos.map((doc) {
+            final data = doc.value;
             data['userId'] = userId;
-            return Notificacion.fromJson({'id': doc.id, ...data});
+            return Notificacion.fromJson({'id': doc.key, ...data});
           }).toList();
         });
   }
 
+  // Los avisos de nuevo paquete se guardan como apuntador {difusionId, tipo, fecha, leida}
+  // y el contenido vive una sola vez en difusiones/{id}; se completa aquí al leer.
+  // Los apuntadores cuya difusión no existe se omiten.
+  Future<List<MapEntry<String, Map<String, dynamic>>>> _resolverDifusiones(
+    List<QueryDocumentSnapshot> docs,
+  ) async {
+    final resueltos = await Future.wait(
+      docs.map((doc) async {
+        final data = doc.data() as Map<String, dynamic>;
+        final difusionId = data['difusionId'] as String?;
+        if (difusionId == null || data['titulo'] != null) {
+          return MapEntry(doc.id, data);
+        }
+        final contenido = await _obtenerDifusion(difusionId);
+        if (contenido == null) {
+          return null;
+        }
+        // El estado de lectura y la fecha son del apuntador
+        return MapEntry(doc.id, <String, dynamic>{...contenido, ...data});
+      }),
+    );
+    return resueltos.whereType<MapEntry<String, Map<String, dynamic>>>().toList();
+  }
+
+  Future<Map<String, dynamic>?> _obtenerDifusion(String difusionId) {
+    return _difusiones.putIfAbsent(
+      difusionId,
+      () => _firestore
+          .collection('difusiones')
+          .doc(difusionId)
+          .get()
+          .then((doc) {
+            if (!doc.exists) {
+              // Puede ser un lote de apuntadores que llegó antes que el contenido
+              _difusiones.remove(difusionId);
+            }
+            return doc.data();
+          })
+          .catchError((e) {
+            // Se vuelve a pedir en el siguiente snapshot
+            _difusiones.remove(difusionId);
+            print('Error al leer difusión $difusionId: $e');
+            return null;
+          }),
+    );
+  }
+
   // Marcar notificación como leída
   Future<void> marcarComoLeida(String userId, String notificacionId) async {
     try {
@@ -0,0 +1,53 @@
+package mx.edu.utez.paqueteria.benchmarks;
+
+import com.google.firebase.messaging.Message;
+import mx.edu.utez.paqueteria.service.FirebaseMessagingService;
+import mx.edu.utez.paqueteria.util.PlantillaNotificacion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de Message.builder() con la configuración Android de la app, y del texto de la
+ * notificación con una plantilla compilada frente a String.format
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConstruccionMensajeBenchmark {
+
+    private Map<String, String> data;
+    private PlantillaNotificacion plantilla;
+
+    @Setup
+    public void preparar() {
+        data = new HashMap<>();
+        data.put("tipo", "paquete");
+        data.put("paqueteId", "PKG-001");
+        data.put("destinatario", "María López");
+        data.put("direccion", "Calle 123, Col. Centro");
+        data.put("userId", "rep456");
+        plantilla = PlantillaNotificacion.compilar("Paquete para {destinatario} - {direccion}");
+    }
+
+    @Benchmark
+    public Message construirMensaje() {
+        return FirebaseMessagingService.construirMensaje("token-rep456", "📦 Nuevo paquete disponible",
+                "Paquete para María López - Calle 123, Col. Centro", data);
+    }
+
+    @Benchmark
+    public String renderizarPlantilla() {
+        return plantilla.renderizar(data);
+    }
+
+    @Benchmark
+    public String formatearMensaje() {
+        return String.format("Paquete para %s - %s", data.get("destinatario"), data.get("direccion"));
+    }
+}
@@ -0,0 +1,37 @@
+package mx.edu.utez.paqueteria.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialización JSON del cuerpo de los endpoints de eventos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeserializacionEventoBenchmark {
+
+    private byte[] cuerpo;
+    private ObjectReader lector;
+
+    @Setup
+    public void preparar() {
+        cuerpo = ("{\"paqueteId\":\"PKG-001\",\"clienteId\":\"user123\",\"repartidorId\":\"rep456\","
+                + "\"repartidorNombre\":\"Juan Pérez\"}").getBytes(StandardCharsets.UTF_8);
+        lector = new ObjectMapper().readerFor(PaqueteEventDTO.class);
+    }
+
+    @Benchmark
+    public PaqueteEventDTO deserializar() throws IOException {
+        return lector.readValue(cuerpo);
+    }
+}
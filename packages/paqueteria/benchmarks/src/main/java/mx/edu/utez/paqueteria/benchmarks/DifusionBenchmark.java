@@ -0,0 +1,104 @@
+package mx.edu.utez.paqueteria.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentosMemoria;
+import mx.edu.utez.paqueteria.service.DepuracionTokensService;
+import mx.edu.utez.paqueteria.service.FirebaseMessagingService;
+import mx.edu.utez.paqueteria.service.HistorialNotificacionesService;
+import mx.edu.utez.paqueteria.service.LecturaFirestoreService;
+import mx.edu.utez.paqueteria.service.RegistroRepartidoresService;
+import mx.edu.utez.paqueteria.service.ResilienciaFirestore;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.Lotes;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Difusión de un nuevo paquete a N repartidores: datos por destinatario,
+ * partición en lotes y fan-out completo contra un FCM en memoria.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DifusionBenchmark {
+
+    @Param({"100", "2000", "10000"})
+    public int repartidores;
+
+    private Map<String, String> tokens;
+    private List<String> listaTokens;
+    private Map<String, String> dataComun;
+    private ExecutorService fanOutExecutor;
+    private FirebaseMessagingService fcmService;
+
+    @Setup
+    public void preparar() {
+        tokens = new LinkedHashMap<>();
+        for (int i = 0; i < repartidores; i++) {
+            tokens.put("rep" + i, "token-" + i);
+        }
+        listaTokens = new ArrayList<>(tokens.values());
+
+        dataComun = new HashMap<>();
+        dataComun.put("tipo", "paquete");
+        dataComun.put("paqueteId", "PKG-001");
+        dataComun.put("destinatario", "María López");
+        dataComun.put("direccion", "Calle 123, Col. Centro");
+
+        fanOutExecutor = Executors.newFixedThreadPool(4);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Sin listener ni Firestore: el stub no reporta tokens no registrados
+        AlmacenDocumentosMemoria almacen = new AlmacenDocumentosMemoria(new ObjectMapper(), 0, 0, 0, 0, 0, 0);
+        ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+                new PoliticaReintentos(0, 1, 1), sinLimite(), sinLimite(), 30, registry);
+        LecturaFirestoreService lecturaService = new LecturaFirestoreService(almacen, resiliencia, 100, 60, false,
+                registry);
+        DepuracionTokensService depuracionTokens = new DepuracionTokensService(almacen,
+                new RegistroRepartidoresService(almacen, lecturaService, resiliencia, false, registry),
+                lecturaService, resiliencia, 1000, 10_000, registry);
+        fcmService = new FirebaseMessagingService(fanOutExecutor, 500, 30, new EnviadorPushStub(), depuracionTokens,
+                registry);
+    }
+
+    @TearDown
+    public void cerrar() {
+        fanOutExecutor.shutdown();
+    }
+
+    private static LimitadorAdaptativo sinLimite() {
+        return new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5);
+    }
+
+    @Benchmark
+    public List<NotificacionDTO> crearDataPorDestinatario() {
+        return HistorialNotificacionesService.crearHistorialDifusion(tokens.keySet(), "📦 Nuevo paquete disponible",
+                "Paquete para María López - Calle 123, Col. Centro", "paquete", dataComun);
+    }
+
+    @Benchmark
+    public List<List<String>> particionarEnLotes() {
+        return Lotes.particionar(listaTokens, 500);
+    }
+
+    @Benchmark
+    public List<ResultadoEnvioDTO> fanOutCompleto() {
+        return fcmService.enviarNotificacionMasiva(tokens, "📦 Nuevo paquete disponible",
+                "Paquete para María López - Calle 123, Col. Centro", dataComun);
+    }
+}
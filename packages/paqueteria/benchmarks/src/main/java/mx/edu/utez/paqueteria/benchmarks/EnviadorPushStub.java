@@ -0,0 +1,33 @@
+package mx.edu.utez.paqueteria.benchmarks;
+
+import com.google.firebase.messaging.Message;
+import mx.edu.utez.paqueteria.service.EnviadorPush;
+import mx.edu.utez.paqueteria.service.RespuestaPush;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Doble en memoria de FCM: responde éxito a cada mensaje sin salir del proceso
+ */
+public class EnviadorPushStub implements EnviadorPush {
+
+    @Override
+    public List<RespuestaPush> enviarLote(List<Message> mensajes) {
+        List<RespuestaPush> respuestas = new ArrayList<>(mensajes.size());
+        for (int i = 0; i < mensajes.size(); i++) {
+            respuestas.add(RespuestaPush.exito("projects/stub/messages/" + i));
+        }
+        return respuestas;
+    }
+
+    @Override
+    public List<String> suscribir(List<String> tokens, String topico) {
+        return List.of();
+    }
+
+    @Override
+    public List<String> desuscribir(List<String> tokens, String topico) {
+        return List.of();
+    }
+}
@@ -0,0 +1,271 @@
+package mx.edu.utez.paqueteria.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga: reproduce un flujo de eventos contra los endpoints de la API a N× la
+ * velocidad grabada y reporta throughput, códigos de respuesta y percentiles de latencia por acción.
+ * Pensado para correr contra el servicio con notificaciones.backend=memoria, sin proyecto de Firebase.
+ *
+ * El flujo es un JSONL con una línea por evento: {"offsetMs":120,"accion":"TOMADO","paqueteId":...}
+ * con los campos de PaqueteEventDTO. También acepta el outbox del servicio (outbox/eventos.jsonl):
+ * el ritmo sale del instante codificado en cada trackingId y las confirmaciones se ignoran.
+ * Sin --archivo se genera un flujo sintético (llegadas de Poisson) con los ids que siembra el
+ * almacén en memoria; --guardar lo escribe para repetir la misma corrida.
+ *
+ * Es de lazo abierto: cada evento sale a su hora aunque los anteriores no hayan respondido, y la
+ * latencia se mide desde la hora programada, así una respuesta lenta no oculta la cola que provoca.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar mx.edu.utez.paqueteria.benchmarks.ReproductorCarga \
+ *     --eventos 5000 --tasa 200 --velocidad 2
+ * </pre>
+ */
+public final class ReproductorCarga {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private static final Map<String, String> ENDPOINTS = Map.of("CREADO", "/nuevo-paquete",
+            "TOMADO", "/paquete-tomado", "ENTREGADO", "/paquete-entregado");
+    private static final String[] ACCIONES = { "CREADO", "TOMADO", "ENTREGADO" };
+
+    private final Map<String, String> opciones;
+    private final Map<String, ConcurrentLinkedQueue<Long>> latencias = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> codigos = new ConcurrentHashMap<>();
+
+    private ReproductorCarga(Map<String, String> opciones) {
+        this.opciones = opciones;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opciones = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Opción inválida: " + args[i]);
+            }
+            opciones.put(args[i].substring(2), args[i + 1]);
+        }
+        new ReproductorCarga(opciones).ejecutar();
+    }
+
+    private void ejecutar() throws IOException, InterruptedException {
+        String url = opcion("url", "http://localhost:8080/api/notificaciones");
+        double velocidad = Double.parseDouble(opcion("velocidad", "1"));
+        int concurrencia = Integer.parseInt(opcion("concurrencia", "256"));
+
+        List<EventoProgramado> eventos = opciones.containsKey("archivo")
+                ? leer(Path.of(opciones.get("archivo")))
+                : generar();
+        if (opciones.containsKey("guardar")) {
+            guardar(eventos, Path.of(opciones.get("guardar")));
+        }
+        if (eventos.isEmpty()) {
+            System.out.println("El flujo no tiene eventos");
+            return;
+        }
+
+        HttpClient cliente = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        Semaphore enVuelo = new Semaphore(concurrencia);
+        CountDownLatch pendientes = new CountDownLatch(eventos.size());
+        String corrida = Long.toString(System.currentTimeMillis(), 36);
+        long duracionProgramadaMs = (long) (eventos.get(eventos.size() - 1).offsetMs / velocidad);
+        System.out.printf("Reproduciendo %d eventos en %.1f s (velocidad %sx) contra %s%n", eventos.size(),
+                duracionProgramadaMs / 1000.0, velocidad, url);
+
+        long inicioNs = System.nanoTime();
+        for (int i = 0; i < eventos.size(); i++) {
+            EventoProgramado programado = eventos.get(i);
+            long horaNs = inicioNs + (long) (programado.offsetMs / velocidad * 1_000_000);
+            long esperaNs = horaNs - System.nanoTime();
+            if (esperaNs > 0) {
+                LockSupport.parkNanos(esperaNs);
+            }
+            enVuelo.acquire();
+            HttpRequest peticion = HttpRequest.newBuilder(URI.create(url + ENDPOINTS.get(programado.accion())))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .header("Idempotency-Key", "carga-" + corrida + "-" + i)
+                    .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(programado.evento)))
+                    .build();
+            cliente.sendAsync(peticion, HttpResponse.BodyHandlers.discarding()).whenComplete((respuesta, error) -> {
+                registrar(programado.accion(), error != null ? "error" : String.valueOf(respuesta.statusCode()),
+                        System.nanoTime() - horaNs);
+                enVuelo.release();
+                pendientes.countDown();
+            });
+        }
+        pendientes.await();
+        reportar(eventos.size(), System.nanoTime() - inicioNs, duracionProgramadaMs);
+    }
+
+    private void registrar(String accion, String codigo, long latenciaNs) {
+        latencias.computeIfAbsent(accion, a -> new ConcurrentLinkedQueue<>()).add(latenciaNs);
+        codigos.computeIfAbsent(codigo, c -> new LongAdder()).increment();
+    }
+
+    private void reportar(int total, long duracionNs, long duracionProgramadaMs) {
+        double segundos = duracionNs / 1e9;
+        System.out.printf("%nEventos: %d en %.2f s -> %.1f eventos/s (programado %.1f eventos/s)%n", total,
+                segundos, total / segundos, duracionProgramadaMs > 0 ? total * 1000.0 / duracionProgramadaMs : 0);
+        System.out.println("Respuestas: " + new TreeMap<>(codigos));
+        System.out.printf("%n%-10s %8s %9s %9s %9s %9s  (ms desde la hora programada)%n", "accion", "n", "p50",
+                "p90", "p99", "max");
+        List<Long> todas = new ArrayList<>();
+        for (String accion : ACCIONES) {
+            ConcurrentLinkedQueue<Long> muestras = latencias.get(accion);
+            if (muestras != null) {
+                todas.addAll(muestras);
+                imprimir(accion, muestras);
+            }
+        }
+        imprimir("TOTAL", todas);
+    }
+
+    private static void imprimir(String etiqueta, Collection<Long> muestras) {
+        long[] ordenadas = muestras.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(ordenadas);
+        System.out.printf("%-10s %8d %9.1f %9.1f %9.1f %9.1f%n", etiqueta, ordenadas.length,
+                percentil(ordenadas, 0.50), percentil(ordenadas, 0.90), percentil(ordenadas, 0.99),
+                percentil(ordenadas, 1.0));
+    }
+
+    /**
+     * Percentil por rango más cercano, en milisegundos
+     */
+    static double percentil(long[] ordenadasNs, double p) {
+        if (ordenadasNs.length == 0) {
+            return 0;
+        }
+        int rango = (int) Math.ceil(p * ordenadasNs.length);
+        return ordenadasNs[Math.max(0, rango - 1)] / 1e6;
+    }
+
+    /**
+     * Flujo grabado, ordenado por offset; acepta el formato propio y el del outbox
+     */
+    private static List<EventoProgramado> leer(Path archivo) throws IOException {
+        List<EventoProgramado> eventos = new ArrayList<>();
+        long primerInstante = -1;
+        for (String linea : Files.readAllLines(archivo, StandardCharsets.UTF_8)) {
+            if (linea.isBlank()) {
+                continue;
+            }
+            JsonNode nodo = MAPPER.readTree(linea);
+            if (nodo.has("tipo")) {
+                // Outbox: solo los eventos; el ritmo sale del trackingId
+                if (!"EVENTO".equals(nodo.path("tipo").asText())) {
+                    continue;
+                }
+                long instante = GeneradorIds.instante(nodo.path("trackingId").asText());
+                primerInstante = primerInstante < 0 ? instante : Math.min(primerInstante, instante);
+                eventos.add(new EventoProgramado(instante,
+                        MAPPER.treeToValue(nodo.get("evento"), PaqueteEventDTO.class)));
+            } else {
+                eventos.add(new EventoProgramado(nodo.path("offsetMs").asLong(),
+                        MAPPER.treeToValue(nodo, PaqueteEventDTO.class)));
+            }
+        }
+        if (primerInstante >= 0) {
+            List<EventoProgramado> relativos = new ArrayList<>(eventos.size());
+            for (EventoProgramado evento : eventos) {
+                relativos.add(new EventoProgramado(evento.offsetMs - primerInstante, evento.evento));
+            }
+            eventos = relativos;
+        }
+        eventos.removeIf(evento -> !ENDPOINTS.containsKey(evento.accion()));
+        eventos.sort(Comparator.comparingLong(evento -> evento.offsetMs));
+        return eventos;
+    }
+
+    /**
+     * Llegadas de Poisson a --tasa eventos/s con acciones repartidas por igual; los ids coinciden
+     * con los que siembra AlmacenDocumentosMemoria (pkg{i}, rep{i})
+     */
+    private List<EventoProgramado> generar() {
+        int total = Integer.parseInt(opcion("eventos", "1000"));
+        double tasa = Double.parseDouble(opcion("tasa", "50"));
+        int paquetes = Integer.parseInt(opcion("paquetes", "10000"));
+        int repartidores = Integer.parseInt(opcion("repartidores", "200"));
+        Random aleatorio = new Random(Long.parseLong(opcion("semilla", "42")));
+
+        List<EventoProgramado> eventos = new ArrayList<>(total);
+        double offsetMs = 0;
+        for (int i = 0; i < total; i++) {
+            offsetMs += -Math.log(1 - aleatorio.nextDouble()) / tasa * 1000;
+            PaqueteEventDTO evento = new PaqueteEventDTO();
+            evento.setAccion(ACCIONES[aleatorio.nextInt(ACCIONES.length)]);
+            evento.setPaqueteId("pkg" + aleatorio.nextInt(paquetes));
+            if (!"CREADO".equals(evento.getAccion())) {
+                evento.setRepartidorId("rep" + aleatorio.nextInt(repartidores));
+            }
+            eventos.add(new EventoProgramado((long) offsetMs, evento));
+        }
+        return eventos;
+    }
+
+    private static void guardar(List<EventoProgramado> eventos, Path archivo) throws IOException {
+        try (BufferedWriter salida = Files.newBufferedWriter(archivo, StandardCharsets.UTF_8)) {
+            for (EventoProgramado programado : eventos) {
+                ObjectNode nodo = MAPPER.valueToTree(programado.evento);
+                nodo.put("offsetMs", programado.offsetMs);
+                salida.write(MAPPER.writeValueAsString(nodo));
+                salida.newLine();
+            }
+        }
+        System.out.println("Flujo guardado en " + archivo);
+    }
+
+    private String opcion(String nombre, String predeterminado) {
+        return opciones.getOrDefault(nombre, predeterminado);
+    }
+
+    private static final class EventoProgramado {
+        private final long offsetMs;
+        private final PaqueteEventDTO evento;
+
+        private EventoProgramado(long offsetMs, PaqueteEventDTO evento) {
+            this.offsetMs = offsetMs;
+            this.evento = evento;
+        }
+
+        private String accion() {
+            return evento.getAccion();
+        }
+    }
+}
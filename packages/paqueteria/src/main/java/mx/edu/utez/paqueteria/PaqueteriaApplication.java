@@ -2,8 +2,10 @@ package mx.edu.utez.paqueteria;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class PaqueteriaApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,66 @@
+package mx.edu.utez.paqueteria.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pools de hilos usados por el pipeline de notificaciones.
+ * Con spring.threads.virtual.enabled=true Tomcat atiende cada request en un hilo virtual
+ * y estos pools también crean hilos virtuales, así las esperas en ApiFuture.get() no
+ * bloquean hilos de plataforma. El tamaño de cada pool sigue acotando la concurrencia.
+ */
+@Configuration
+public class EjecutoresConfig {
+
+    private final boolean hilosVirtuales;
+
+    public EjecutoresConfig(@Value("${spring.threads.virtual.enabled:false}") boolean hilosVirtuales) {
+        this.hilosVirtuales = hilosVirtuales;
+    }
+
+    /**
+     * Pool para enviar lotes FCM en paralelo.
+     * Su tamaño es el máximo de lotes en vuelo, compartido por todas las difusiones.
+     */
+    @Bean(name = "fanOutExecutor", destroyMethod = "shutdown")
+    public ExecutorService fanOutExecutor(@Value("${notificaciones.fcm.lotes-en-paralelo:4}") int lotesEnParalelo) {
+        return Executors.newFixedThreadPool(lotesEnParalelo, fabricaHilos("fcm-fanout-"));
+    }
+
+    /**
+     * Pool de workers que drenan la cola de eventos en modo asíncrono, más los reservados
+     * para el carril transaccional.
+     */
+    @Bean(name = "despachadorExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService despachadorExecutor(@Value("${notificaciones.ingesta.workers:4}") int workers,
+            @Value("${notificaciones.ingesta.workers-reservados:1}") int workersReservados) {
+        return Executors.newFixedThreadPool(workers + Math.max(0, workersReservados), fabricaHilos("despachador-"));
+    }
+
+    /**
+     * Temporizador de las ventanas de agrupación; al cerrar una ventana envía el push en el mismo hilo.
+     */
+    @Bean(name = "agrupacionExecutor", destroyMethod = "shutdown")
+    public ScheduledExecutorService agrupacionExecutor(@Value("${notificaciones.agrupacion.hilos:2}") int hilos) {
+        return Executors.newScheduledThreadPool(hilos, fabricaHilos("agrupacion-"));
+    }
+
+    private ThreadFactory fabricaHilos(String prefijo) {
+        if (hilosVirtuales) {
+            return Thread.ofVirtual().name(prefijo, 1).factory();
+        }
+        AtomicInteger contador = new AtomicInteger();
+        return runnable -> {
+            Thread hilo = new Thread(runnable, prefijo + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        };
+    }
+}
@@ -3,36 +3,50 @@ package mx.edu.utez.paqueteria.config;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource; // <--- IMPORTANTE: Nuevo import
+import org.springframework.core.io.Resource;
 
-import javax.annotation.PostConstruct;
 import java.io.InputStream;
 
 /**
- * Configuración de Firebase Admin SDK
- * 
+ * Configuración de Firebase Admin SDK.
+ * Las credenciales se leen de notificaciones.firebase.credenciales (classpath: o file:).
+ * Con notificaciones.backend=memoria no se inicializa Firebase y se usan los dobles en memoria.
+ *
  * @author JonthanAyala
  */
 @Configuration
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "firebase", matchIfMissing = true)
 public class FirebaseConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(FirebaseConfig.class);
+
+    private final Resource credenciales;
+
+    public FirebaseConfig(
+            @Value("${notificaciones.firebase.credenciales:classpath:firebase-service-account.json}")
+            Resource credenciales) {
+        this.credenciales = credenciales;
+    }
+
     @PostConstruct
     public void initialize() {
-        try {
-            InputStream serviceAccount = new ClassPathResource("firebase-service-account.json").getInputStream();
-
+        try (InputStream serviceAccount = credenciales.getInputStream()) {
             FirebaseOptions options = FirebaseOptions.builder()
                     .setCredentials(GoogleCredentials.fromStream(serviceAccount))
                     .build();
 
             if (FirebaseApp.getApps().isEmpty()) {
                 FirebaseApp.initializeApp(options);
-                System.out.println("Firebase Admin SDK inicializado correctamente");
+                log.info("Firebase Admin SDK inicializado correctamente");
             }
         } catch (Exception e) {
-            System.out.println("Error al inicializar Firebase Admin SDK: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error al inicializar Firebase Admin SDK credenciales={}", credenciales, e);
         }
     }
 }
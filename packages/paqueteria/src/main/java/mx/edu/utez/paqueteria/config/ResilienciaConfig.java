@@ -0,0 +1,113 @@
+package mx.edu.utez.paqueteria.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Reintentos y circuit breakers de las llamadas a Firebase.
+ * Hay un circuito para FCM y otro para Firestore: si la tasa de fallos transitorios de las
+ * últimas notificaciones.resiliencia.circuito.ventana llamadas supera el umbral, las llamadas
+ * fallan de inmediato durante abierto-segundos en lugar de acumular hilos esperando.
+ * Además cada destino (envíos FCM, lecturas y escrituras de Firestore) tiene un limitador de tasa
+ * AIMD que arranca en tasa-inicial, sube de a poco mientras no haya rechazos y se reduce a la
+ * mitad (factor-reduccion) ante QUOTA_EXCEEDED / RESOURCE_EXHAUSTED; su tasa se publica en
+ * notificaciones.limites.tasa. Ninguna llamada espera turno más de espera-maxima-ms, y las de
+ * clientes tienen reservada fraccion-prioritaria de la tasa aunque una difusión haya dejado deuda.
+ */
+@Configuration
+public class ResilienciaConfig {
+
+    @Bean
+    public PoliticaReintentos politicaReintentos(
+            @Value("${notificaciones.resiliencia.reintentos:3}") int reintentos,
+            @Value("${notificaciones.resiliencia.espera-base-ms:200}") long esperaBaseMs,
+            @Value("${notificaciones.resiliencia.espera-maxima-ms:5000}") long esperaMaximaMs) {
+        return new PoliticaReintentos(reintentos, esperaBaseMs, esperaMaximaMs);
+    }
+
+    @Bean
+    public CircuitBreakerRegistry circuitBreakerRegistry(
+            @Value("${notificaciones.resiliencia.circuito.umbral-fallos:50}") float umbralFallos,
+            @Value("${notificaciones.resiliencia.circuito.ventana:20}") int ventana,
+            @Value("${notificaciones.resiliencia.circuito.abierto-segundos:30}") long abiertoSegundos,
+            MeterRegistry meterRegistry) {
+        CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+                .failureRateThreshold(umbralFallos)
+                .slidingWindowSize(ventana)
+                .minimumNumberOfCalls(Math.min(ventana, 10))
+                .waitDurationInOpenState(Duration.ofSeconds(abiertoSegundos))
+                .permittedNumberOfCallsInHalfOpenState(3)
+                .build();
+        CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(config);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry;
+    }
+
+    @Bean
+    public CircuitBreaker circuitoFcm(CircuitBreakerRegistry registry) {
+        return registry.circuitBreaker("fcm");
+    }
+
+    @Bean
+    public CircuitBreaker circuitoFirestore(CircuitBreakerRegistry registry) {
+        return registry.circuitBreaker("firestore");
+    }
+
+    @Bean
+    public LimitadorAdaptativo limitadorFcm(
+            @Value("${notificaciones.limites.fcm.tasa-inicial:500}") double tasaInicial,
+            @Value("${notificaciones.limites.fcm.tasa-minima:10}") double tasaMinima,
+            @Value("${notificaciones.limites.fcm.tasa-maxima:10000}") double tasaMaxima,
+            @Value("${notificaciones.limites.fcm.incremento:50}") double incremento,
+            @Value("${notificaciones.limites.factor-reduccion:0.5}") double factorReduccion,
+            @Value("${notificaciones.limites.fraccion-prioritaria:0.2}") double fraccionPrioritaria,
+            MeterRegistry meterRegistry) {
+        return limitador("fcm", new LimitadorAdaptativo(tasaInicial, tasaMinima, tasaMaxima, incremento,
+                factorReduccion, fraccionPrioritaria), meterRegistry);
+    }
+
+    @Bean
+    public LimitadorAdaptativo limitadorFirestoreLectura(
+            @Value("${notificaciones.limites.firestore-lectura.tasa-inicial:1000}") double tasaInicial,
+            @Value("${notificaciones.limites.firestore-lectura.tasa-minima:10}") double tasaMinima,
+            @Value("${notificaciones.limites.firestore-lectura.tasa-maxima:10000}") double tasaMaxima,
+            @Value("${notificaciones.limites.firestore-lectura.incremento:100}") double incremento,
+            @Value("${notificaciones.limites.factor-reduccion:0.5}") double factorReduccion,
+            @Value("${notificaciones.limites.fraccion-prioritaria:0.2}") double fraccionPrioritaria,
+            MeterRegistry meterRegistry) {
+        return limitador("firestore_lectura", new LimitadorAdaptativo(tasaInicial, tasaMinima, tasaMaxima,
+                incremento, factorReduccion, fraccionPrioritaria), meterRegistry);
+    }
+
+    @Bean
+    public LimitadorAdaptativo limitadorFirestoreEscritura(
+            @Value("${notificaciones.limites.firestore-escritura.tasa-inicial:500}") double tasaInicial,
+            @Value("${notificaciones.limites.firestore-escritura.tasa-minima:10}") double tasaMinima,
+            @Value("${notificaciones.limites.firestore-escritura.tasa-maxima:10000}") double tasaMaxima,
+            @Value("${notificaciones.limites.firestore-escritura.incremento:50}") double incremento,
+            @Value("${notificaciones.limites.factor-reduccion:0.5}") double factorReduccion,
+            @Value("${notificaciones.limites.fraccion-prioritaria:0.2}") double fraccionPrioritaria,
+            MeterRegistry meterRegistry) {
+        return limitador("firestore_escritura", new LimitadorAdaptativo(tasaInicial, tasaMinima, tasaMaxima,
+                incremento, factorReduccion, fraccionPrioritaria), meterRegistry);
+    }
+
+    private static LimitadorAdaptativo limitador(String recurso, LimitadorAdaptativo limitador,
+            MeterRegistry meterRegistry) {
+        Gauge.builder("notificaciones.limites.tasa", limitador, LimitadorAdaptativo::getTasa)
+                .tag("recurso", recurso)
+                .register(meterRegistry);
+        return limitador;
+    }
+}
@@ -0,0 +1,101 @@
+package mx.edu.utez.paqueteria.controller;
+
+import mx.edu.utez.paqueteria.exception.AccesoDenegadoException;
+import mx.edu.utez.paqueteria.exception.NoAutenticadoException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.service.AutenticacionUsuariosService;
+import mx.edu.utez.paqueteria.service.BandejaNotificacionesService;
+import mx.edu.utez.paqueteria.service.LecturaFirestoreService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Administración de la caché de usuarios, paquetes e historial de notificaciones.
+ * Quien modifique un documento en Firestore puede invalidar su entrada para no esperar a que expire:
+ * la app invalida su usuario (p. ej. tras cambiar el fcmToken) y su historial con el ID token del
+ * propio usuario, igual que al leerlo; las estadísticas y los paquetes piden el de un admin.
+ */
+@RestController
+@RequestMapping("/api/notificaciones/cache")
+@CrossOrigin(origins = "*")
+public class CacheController {
+
+    private final LecturaFirestoreService lecturaService;
+    private final BandejaNotificacionesService bandeja;
+    private final AutenticacionUsuariosService autenticacion;
+
+    public CacheController(LecturaFirestoreService lecturaService, BandejaNotificacionesService bandeja,
+            AutenticacionUsuariosService autenticacion) {
+        this.lecturaService = lecturaService;
+        this.bandeja = bandeja;
+        this.autenticacion = autenticacion;
+    }
+
+    @GetMapping("/estadisticas")
+    public ResponseEntity<Map<String, Object>> estadisticas(
+            @RequestHeader(value = "Authorization", required = false) String autorizacion) {
+        try {
+            autenticacion.verificarAdministrador(autorizacion);
+        } catch (RuntimeException e) {
+            return rechazar(e);
+        }
+        return ResponseEntity.ok(lecturaService.estadisticas());
+    }
+
+    @DeleteMapping("/usuarios/{userId}")
+    public ResponseEntity<Void> invalidarUsuario(@PathVariable String userId,
+            @RequestHeader(value = "Authorization", required = false) String autorizacion) {
+        try {
+            autenticacion.verificarPropietario(autorizacion, userId);
+        } catch (RuntimeException e) {
+            return rechazar(e);
+        }
+        lecturaService.invalidarUsuario(userId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/paquetes/{paqueteId}")
+    public ResponseEntity<Void> invalidarPaquete(@PathVariable String paqueteId,
+            @RequestHeader(value = "Authorization", required = false) String autorizacion) {
+        try {
+            autenticacion.verificarAdministrador(autorizacion);
+        } catch (RuntimeException e) {
+            return rechazar(e);
+        }
+        lecturaService.invalidarPaquete(paqueteId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/notificaciones/{userId}")
+    public ResponseEntity<Void> invalidarNotificaciones(@PathVariable String userId,
+            @RequestHeader(value = "Authorization", required = false) String autorizacion) {
+        try {
+            autenticacion.verificarPropietario(autorizacion, userId);
+        } catch (RuntimeException e) {
+            return rechazar(e);
+        }
+        bandeja.invalidar(userId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * 401 sin token válido, 403 con el de otro usuario o sin rol admin, 503 si no se pudo leer el rol
+     */
+    private static <T> ResponseEntity<T> rechazar(RuntimeException e) {
+        if (e instanceof NoAutenticadoException) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).header("WWW-Authenticate", "Bearer").build();
+        }
+        if (e instanceof AccesoDenegadoException) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (e instanceof ServicioNoDisponibleException noDisponible) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", String.valueOf(noDisponible.getReintentarEnSegundos()))
+                    .build();
+        }
+        throw e;
+    }
+}
@@ -1,19 +1,45 @@
 package mx.edu.utez.paqueteria.controller;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEventoDTO;
+import mx.edu.utez.paqueteria.exception.AccesoDenegadoException;
+import mx.edu.utez.paqueteria.exception.ColaLlenaException;
+import mx.edu.utez.paqueteria.exception.EventoInvalidoException;
+import mx.edu.utez.paqueteria.exception.NoAutenticadoException;
 import mx.edu.utez.paqueteria.exception.RecursoNoEncontradoException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.service.AutenticacionUsuariosService;
+import mx.edu.utez.paqueteria.service.BandejaNotificacionesService;
+import mx.edu.utez.paqueteria.service.DespachadorEventosService;
+import mx.edu.utez.paqueteria.service.IdempotenciaService;
 import mx.edu.utez.paqueteria.service.NotificacionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /**
  * Controlador para manejar eventos de notificaciones
  * Recibe eventos del frontend y delega al servicio.
+ * Con notificaciones.ingesta.modo=asincrono los eventos se encolan y se responde 202.
+ * Los reintentos (mismo Idempotency-Key o mismo paqueteId + acción) reciben la respuesta original;
+ * en un lote cada evento se deduplica por su paqueteId + acción, igual que en los endpoints individuales.
+ * GET /{userId} devuelve el historial paginado del usuario con ETag; si no cambió responde 304.
+ * Solo el propio usuario puede leerlo, con su ID token de Firebase en Authorization: Bearer.
  * 
  * @author JonthanAyala
  */
@@ -22,63 +48,196 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class NotificacionController {
 
+    private static final Logger log = LoggerFactory.getLogger(NotificacionController.class);
+
+    private static final String ACCION_LOTE = "LOTE";
+
     private final NotificacionService notificacionService;
+    private final DespachadorEventosService despachador;
+    private final BandejaNotificacionesService bandeja;
+    private final AutenticacionUsuariosService autenticacion;
+    private final IdempotenciaService idempotencia;
+    private final MeterRegistry registry;
+    private final boolean asincrono;
+    private final int maximoEventosLote;
 
-    public NotificacionController(NotificacionService notificacionService) {
+    public NotificacionController(NotificacionService notificacionService,
+            DespachadorEventosService despachador, BandejaNotificacionesService bandeja,
+            AutenticacionUsuariosService autenticacion, IdempotenciaService idempotencia, MeterRegistry registry,
+            @Value("${notificaciones.ingesta.modo:sincrono}") String modoIngesta,
+            @Value("${notificaciones.lote.maximo-eventos:500}") int maximoEventosLote) {
         this.notificacionService = notificacionService;
+        this.despachador = despachador;
+        this.bandeja = bandeja;
+        this.autenticacion = autenticacion;
+        this.idempotencia = idempotencia;
+        this.registry = registry;
+        this.asincrono = "asincrono".equalsIgnoreCase(modoIngesta);
+        this.maximoEventosLote = maximoEventosLote;
     }
 
     @PostMapping("/paquete-tomado")
-    public ResponseEntity<?> notificarPaqueteTomado(@RequestBody PaqueteEventDTO evento) {
-        try {
-            System.out.println("Recibida solicitud de notificación: Paquete Tomado - ID: " + evento.getPaqueteId());
-            notificacionService.notificarPedidoTomado(evento);
-            return ResponseEntity
-                    .ok(crearRespuesta(true, "Notificación de paquete tomado enviada", evento.getPaqueteId()));
-        } catch (RecursoNoEncontradoException e) {
-            System.out.println("Recurso no encontrado al notificar paquete tomado: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(crearRespuesta(false, e.getMessage(), null));
-        } catch (Exception e) {
-            System.err.println("Error interno al notificar paquete tomado: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
-        }
+    public ResponseEntity<?> notificarPaqueteTomado(@RequestBody PaqueteEventDTO evento,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        String clave = IdempotenciaService.clave(idempotencyKey, evento.getPaqueteId(),
+                DespachadorEventosService.ACCION_TOMADO);
+        return medir(DespachadorEventosService.ACCION_TOMADO, () -> idempotencia.ejecutar(clave, () -> {
+            try {
+                log.debug("Recibido evento accion={} paqueteId={}", DespachadorEventosService.ACCION_TOMADO,
+                        evento.getPaqueteId());
+                if (asincrono) {
+                    return aceptarEvento(evento, DespachadorEventosService.ACCION_TOMADO);
+                }
+                notificacionService.notificarPedidoTomado(evento);
+                return ResponseEntity
+                        .ok(crearRespuesta(true, "Notificación de paquete tomado enviada", evento.getPaqueteId()));
+            } catch (RecursoNoEncontradoException e) {
+                log.info("Recurso no encontrado al notificar paquete tomado: {}", e.getMessage());
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(crearRespuesta(false, e.getMessage(), null));
+            } catch (ServicioNoDisponibleException e) {
+                log.warn("Firebase no disponible al notificar paquete tomado: {}", e.getMessage());
+                return servicioNoDisponible(e, evento.getPaqueteId());
+            } catch (Exception e) {
+                log.error("Error interno al notificar paquete tomado", e);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
+            }
+        }));
     }
 
     @PostMapping("/nuevo-paquete")
-    public ResponseEntity<?> notificarNuevoPaquete(@RequestBody PaqueteEventDTO evento) {
-        try {
-            System.out.println("Recibida solicitud de notificación: Nuevo Paquete - ID: " + evento.getPaqueteId());
-            notificacionService.notificarNuevoPedido(evento);
-            return ResponseEntity.ok(crearRespuesta(true, "Notificaciones de nuevo paquete enviadas a repartidores",
-                    evento.getPaqueteId()));
-        } catch (RecursoNoEncontradoException e) {
-            System.err.println("Recurso no encontrado al notificar nuevo paquete: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(crearRespuesta(false, e.getMessage(), null));
-        } catch (Exception e) {
-            System.err.println("Error interno al notificar nuevo paquete: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
-        }
+    public ResponseEntity<?> notificarNuevoPaquete(@RequestBody PaqueteEventDTO evento,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        String clave = IdempotenciaService.clave(idempotencyKey, evento.getPaqueteId(),
+                DespachadorEventosService.ACCION_CREADO);
+        return medir(DespachadorEventosService.ACCION_CREADO, () -> idempotencia.ejecutar(clave, () -> {
+            try {
+                log.debug("Recibido evento accion={} paqueteId={}", DespachadorEventosService.ACCION_CREADO,
+                        evento.getPaqueteId());
+                if (asincrono) {
+                    return aceptarEvento(evento, DespachadorEventosService.ACCION_CREADO);
+                }
+                notificacionService.notificarNuevoPedido(evento);
+                return ResponseEntity.ok(crearRespuesta(true, "Notificaciones de nuevo paquete enviadas a repartidores",
+                        evento.getPaqueteId()));
+            } catch (RecursoNoEncontradoException e) {
+                log.info("Recurso no encontrado al notificar nuevo paquete: {}", e.getMessage());
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(crearRespuesta(false, e.getMessage(), null));
+            } catch (ServicioNoDisponibleException e) {
+                log.warn("Firebase no disponible al notificar nuevo paquete: {}", e.getMessage());
+                return servicioNoDisponible(e, evento.getPaqueteId());
+            } catch (Exception e) {
+                log.error("Error interno al notificar nuevo paquete", e);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
+            }
+        }));
     }
 
     @PostMapping("/paquete-entregado")
-    public ResponseEntity<?> notificarPaqueteEntregado(@RequestBody PaqueteEventDTO evento) {
+    public ResponseEntity<?> notificarPaqueteEntregado(@RequestBody PaqueteEventDTO evento,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        String clave = IdempotenciaService.clave(idempotencyKey, evento.getPaqueteId(),
+                DespachadorEventosService.ACCION_ENTREGADO);
+        return medir(DespachadorEventosService.ACCION_ENTREGADO, () -> idempotencia.ejecutar(clave, () -> {
+            try {
+                log.debug("Recibido evento accion={} paqueteId={}", DespachadorEventosService.ACCION_ENTREGADO,
+                        evento.getPaqueteId());
+                if (asincrono) {
+                    return aceptarEvento(evento, DespachadorEventosService.ACCION_ENTREGADO);
+                }
+                notificacionService.notificarPedidoEntregado(evento);
+                return ResponseEntity
+                        .ok(crearRespuesta(true, "Notificación de paquete entregado enviada", evento.getPaqueteId()));
+            } catch (RecursoNoEncontradoException e) {
+                log.info("Recurso no encontrado al notificar paquete entregado: {}", e.getMessage());
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(crearRespuesta(false, e.getMessage(), null));
+            } catch (ServicioNoDisponibleException e) {
+                log.warn("Firebase no disponible al notificar paquete entregado: {}", e.getMessage());
+                return servicioNoDisponible(e, evento.getPaqueteId());
+            } catch (Exception e) {
+                log.error("Error interno al notificar paquete entregado", e);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
+            }
+        }));
+    }
+
+    /**
+     * Varios eventos (CREADO, TOMADO, ENTREGADO según su campo accion) en una sola petición,
+     * con un resultado por evento en el mismo orden. Un evento ya procesado por otra petición
+     * (o repetido en el mismo lote) queda DUPLICADO sin volver a notificarse.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> notificarLote(@RequestBody List<PaqueteEventDTO> eventos,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        String clave = IdempotenciaService.clave(idempotencyKey, null, ACCION_LOTE);
+        return medir(ACCION_LOTE, () -> idempotencia.ejecutar(clave, () -> {
+            if (eventos == null || eventos.isEmpty() || eventos.size() > maximoEventosLote) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(crearRespuesta(false,
+                        "El lote debe tener entre 1 y " + maximoEventosLote + " eventos", null));
+            }
+            try {
+                log.debug("Recibido lote de eventos eventos={}", eventos.size());
+                List<ResultadoEventoDTO> resultados = procesarLote(eventos);
+                if (asincrono) {
+                    return ResponseEntity.status(HttpStatus.ACCEPTED)
+                            .body(crearRespuestaLote("Lote aceptado para procesamiento", resultados));
+                }
+                return ResponseEntity.ok(crearRespuestaLote("Lote de eventos procesado", resultados));
+            } catch (ServicioNoDisponibleException e) {
+                log.warn("Firebase no disponible al procesar lote de eventos: {}", e.getMessage());
+                return servicioNoDisponible(e, null);
+            } catch (Exception e) {
+                log.error("Error interno al procesar lote de eventos", e);
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
+            }
+        }));
+    }
+
+    @GetMapping("/eventos/{trackingId}")
+    public ResponseEntity<Map<String, Object>> estadoEvento(@PathVariable String trackingId) {
+        String estado = despachador.obtenerEstado(trackingId);
+        if (estado == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(crearRespuesta(false, "Evento no encontrado: " + trackingId, null));
+        }
+        Map<String, Object> response = crearRespuesta(true, estado, null);
+        response.put("trackingId", trackingId);
+        response.put("estado", estado);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Historial del usuario, de la notificación más reciente a la más antigua. Para la siguiente página
+     * se manda el siguienteCursor de la respuesta. Spring compara el ETag con If-None-Match y responde
+     * 304 sin cuerpo si la página no cambió. Sin token válido responde 401 y con el de otro usuario 403.
+     */
+    @GetMapping("/{userId}")
+    public ResponseEntity<?> historial(@PathVariable String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limite,
+            @RequestHeader(value = "Authorization", required = false) String autorizacion) {
         try {
-            System.out.println("Recibida solicitud de notificación: Paquete Entregado - ID: " + evento.getPaqueteId());
-            notificacionService.notificarPedidoEntregado(evento);
-            return ResponseEntity
-                    .ok(crearRespuesta(true, "Notificación de paquete entregado enviada", evento.getPaqueteId()));
-        } catch (RecursoNoEncontradoException e) {
-            System.err.println("Recurso no encontrado al notificar paquete entregado: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(crearRespuesta(false, e.getMessage(), null));
-        } catch (Exception e) {
-            System.err.println("Error interno al notificar paquete entregado: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(crearRespuesta(false, "Error interno: " + e.getMessage(), null));
+            autenticacion.verificarPropietario(autorizacion, userId);
+            BandejaNotificacionesService.Pagina pagina = bandeja.obtenerPagina(userId, cursor, limite);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .eTag(pagina.getEtag())
+                    .body(pagina.getContenido());
+        } catch (NoAutenticadoException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header("WWW-Authenticate", "Bearer")
+                    .body(crearRespuesta(false, e.getMessage(), null));
+        } catch (AccesoDenegadoException e) {
+            log.info("Acceso denegado al historial userId={}", userId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(crearRespuesta(false, e.getMessage(), null));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(crearRespuesta(false, e.getMessage(), null));
+        } catch (ServicioNoDisponibleException e) {
+            log.warn("Historial no disponible userId={}: {}", userId, e.getMessage());
+            return servicioNoDisponible(e, null);
         }
     }
 
@@ -91,6 +250,210 @@ public class NotificacionController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Registra la latencia total del endpoint en notificaciones.evento por tipo de evento y status
+     */
+    private ResponseEntity<?> medir(String tipo, Supplier<ResponseEntity<?>> endpoint) {
+        Timer.Sample muestra = Timer.start(registry);
+        ResponseEntity<?> respuesta = endpoint.get();
+        muestra.stop(registry.timer("notificaciones.evento",
+                "tipo", tipo, "status", String.valueOf(respuesta.getStatusCode().value())));
+        return respuesta;
+    }
+
+    /**
+     * Encola el evento para el despachador y responde 202 con su id de seguimiento.
+     */
+    private ResponseEntity<?> aceptarEvento(PaqueteEventDTO evento, String accion) {
+        try {
+            String trackingId = despachador.encolar(evento, accion);
+            Map<String, Object> response = crearRespuesta(true, "Evento aceptado para procesamiento",
+                    evento.getPaqueteId());
+            response.put("trackingId", trackingId);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (EventoInvalidoException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(crearRespuesta(false, e.getMessage(), null));
+        } catch (ColaLlenaException e) {
+            log.warn("Evento rechazado por cola llena paqueteId={}", evento.getPaqueteId());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", "1")
+                    .body(crearRespuesta(false, e.getMessage(), evento.getPaqueteId()));
+        }
+    }
+
+    /**
+     * Reserva la clave acción:paqueteId de cada evento y procesa (o encola) solo los que nadie más tiene.
+     * Las reservas propias se completan antes de esperar las de otras peticiones, así dos lotes con
+     * eventos cruzados no se bloquean entre sí.
+     */
+    private List<ResultadoEventoDTO> procesarLote(List<PaqueteEventDTO> eventos) {
+        List<ResultadoEventoDTO> resultados = new ArrayList<>(Collections.nCopies(eventos.size(), null));
+        List<Integer> nuevos = new ArrayList<>();
+        Map<Integer, IdempotenciaService.Reserva> propias = new HashMap<>();
+        Map<Integer, IdempotenciaService.Reserva> ajenas = new HashMap<>();
+        // clave -> primer evento del lote con ella; los demás copian su resultado
+        Map<String, Integer> primeros = new HashMap<>();
+        Map<Integer, Integer> repetidos = new HashMap<>();
+        for (int i = 0; i < eventos.size(); i++) {
+            PaqueteEventDTO evento = eventos.get(i);
+            String clave = IdempotenciaService.clave(null, evento.getPaqueteId(), evento.getAccion());
+            if (clave == null) {
+                nuevos.add(i);
+                continue;
+            }
+            Integer primero = primeros.putIfAbsent(clave, i);
+            if (primero != null) {
+                repetidos.put(i, primero);
+                continue;
+            }
+            IdempotenciaService.Reserva reserva = idempotencia.reservar(clave);
+            if (reserva.isPropia()) {
+                propias.put(i, reserva);
+                nuevos.add(i);
+            } else {
+                ajenas.put(i, reserva);
+            }
+        }
+
+        List<ResultadoEventoDTO> procesados;
+        try {
+            List<PaqueteEventDTO> porProcesar = nuevos.stream().map(eventos::get).toList();
+            procesados = asincrono ? encolarLote(porProcesar) : notificacionService.notificarLote(porProcesar);
+        } catch (RuntimeException e) {
+            propias.values().forEach(reserva -> idempotencia.liberar(reserva, e));
+            throw e;
+        }
+        for (int j = 0; j < nuevos.size(); j++) {
+            int i = nuevos.get(j);
+            ResultadoEventoDTO resultado = procesados.get(j);
+            resultado.setIndice(i);
+            resultados.set(i, resultado);
+            IdempotenciaService.Reserva reserva = propias.get(i);
+            if (reserva != null) {
+                idempotencia.completar(reserva, respuestaEvento(resultado));
+            }
+        }
+
+        ajenas.forEach((i, reserva) -> resultados.set(i, resultadoOriginal(i, eventos.get(i), reserva)));
+        repetidos.forEach((i, primero) -> resultados.set(i, copiarResultado(i, eventos.get(i),
+                resultados.get(primero))));
+        return resultados;
+    }
+
+    /**
+     * Lo que respondería el endpoint individual con este resultado, para quien repita el evento después
+     */
+    private ResponseEntity<?> respuestaEvento(ResultadoEventoDTO resultado) {
+        if (!resultado.isExitoso()) {
+            return ResponseEntity.status(statusDe(resultado.getEstado()))
+                    .body(crearRespuesta(false, resultado.getMensaje(), resultado.getPaqueteId()));
+        }
+        Map<String, Object> response = crearRespuesta(true, "Evento procesado en lote", resultado.getPaqueteId());
+        if (resultado.getTrackingId() != null) {
+            response.put("trackingId", resultado.getTrackingId());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Resultado de un evento que otra petición tenía reservado; espera a que termine si sigue en curso
+     */
+    private static ResultadoEventoDTO resultadoOriginal(int indice, PaqueteEventDTO evento,
+            IdempotenciaService.Reserva reserva) {
+        try {
+            ResponseEntity<?> original = reserva.esperarOriginal();
+            if (!original.getStatusCode().is2xxSuccessful()) {
+                return ResultadoEventoDTO.de(indice, evento, estadoDe(original.getStatusCode().value()),
+                        "Falló el procesamiento original del evento");
+            }
+            ResultadoEventoDTO resultado = ResultadoEventoDTO.de(indice, evento, ResultadoEventoDTO.ESTADO_DUPLICADO,
+                    "Evento ya procesado");
+            if (original.getBody() instanceof Map<?, ?> cuerpo && cuerpo.get("trackingId") instanceof String id) {
+                resultado.setTrackingId(id);
+            }
+            return resultado;
+        } catch (CompletionException e) {
+            return ResultadoEventoDTO.de(indice, evento, e.getCause() instanceof ServicioNoDisponibleException
+                    ? ResultadoEventoDTO.ESTADO_NO_DISPONIBLE : ResultadoEventoDTO.ESTADO_ERROR,
+                    "Falló el procesamiento original del evento");
+        }
+    }
+
+    /**
+     * Evento repetido dentro del mismo lote: DUPLICADO si el primero tuvo éxito, si no su mismo estado
+     */
+    private static ResultadoEventoDTO copiarResultado(int indice, PaqueteEventDTO evento,
+            ResultadoEventoDTO primero) {
+        if (!primero.isExitoso()) {
+            return ResultadoEventoDTO.de(indice, evento, primero.getEstado(), primero.getMensaje());
+        }
+        ResultadoEventoDTO resultado = ResultadoEventoDTO.de(indice, evento, ResultadoEventoDTO.ESTADO_DUPLICADO,
+                "Evento repetido en el lote");
+        resultado.setTrackingId(primero.getTrackingId());
+        return resultado;
+    }
+
+    private static HttpStatus statusDe(String estado) {
+        return switch (estado) {
+            case ResultadoEventoDTO.ESTADO_INVALIDO -> HttpStatus.BAD_REQUEST;
+            case ResultadoEventoDTO.ESTADO_NO_ENCONTRADO -> HttpStatus.NOT_FOUND;
+            case ResultadoEventoDTO.ESTADO_RECHAZADO -> HttpStatus.TOO_MANY_REQUESTS;
+            case ResultadoEventoDTO.ESTADO_NO_DISPONIBLE -> HttpStatus.SERVICE_UNAVAILABLE;
+            default -> HttpStatus.INTERNAL_SERVER_ERROR;
+        };
+    }
+
+    private static String estadoDe(int status) {
+        return switch (status) {
+            case 400 -> ResultadoEventoDTO.ESTADO_INVALIDO;
+            case 404 -> ResultadoEventoDTO.ESTADO_NO_ENCONTRADO;
+            case 429 -> ResultadoEventoDTO.ESTADO_RECHAZADO;
+            case 503 -> ResultadoEventoDTO.ESTADO_NO_DISPONIBLE;
+            default -> ResultadoEventoDTO.ESTADO_ERROR;
+        };
+    }
+
+    /**
+     * Encola cada evento del lote por separado; los que no caben en la cola quedan RECHAZADO
+     */
+    private List<ResultadoEventoDTO> encolarLote(List<PaqueteEventDTO> eventos) {
+        List<ResultadoEventoDTO> resultados = new ArrayList<>(eventos.size());
+        for (int i = 0; i < eventos.size(); i++) {
+            PaqueteEventDTO evento = eventos.get(i);
+            try {
+                String trackingId = despachador.encolar(evento, evento.getAccion());
+                ResultadoEventoDTO resultado = ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_ACEPTADO,
+                        null);
+                resultado.setTrackingId(trackingId);
+                resultados.add(resultado);
+            } catch (EventoInvalidoException e) {
+                resultados.add(ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_INVALIDO, e.getMessage()));
+            } catch (ColaLlenaException e) {
+                resultados.add(ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_RECHAZADO, e.getMessage()));
+            }
+        }
+        return resultados;
+    }
+
+    private Map<String, Object> crearRespuestaLote(String mensaje, List<ResultadoEventoDTO> resultados) {
+        long exitosos = resultados.stream().filter(ResultadoEventoDTO::isExitoso).count();
+        Map<String, Object> response = crearRespuesta(exitosos == resultados.size(), mensaje, null);
+        response.put("total", resultados.size());
+        response.put("exitosos", exitosos);
+        response.put("resultados", resultados);
+        return response;
+    }
+
+    /**
+     * 503 con Retry-After para que el cliente reintente cuando Firebase se recupere
+     */
+    private ResponseEntity<?> servicioNoDisponible(ServicioNoDisponibleException e, String paqueteId) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", String.valueOf(e.getReintentarEnSegundos()))
+                .body(crearRespuesta(false, e.getMessage(), paqueteId));
+    }
+
     private Map<String, Object> crearRespuesta(boolean success, String mensaje, String paqueteId) {
         Map<String, Object> response = new HashMap<>();
         response.put("success", success);
@@ -0,0 +1,46 @@
+package mx.edu.utez.paqueteria.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import mx.edu.utez.paqueteria.model.NotificacionModel;
+
+import java.util.List;
+
+/**
+ * Una página del historial de un usuario, de la más reciente a la más antigua
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaginaNotificacionesDTO {
+    private List<NotificacionModel> notificaciones;
+    private String siguienteCursor; // null si no hay más páginas
+    private long noLeidas;
+
+    public List<NotificacionModel> getNotificaciones() {
+        return notificaciones;
+    }
+
+    public void setNotificaciones(List<NotificacionModel> notificaciones) {
+        this.notificaciones = notificaciones;
+    }
+
+    public String getSiguienteCursor() {
+        return siguienteCursor;
+    }
+
+    public void setSiguienteCursor(String siguienteCursor) {
+        this.siguienteCursor = siguienteCursor;
+    }
+
+    public long getNoLeidas() {
+        return noLeidas;
+    }
+
+    public void setNoLeidas(long noLeidas) {
+        this.noLeidas = noLeidas;
+    }
+}
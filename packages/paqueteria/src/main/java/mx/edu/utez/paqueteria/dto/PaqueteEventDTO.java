@@ -23,6 +23,24 @@ public class PaqueteEventDTO {
     private String direccion; // auto
     private String estado; // auto
     private String accion; // "CREADO", "TOMADO", "ENTREGADO"
+    private Double latitud; // opcional, para difundir solo a repartidores cercanos
+    private Double longitud; // opcional
+
+    public Double getLatitud() {
+        return latitud;
+    }
+
+    public void setLatitud(Double latitud) {
+        this.latitud = latitud;
+    }
+
+    public Double getLongitud() {
+        return longitud;
+    }
+
+    public void setLongitud(Double longitud) {
+        this.longitud = longitud;
+    }
 
     public String getAccion() {
         return accion;
@@ -0,0 +1,85 @@
+package mx.edu.utez.paqueteria.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado del envío de una notificación a un destinatario
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultadoEnvioDTO {
+    private String userId;
+    private String token;
+    private boolean exitoso;
+    private String messageId;
+    private String codigoError; // MessagingErrorCode o null si fue exitoso
+    private boolean noDisponible; // falló porque FCM o Firestore no respondieron; conviene reintentar
+
+    public static ResultadoEnvioDTO exito(String userId, String token, String messageId) {
+        return new ResultadoEnvioDTO(userId, token, true, messageId, null, false);
+    }
+
+    public static ResultadoEnvioDTO fallo(String userId, String token, String codigoError) {
+        return new ResultadoEnvioDTO(userId, token, false, null, codigoError, false);
+    }
+
+    /**
+     * Fallo transitorio: se agotaron los reintentos o el circuito está abierto
+     */
+    public static ResultadoEnvioDTO noDisponible(String userId, String token, String codigoError) {
+        return new ResultadoEnvioDTO(userId, token, false, null, codigoError, true);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public boolean isExitoso() {
+        return exitoso;
+    }
+
+    public void setExitoso(boolean exitoso) {
+        this.exitoso = exitoso;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getCodigoError() {
+        return codigoError;
+    }
+
+    public void setCodigoError(String codigoError) {
+        this.codigoError = codigoError;
+    }
+
+    public boolean isNoDisponible() {
+        return noDisponible;
+    }
+
+    public void setNoDisponible(boolean noDisponible) {
+        this.noDisponible = noDisponible;
+    }
+}
@@ -0,0 +1,94 @@
+package mx.edu.utez.paqueteria.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de un evento dentro de un lote
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultadoEventoDTO {
+
+    public static final String ESTADO_ENVIADO = "ENVIADO";
+    public static final String ESTADO_SOLO_HISTORIAL = "SOLO_HISTORIAL";
+    public static final String ESTADO_ACEPTADO = "ACEPTADO";
+    public static final String ESTADO_DUPLICADO = "DUPLICADO";
+    public static final String ESTADO_INVALIDO = "INVALIDO";
+    public static final String ESTADO_NO_ENCONTRADO = "NO_ENCONTRADO";
+    public static final String ESTADO_NO_DISPONIBLE = "NO_DISPONIBLE";
+    public static final String ESTADO_RECHAZADO = "RECHAZADO";
+    public static final String ESTADO_ERROR = "ERROR";
+
+    private int indice;
+    private String paqueteId;
+    private String accion;
+    private String estado;
+    private String mensaje;
+    private String trackingId; // solo en modo asíncrono
+
+    public static ResultadoEventoDTO de(int indice, PaqueteEventDTO evento, String estado, String mensaje) {
+        return new ResultadoEventoDTO(indice, evento.getPaqueteId(), evento.getAccion(), estado, mensaje, null);
+    }
+
+    /**
+     * El evento se notificó (o se encoló); SOLO_HISTORIAL cuenta porque el push no depende del backend
+     * y DUPLICADO porque otra petición ya lo notificó
+     */
+    public boolean isExitoso() {
+        return ESTADO_ENVIADO.equals(estado) || ESTADO_SOLO_HISTORIAL.equals(estado)
+                || ESTADO_ACEPTADO.equals(estado) || ESTADO_DUPLICADO.equals(estado);
+    }
+
+    public int getIndice() {
+        return indice;
+    }
+
+    public void setIndice(int indice) {
+        this.indice = indice;
+    }
+
+    public String getPaqueteId() {
+        return paqueteId;
+    }
+
+    public void setPaqueteId(String paqueteId) {
+        this.paqueteId = paqueteId;
+    }
+
+    public String getAccion() {
+        return accion;
+    }
+
+    public void setAccion(String accion) {
+        this.accion = accion;
+    }
+
+    public String getEstado() {
+        return estado;
+    }
+
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+
+    public String getMensaje() {
+        return mensaje;
+    }
+
+    public void setMensaje(String mensaje) {
+        this.mensaje = mensaje;
+    }
+
+    public String getTrackingId() {
+        return trackingId;
+    }
+
+    public void setTrackingId(String trackingId) {
+        this.trackingId = trackingId;
+    }
+}
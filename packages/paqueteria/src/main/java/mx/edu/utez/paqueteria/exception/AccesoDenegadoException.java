@@ -0,0 +1,7 @@
+package mx.edu.utez.paqueteria.exception;
+
+public class AccesoDenegadoException extends RuntimeException {
+    public AccesoDenegadoException(String mensaje) {
+        super(mensaje);
+    }
+}
@@ -0,0 +1,7 @@
+package mx.edu.utez.paqueteria.exception;
+
+public class ColaLlenaException extends RuntimeException {
+    public ColaLlenaException(String mensaje) {
+        super(mensaje);
+    }
+}
@@ -0,0 +1,7 @@
+package mx.edu.utez.paqueteria.exception;
+
+public class EventoInvalidoException extends RuntimeException {
+    public EventoInvalidoException(String mensaje) {
+        super(mensaje);
+    }
+}
@@ -0,0 +1,7 @@
+package mx.edu.utez.paqueteria.exception;
+
+public class NoAutenticadoException extends RuntimeException {
+    public NoAutenticadoException(String mensaje) {
+        super(mensaje);
+    }
+}
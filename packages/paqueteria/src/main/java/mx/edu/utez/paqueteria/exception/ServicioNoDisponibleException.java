@@ -0,0 +1,18 @@
+package mx.edu.utez.paqueteria.exception;
+
+/**
+ * Firebase no respondió tras los reintentos o su circuito está abierto
+ */
+public class ServicioNoDisponibleException extends RuntimeException {
+
+    private final long reintentarEnSegundos;
+
+    public ServicioNoDisponibleException(String mensaje, long reintentarEnSegundos) {
+        super(mensaje);
+        this.reintentarEnSegundos = reintentarEnSegundos;
+    }
+
+    public long getReintentarEnSegundos() {
+        return reintentarEnSegundos;
+    }
+}
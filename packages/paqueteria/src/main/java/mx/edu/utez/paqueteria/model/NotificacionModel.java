@@ -1,5 +1,6 @@
 package mx.edu.utez.paqueteria.model;
 
+import com.google.cloud.firestore.annotation.IgnoreExtraProperties;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -8,10 +9,14 @@ import lombok.NoArgsConstructor;
 import java.util.Date;
 import java.util.Map;
 
+/**
+ * Documento de usuarios/{id}/notificaciones, o de difusiones/{id} cuando se resuelve un apuntador
+ */
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@IgnoreExtraProperties
 public class NotificacionModel {
     private String id;
     private String titulo;
@@ -20,6 +25,7 @@ public class NotificacionModel {
     private boolean leida;
     private String tipo;
     private Map<String, String> data;
+    private String difusionId; // apuntador a difusiones/{id} en el formato compacto
 
     public String getId() {
         return id;
@@ -76,4 +82,12 @@ public class NotificacionModel {
     public void setData(Map<String, String> data) {
         this.data = data;
     }
+
+    public String getDifusionId() {
+        return difusionId;
+    }
+
+    public void setDifusionId(String difusionId) {
+        this.difusionId = difusionId;
+    }
 }
@@ -18,6 +18,8 @@ public class PaqueteModel {
     private String fotoUrl;
     private Timestamp fechaCreacion;
     private String codigoQR;
+    private Double latitud;
+    private Double longitud;
 
     public String getId() {
         return id;
@@ -90,4 +92,20 @@ public class PaqueteModel {
     public void setCodigoQR(String codigoQR) {
         this.codigoQR = codigoQR;
     }
+
+    public Double getLatitud() {
+        return latitud;
+    }
+
+    public void setLatitud(Double latitud) {
+        this.latitud = latitud;
+    }
+
+    public Double getLongitud() {
+        return longitud;
+    }
+
+    public void setLongitud(Double longitud) {
+        this.longitud = longitud;
+    }
 }
@@ -16,6 +16,7 @@ public class UsuarioModel {
     private String fcmToken;
     private String token;
     private Timestamp ultimaActualizacionToken;
+    private String idioma; // opcional ("es", "en"), elige la plantilla de sus notificaciones
 
     public String getId() {
         return id;
@@ -72,4 +73,12 @@ public class UsuarioModel {
     public void setUltimaActualizacionToken(Timestamp ultimaActualizacionToken) {
         this.ultimaActualizacionToken = ultimaActualizacionToken;
     }
+
+    public String getIdioma() {
+        return idioma;
+    }
+
+    public void setIdioma(String idioma) {
+        this.idioma = idioma;
+    }
 }
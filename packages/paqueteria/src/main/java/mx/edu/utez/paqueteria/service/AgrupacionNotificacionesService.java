@@ -0,0 +1,215 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.exception.NotificacionException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.service.PlantillasNotificacionService.Plantilla;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrupa las notificaciones de un mismo cliente que llegan dentro de una ventana corta.
+ * La primera notificación de un usuario abre su ventana de notificaciones.agrupacion.ventana-ms;
+ * al cerrarse se guarda todo su historial en un solo lote y se envía un único push: el original
+ * si solo hubo uno, o un resumen ("3 paquetes en camino", plantillas resumen.*) en el idioma del
+ * usuario si hubo varios. Quien agrega recibe un futuro que se completa al confirmarse el historial
+ * y el push del grupo, así el evento no se da por entregado (ni se confirma en el outbox) mientras
+ * solo está en memoria.
+ * Con ventana 0 (por defecto) está deshabilitada y cada evento se notifica al momento.
+ */
+@Service
+public class AgrupacionNotificacionesService {
+
+    private static final Logger log = LoggerFactory.getLogger(AgrupacionNotificacionesService.class);
+
+    public static final String TIPO_RESUMEN = "resumen";
+
+    private static final int MAX_LINEAS_RESUMEN = 3;
+
+    private final FirebaseMessagingService fcmService;
+    private final HistorialNotificacionesService historialService;
+    private final PlantillasNotificacionService plantillas;
+    private final ScheduledExecutorService temporizador;
+    private final long ventanaMs;
+    private final int maximoPorUsuario;
+    private final MeterRegistry registry;
+
+    /** userId -> notificaciones retenidas en su ventana abierta */
+    private final Map<String, Grupo> grupos = new ConcurrentHashMap<>();
+
+    public AgrupacionNotificacionesService(FirebaseMessagingService fcmService,
+            HistorialNotificacionesService historialService, PlantillasNotificacionService plantillas,
+            @Qualifier("agrupacionExecutor") ScheduledExecutorService temporizador,
+            @Value("${notificaciones.agrupacion.ventana-ms:0}") long ventanaMs,
+            @Value("${notificaciones.agrupacion.maximo-por-usuario:20}") int maximoPorUsuario,
+            MeterRegistry registry) {
+        this.fcmService = fcmService;
+        this.historialService = historialService;
+        this.plantillas = plantillas;
+        this.temporizador = temporizador;
+        this.ventanaMs = ventanaMs;
+        this.maximoPorUsuario = Math.max(1, maximoPorUsuario);
+        this.registry = registry;
+        Gauge.builder("notificaciones.agrupacion.usuarios", grupos, Map::size).register(registry);
+    }
+
+    public boolean isHabilitada() {
+        return ventanaMs > 0;
+    }
+
+    /**
+     * Retiene la notificación hasta que cierre la ventana del usuario; si el usuario ya juntó
+     * notificaciones.agrupacion.maximo-por-usuario la ventana se cierra de inmediato
+     *
+     * @param fcmToken token del usuario, o null si solo se guarda historial
+     * @param idioma   idioma del usuario para el resumen, o null para el predeterminado
+     * @return se completa al cerrarse la ventana con el historial y el push confirmados; falla con
+     *         ServicioNoDisponibleException si Firebase no estaba disponible
+     */
+    public CompletableFuture<Void> agregar(NotificacionDTO notificacion, String fcmToken, String idioma) {
+        String userId = notificacion.getUserId();
+        Grupo grupo = grupos.compute(userId, (id, actual) -> {
+            Grupo destino = actual;
+            if (destino == null) {
+                destino = new Grupo();
+                Grupo nuevo = destino;
+                temporizador.schedule(() -> vaciar(id, nuevo), ventanaMs, TimeUnit.MILLISECONDS);
+            }
+            destino.notificaciones.add(notificacion);
+            if (fcmToken != null) {
+                destino.fcmToken = fcmToken;
+            }
+            if (idioma != null) {
+                destino.idioma = idioma;
+            }
+            return destino;
+        });
+        if (grupo.notificaciones.size() >= maximoPorUsuario) {
+            temporizador.execute(() -> vaciar(userId, grupo));
+        }
+        return grupo.confirmado;
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (!grupos.isEmpty()) {
+            log.info("Enviando notificaciones agrupadas antes de detener usuarios={}", grupos.size());
+            grupos.forEach(this::vaciar);
+        }
+    }
+
+    /**
+     * Cierra la ventana del usuario si sigue siendo la misma que se abrió con este grupo
+     */
+    private void vaciar(String userId, Grupo grupo) {
+        if (!grupos.remove(userId, grupo)) {
+            return;
+        }
+        List<NotificacionDTO> notificaciones = grupo.notificaciones;
+        try {
+            CompletableFuture<List<ResultadoEnvioDTO>> guardado = historialService.guardarLoteAsync(notificaciones);
+
+            NotificacionDTO push = notificaciones.size() == 1 ? notificaciones.get(0)
+                    : crearResumen(userId, grupo.idioma, notificaciones);
+            registry.counter("notificaciones.agrupacion.envios", "tipo",
+                    notificaciones.size() == 1 ? "individual" : TIPO_RESUMEN).increment();
+            registry.counter("notificaciones.agrupacion.notificaciones").increment(notificaciones.size());
+            if (grupo.fcmToken != null) {
+                fcmService.enviarNotificacion(userId, grupo.fcmToken, push.getTitulo(), push.getMensaje(),
+                        push.getData());
+            }
+
+            List<ResultadoEnvioDTO> resultados = guardado.join();
+            historialService.verificarDisponible(resultados);
+            long fallidos = resultados.stream().filter(resultado -> !resultado.isExitoso()).count();
+            if (fallidos > 0) {
+                throw new NotificacionException("No se pudo guardar el historial agrupado userId=" + userId
+                        + " fallidos=" + fallidos, null);
+            }
+            if (grupo.fcmToken != null) {
+                log.info("Notificación agrupada enviada userId={} notificaciones={}", userId, notificaciones.size());
+            } else {
+                log.info("Cliente sin token FCM, solo se guardó en historial userId={} notificaciones={}", userId,
+                        notificaciones.size());
+            }
+            grupo.confirmado.complete(null);
+        } catch (ServicioNoDisponibleException e) {
+            log.warn("Firebase no disponible al enviar notificaciones agrupadas userId={} notificaciones={}: {}",
+                    userId, notificaciones.size(), e.getMessage());
+            grupo.confirmado.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            log.error("Error al enviar notificaciones agrupadas userId={} notificaciones={}", userId,
+                    notificaciones.size(), e);
+            grupo.confirmado.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Un solo push para varias notificaciones del mismo usuario
+     *
+     * @param idioma idioma del usuario, o null para el predeterminado
+     */
+    public NotificacionDTO crearResumen(String userId, String idioma, List<NotificacionDTO> notificaciones) {
+        Set<String> tipos = new LinkedHashSet<>();
+        List<String> paqueteIds = new ArrayList<>(notificaciones.size());
+        for (NotificacionDTO notificacion : notificaciones) {
+            tipos.add(notificacion.getTipo());
+            String paqueteId = notificacion.getData() != null ? notificacion.getData().get("paqueteId") : null;
+            if (paqueteId != null) {
+                paqueteIds.add(paqueteId);
+            }
+        }
+
+        int cantidad = notificaciones.size();
+        String tipoComun = tipos.size() == 1 ? tipos.iterator().next() : null;
+        Plantilla plantilla = "asignacion".equals(tipoComun) || "entrega".equals(tipoComun)
+                ? plantillas.obtener(TIPO_RESUMEN + "." + tipoComun, idioma)
+                : plantillas.obtener(TIPO_RESUMEN, idioma);
+
+        StringBuilder detalle = new StringBuilder();
+        for (int i = 0; i < Math.min(cantidad, MAX_LINEAS_RESUMEN); i++) {
+            if (i > 0) {
+                detalle.append('\n');
+            }
+            detalle.append(notificaciones.get(i).getMensaje());
+        }
+        Map<String, String> variables = new HashMap<>();
+        variables.put("cantidad", String.valueOf(cantidad));
+        variables.put("detalle", detalle.toString());
+        variables.put("restantes", String.valueOf(cantidad - MAX_LINEAS_RESUMEN));
+        String titulo = plantilla.titulo(variables);
+        String mensaje = cantidad > MAX_LINEAS_RESUMEN ? plantilla.mensaje(variables) : detalle.toString();
+
+        Map<String, String> data = new HashMap<>();
+        data.put("tipo", TIPO_RESUMEN);
+        data.put("paqueteIds", String.join(",", paqueteIds));
+        data.put("cantidad", String.valueOf(cantidad));
+        data.put("userId", userId);
+        return new NotificacionDTO(userId, titulo, mensaje, TIPO_RESUMEN, data);
+    }
+
+    private static final class Grupo {
+        private final List<NotificacionDTO> notificaciones = new ArrayList<>();
+        private final CompletableFuture<Void> confirmado = new CompletableFuture<>();
+        private String fcmToken;
+        private String idioma;
+    }
+}
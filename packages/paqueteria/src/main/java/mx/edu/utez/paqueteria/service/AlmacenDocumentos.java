@@ -0,0 +1,116 @@
+package mx.edu.utez.paqueteria.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Puerto de salida hacia el almacén de documentos (Firestore). Permite sustituir Firestore por
+ * un doble en memoria en pruebas de carga; las rutas son las de Firestore ("usuarios/u1",
+ * "usuarios/u1/notificaciones/n1"). Los futuros fallan con la excepción del almacén
+ * (ApiException o FirestoreException) para que ResilienciaFirestore decida si reintenta.
+ */
+public interface AlmacenDocumentos {
+
+    /**
+     * Un documento; si no existe se devuelve uno con existe() en false
+     */
+    CompletableFuture<Documento> leer(String coleccion, String id);
+
+    /**
+     * Varios documentos de una colección en una sola llamada, incluidos los inexistentes
+     */
+    CompletableFuture<List<Documento>> leerVarios(String coleccion, Collection<String> ids);
+
+    /**
+     * Documentos cuyo campo es igual a alguno de los valores (whereIn; whereEqualTo con uno solo)
+     */
+    CompletableFuture<List<Documento>> consultar(String coleccion, String campo, List<?> valores);
+
+    /**
+     * Una página de la colección ordenada por campoOrden y después por id, ambos descendentes.
+     * Empieza después del documento (valorCursor, idCursor), o desde el primero si idCursor es null;
+     * los documentos sin campoOrden no aparecen.
+     */
+    CompletableFuture<List<Documento>> consultarPagina(String coleccion, String campoOrden, Object valorCursor,
+            String idCursor, int limite);
+
+    /**
+     * Cuántos documentos de la colección tienen campo == valor (agregación count, sin leerlos)
+     */
+    CompletableFuture<Long> contar(String coleccion, String campo, Object valor);
+
+    /**
+     * Aplica todas las escrituras de forma atómica (WriteBatch); si una precondición falla
+     * no se aplica ninguna
+     */
+    CompletableFuture<Void> escribir(List<Escritura> escrituras);
+
+    /**
+     * Escucha en tiempo real los documentos de la colección con campo == valor, o todos si campo
+     * es null. El oyente recibe primero todos los documentos como AGREGADO y después cada cambio.
+     */
+    Suscripcion escuchar(String coleccion, String campo, Object valor, OyenteDocumentos oyente);
+
+    interface OyenteDocumentos {
+
+        /**
+         * @param documentos todos los documentos que cumplen la consulta tras el cambio
+         * @param cambios    los que cambiaron desde la llamada anterior
+         * @param error      no null si el listener se detuvo; entonces las listas vienen vacías
+         */
+        void alCambiar(List<Documento> documentos, List<CambioDocumento> cambios, Exception error);
+
+        /**
+         * false si el oyente solo mira los cambios: el almacén no arma la lista de documentos,
+         * que en una colección grande es una copia completa en cada snapshot, y la pasa vacía
+         */
+        default boolean usaDocumentos() {
+            return true;
+        }
+
+        /**
+         * Oyente que solo recibe los cambios y el error
+         */
+        static OyenteDocumentos soloCambios(BiConsumer<List<CambioDocumento>, Exception> oyente) {
+            return new OyenteDocumentos() {
+                @Override
+                public void alCambiar(List<Documento> documentos, List<CambioDocumento> cambios,
+                        Exception error) {
+                    oyente.accept(cambios, error);
+                }
+
+                @Override
+                public boolean usaDocumentos() {
+                    return false;
+                }
+            };
+        }
+    }
+
+    interface Suscripcion {
+        void cancelar();
+    }
+
+    final class CambioDocumento {
+
+        public enum Tipo { AGREGADO, MODIFICADO, ELIMINADO }
+
+        private final Tipo tipo;
+        private final Documento documento;
+
+        public CambioDocumento(Tipo tipo, Documento documento) {
+            this.tipo = tipo;
+            this.documento = documento;
+        }
+
+        public Tipo getTipo() {
+            return tipo;
+        }
+
+        public Documento getDocumento() {
+            return documento;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import io.grpc.Status;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * AlmacenDocumentos en memoria para pruebas de carga sin proyecto de Firebase
+ * (notificaciones.backend=memoria). Cada llamada tarda notificaciones.memoria.firestore.latencia-ms
+ * ± variacion-ms sin ocupar hilos y falla con UNAVAILABLE con probabilidad tasa-errores, así se
+ * ejercitan los reintentos, el circuito y los limitadores. Los listeners se notifican en orden desde
+ * un solo hilo, como en el SDK. Al arrancar se siembran clientes cli{i}, repartidores rep{i} con
+ * token y ubicación, paquetes pkg{i} cuyo cliente es cli{i % clientes} y un administrador adm0.
+ */
+@Component
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "memoria")
+public class AlmacenDocumentosMemoria implements AlmacenDocumentos {
+
+    private static final Logger log = LoggerFactory.getLogger(AlmacenDocumentosMemoria.class);
+
+    /** Centro de las ubicaciones sembradas (Cuernavaca) y dispersión en grados (~10 km) */
+    private static final double LATITUD_CENTRO = 18.92;
+    private static final double LONGITUD_CENTRO = -99.23;
+    private static final double DISPERSION = 0.1;
+
+    private final ObjectMapper mapper;
+    private final long latenciaMs;
+    private final long variacionMs;
+    private final double tasaErrores;
+    /** colección -> id -> documento */
+    private final Map<String, Map<String, DocumentoMemoria>> colecciones = new ConcurrentHashMap<>();
+    private final List<SuscripcionMemoria> suscripciones = new CopyOnWriteArrayList<>();
+    private final ExecutorService notificador = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("almacen-memoria-listeners").daemon().factory());
+
+    public AlmacenDocumentosMemoria(ObjectMapper mapper,
+            @Value("${notificaciones.memoria.firestore.latencia-ms:5}") long latenciaMs,
+            @Value("${notificaciones.memoria.firestore.variacion-ms:3}") long variacionMs,
+            @Value("${notificaciones.memoria.firestore.tasa-errores:0}") double tasaErrores,
+            @Value("${notificaciones.memoria.datos.clientes:1000}") int clientes,
+            @Value("${notificaciones.memoria.datos.repartidores:200}") int repartidores,
+            @Value("${notificaciones.memoria.datos.paquetes:10000}") int paquetes) {
+        this.mapper = mapper;
+        this.latenciaMs = Math.max(0, latenciaMs);
+        this.variacionMs = Math.max(0, Math.min(variacionMs, latenciaMs));
+        this.tasaErrores = tasaErrores;
+        sembrar(clientes, repartidores, paquetes);
+        log.warn("Usando almacén de documentos en memoria clientes={} repartidores={} paquetes={} latenciaMs={}",
+                clientes, repartidores, paquetes, latenciaMs);
+    }
+
+    @PreDestroy
+    public void detener() {
+        notificador.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<Documento> leer(String coleccion, String id) {
+        return responder(() -> obtener(coleccion, id));
+    }
+
+    @Override
+    public CompletableFuture<List<Documento>> leerVarios(String coleccion, Collection<String> ids) {
+        return responder(() -> {
+            List<Documento> documentos = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                documentos.add(obtener(coleccion, id));
+            }
+            return documentos;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Documento>> consultar(String coleccion, String campo, List<?> valores) {
+        return responder(() -> filtrar(coleccion, campo, valores));
+    }
+
+    @Override
+    public CompletableFuture<List<Documento>> consultarPagina(String coleccion, String campoOrden,
+            Object valorCursor, String idCursor, int limite) {
+        return responder(() -> {
+            Comparator<DocumentoMemoria> orden = Comparator
+                    .comparing((DocumentoMemoria documento) -> comparable(documento.datos.get(campoOrden)))
+                    .thenComparing(documento -> documento.id)
+                    .reversed();
+            DocumentoMemoria cursor = idCursor != null
+                    ? new DocumentoMemoria(idCursor, Map.of(campoOrden, valorCursor), null)
+                    : null;
+            return colecciones.getOrDefault(coleccion, Map.of()).values().stream()
+                    .filter(documento -> documento.datos.get(campoOrden) != null)
+                    .filter(documento -> cursor == null || orden.compare(documento, cursor) > 0)
+                    .sorted(orden)
+                    .limit(limite)
+                    .map(Documento.class::cast)
+                    .toList();
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> contar(String coleccion, String campo, Object valor) {
+        return responder(() -> (long) filtrar(coleccion, campo, List.of(valor)).size());
+    }
+
+    @Override
+    public CompletableFuture<Void> escribir(List<Escritura> escrituras) {
+        return responder(() -> {
+            aplicar(escrituras);
+            return null;
+        });
+    }
+
+    @Override
+    public Suscripcion escuchar(String coleccion, String campo, Object valor, OyenteDocumentos oyente) {
+        SuscripcionMemoria suscripcion = new SuscripcionMemoria(coleccion, campo, valor, oyente);
+        synchronized (this) {
+            suscripciones.add(suscripcion);
+            List<Documento> documentos = filtrar(coleccion, campo, campo != null ? List.of(valor) : null);
+            List<CambioDocumento> cambios = new ArrayList<>(documentos.size());
+            for (Documento documento : documentos) {
+                cambios.add(new CambioDocumento(CambioDocumento.Tipo.AGREGADO, documento));
+            }
+            notificar(suscripcion, oyente.usaDocumentos() ? documentos : List.of(), cambios);
+        }
+        return () -> {
+            suscripcion.activa = false;
+            suscripciones.remove(suscripcion);
+        };
+    }
+
+    /**
+     * Aplica el lote completo o nada, y avisa a los listeners afectados
+     */
+    private synchronized void aplicar(List<Escritura> escrituras) {
+        for (Escritura escritura : escrituras) {
+            if (escritura.getTipo() == Escritura.Tipo.BORRAR_CAMPO) {
+                DocumentoMemoria actual = obtener(coleccion(escritura.getRuta()), id(escritura.getRuta()));
+                if (!actual.existe() || !actual.actualizado.equals(escritura.getVersionEsperada())) {
+                    throw error(Status.Code.FAILED_PRECONDITION, "El documento cambió: " + escritura.getRuta(), false);
+                }
+            }
+        }
+
+        // Documento anterior y nuevo de cada ruta escrita, para armar los cambios de cada listener
+        Map<String, DocumentoMemoria[]> escritos = new HashMap<>();
+        for (Escritura escritura : escrituras) {
+            String coleccion = coleccion(escritura.getRuta());
+            String id = id(escritura.getRuta());
+            Map<String, DocumentoMemoria> documentos = colecciones.computeIfAbsent(coleccion,
+                    c -> new ConcurrentHashMap<>());
+            DocumentoMemoria anterior = documentos.get(id);
+            Map<String, Object> datos;
+            if (escritura.getTipo() == Escritura.Tipo.GUARDAR) {
+                datos = new HashMap<>(escritura.getDatos());
+            } else {
+                datos = new HashMap<>(anterior.datos);
+                datos.remove(escritura.getCampo());
+            }
+            Instant ahora = Instant.now();
+            if (anterior != null && !ahora.isAfter(anterior.actualizado)) {
+                ahora = anterior.actualizado.plusNanos(1);
+            }
+            DocumentoMemoria nuevo = new DocumentoMemoria(id, datos, ahora);
+            documentos.put(id, nuevo);
+            escritos.computeIfAbsent(escritura.getRuta(), r -> new DocumentoMemoria[] { anterior, null })[1] = nuevo;
+        }
+
+        for (SuscripcionMemoria suscripcion : suscripciones) {
+            List<CambioDocumento> cambios = new ArrayList<>();
+            for (Map.Entry<String, DocumentoMemoria[]> escrito : escritos.entrySet()) {
+                if (!coleccion(escrito.getKey()).equals(suscripcion.coleccion)) {
+                    continue;
+                }
+                boolean antes = suscripcion.incluye(escrito.getValue()[0]);
+                boolean despues = suscripcion.incluye(escrito.getValue()[1]);
+                if (antes || despues) {
+                    CambioDocumento.Tipo tipo = !antes ? CambioDocumento.Tipo.AGREGADO
+                            : despues ? CambioDocumento.Tipo.MODIFICADO : CambioDocumento.Tipo.ELIMINADO;
+                    cambios.add(new CambioDocumento(tipo, escrito.getValue()[despues ? 1 : 0]));
+                }
+            }
+            if (!cambios.isEmpty()) {
+                List<Documento> documentos = suscripcion.oyente.usaDocumentos()
+                        ? filtrar(suscripcion.coleccion, suscripcion.campo,
+                                suscripcion.campo != null ? List.of(suscripcion.valor) : null)
+                        : List.of();
+                notificar(suscripcion, documentos, cambios);
+            }
+        }
+    }
+
+    private void notificar(SuscripcionMemoria suscripcion, List<Documento> documentos,
+            List<CambioDocumento> cambios) {
+        notificador.execute(() -> {
+            if (suscripcion.activa) {
+                suscripcion.oyente.alCambiar(documentos, cambios, null);
+            }
+        });
+    }
+
+    /**
+     * @param valores null para toda la colección
+     */
+    private List<Documento> filtrar(String coleccion, String campo, List<?> valores) {
+        List<Documento> resultado = new ArrayList<>();
+        for (DocumentoMemoria documento : colecciones.getOrDefault(coleccion, Map.of()).values()) {
+            if (valores == null || valores.contains(documento.datos.get(campo))) {
+                resultado.add(documento);
+            }
+        }
+        return resultado;
+    }
+
+    private DocumentoMemoria obtener(String coleccion, String id) {
+        DocumentoMemoria documento = colecciones.getOrDefault(coleccion, Map.of()).get(id);
+        return documento != null ? documento : new DocumentoMemoria(id, null, null);
+    }
+
+    /**
+     * Ejecuta la operación tras la latencia simulada, o falla con UNAVAILABLE según tasa-errores
+     */
+    private <T> CompletableFuture<T> responder(Supplier<T> operacion) {
+        long esperaMs = latenciaMs;
+        if (variacionMs > 0) {
+            esperaMs += ThreadLocalRandom.current().nextLong(-variacionMs, variacionMs + 1);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            if (tasaErrores > 0 && ThreadLocalRandom.current().nextDouble() < tasaErrores) {
+                throw error(Status.Code.UNAVAILABLE, "Falla simulada del almacén en memoria", true);
+            }
+            return operacion.get();
+        }, CompletableFuture.delayedExecutor(esperaMs, TimeUnit.MILLISECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> comparable(Object valor) {
+        return (Comparable<Object>) valor;
+    }
+
+    private static ApiException error(Status.Code codigo, String mensaje, boolean reintentable) {
+        return ApiExceptionFactory.createException(mensaje, null, GrpcStatusCode.of(codigo), reintentable);
+    }
+
+    private void sembrar(int clientes, int repartidores, int paquetes) {
+        // Semilla fija: la misma configuración produce los mismos datos en cada corrida
+        Random aleatorio = new Random(42);
+        Instant ahora = Instant.now();
+        Map<String, DocumentoMemoria> usuarios = new ConcurrentHashMap<>();
+        Map<String, DocumentoMemoria> ubicaciones = new ConcurrentHashMap<>();
+        Map<String, DocumentoMemoria> paquetesSembrados = new ConcurrentHashMap<>();
+        for (int i = 0; i < clientes; i++) {
+            String id = "cli" + i;
+            usuarios.put(id, new DocumentoMemoria(id, Map.of("nombre", "Cliente " + i, "email", id + "@ejemplo.mx",
+                    "rol", "cliente", "fcmToken", "token-" + id), ahora));
+        }
+        for (int i = 0; i < repartidores; i++) {
+            String id = "rep" + i;
+            usuarios.put(id, new DocumentoMemoria(id, Map.of("nombre", "Repartidor " + i,
+                    "email", id + "@ejemplo.mx", "rol", "repartidor", "fcmToken", "token-" + id), ahora));
+            ubicaciones.put(id, new DocumentoMemoria(id, Map.of(
+                    "latitud", LATITUD_CENTRO + (aleatorio.nextDouble() * 2 - 1) * DISPERSION,
+                    "longitud", LONGITUD_CENTRO + (aleatorio.nextDouble() * 2 - 1) * DISPERSION), ahora));
+        }
+        usuarios.put("adm0", new DocumentoMemoria("adm0", Map.of("nombre", "Administrador",
+                "email", "adm0@ejemplo.mx", "rol", "admin"), ahora));
+        for (int i = 0; i < paquetes && clientes > 0; i++) {
+            String id = "pkg" + i;
+            paquetesSembrados.put(id, new DocumentoMemoria(id, Map.of("destinatario", "Destinatario " + i,
+                    "direccion", "Calle " + i + ", Col. Centro", "estado", "pendiente",
+                    "clienteId", "cli" + (i % clientes),
+                    "latitud", LATITUD_CENTRO + (aleatorio.nextDouble() * 2 - 1) * DISPERSION,
+                    "longitud", LONGITUD_CENTRO + (aleatorio.nextDouble() * 2 - 1) * DISPERSION), ahora));
+        }
+        colecciones.put("usuarios", usuarios);
+        colecciones.put("ubicaciones_repartidores", ubicaciones);
+        colecciones.put("paquetes", paquetesSembrados);
+    }
+
+    private static String coleccion(String ruta) {
+        return ruta.substring(0, ruta.lastIndexOf('/'));
+    }
+
+    private static String id(String ruta) {
+        return ruta.substring(ruta.lastIndexOf('/') + 1);
+    }
+
+    private final class DocumentoMemoria implements Documento {
+        private final String id;
+        /** null si el documento no existe */
+        private final Map<String, Object> datos;
+        private final Instant actualizado;
+
+        private DocumentoMemoria(String id, Map<String, Object> datos, Instant actualizado) {
+            this.id = id;
+            this.datos = datos;
+            this.actualizado = actualizado;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public boolean existe() {
+            return datos != null;
+        }
+
+        @Override
+        public String getString(String campo) {
+            return datos != null ? (String) datos.get(campo) : null;
+        }
+
+        @Override
+        public Double getDouble(String campo) {
+            return datos != null && datos.get(campo) instanceof Number numero ? numero.doubleValue() : null;
+        }
+
+        @Override
+        public <T> T como(Class<T> tipo) {
+            return datos != null ? mapper.convertValue(datos, tipo) : null;
+        }
+
+        @Override
+        public Instant getActualizado() {
+            return actualizado;
+        }
+    }
+
+    private static final class SuscripcionMemoria {
+        private final String coleccion;
+        private final String campo;
+        private final Object valor;
+        private final OyenteDocumentos oyente;
+        private volatile boolean activa = true;
+
+        private SuscripcionMemoria(String coleccion, String campo, Object valor, OyenteDocumentos oyente) {
+            this.coleccion = coleccion;
+            this.campo = campo;
+            this.valor = valor;
+            this.oyente = oyente;
+        }
+
+        private boolean incluye(DocumentoMemoria documento) {
+            return documento != null && documento.existe()
+                    && (campo == null || valor.equals(documento.datos.get(campo)));
+        }
+    }
+}
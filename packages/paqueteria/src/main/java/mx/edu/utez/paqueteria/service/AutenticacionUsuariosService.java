@@ -0,0 +1,79 @@
+package mx.edu.utez.paqueteria.service;
+
+import mx.edu.utez.paqueteria.exception.AccesoDenegadoException;
+import mx.edu.utez.paqueteria.exception.NoAutenticadoException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.Futuros;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Acceso de la app a los datos de un usuario (su bandeja de notificaciones, su entrada en caché) y a
+ * la administración de la caché. La petición debe traer en Authorization: Bearer el ID token de
+ * Firebase del propio usuario, o el de un usuario con rol admin para la administración.
+ * Con notificaciones.bandeja.requiere-autenticacion=false no se verifica nada, p. ej. detrás de
+ * un gateway que ya autentica.
+ */
+@Service
+public class AutenticacionUsuariosService {
+
+    private static final String PREFIJO_BEARER = "Bearer ";
+    private static final String ROL_ADMIN = "admin";
+
+    private final VerificadorTokens verificador;
+    private final AlmacenDocumentos almacen;
+    private final ResilienciaFirestore resiliencia;
+    private final boolean requerida;
+
+    public AutenticacionUsuariosService(VerificadorTokens verificador, AlmacenDocumentos almacen,
+            ResilienciaFirestore resiliencia,
+            @Value("${notificaciones.bandeja.requiere-autenticacion:true}") boolean requerida) {
+        this.verificador = verificador;
+        this.almacen = almacen;
+        this.resiliencia = resiliencia;
+        this.requerida = requerida;
+    }
+
+    /**
+     * @param autorizacion valor del header Authorization, o null
+     * @throws NoAutenticadoException  si falta el token o no es válido
+     * @throws AccesoDenegadoException si el token es de otro usuario
+     */
+    public void verificarPropietario(String autorizacion, String userId) {
+        if (!requerida) {
+            return;
+        }
+        String uid = verificarToken(autorizacion);
+        if (!userId.equals(uid)) {
+            throw new AccesoDenegadoException("El token no corresponde al usuario " + userId);
+        }
+    }
+
+    /**
+     * El rol se lee de Firestore en cada llamada y no de la caché que se administra, así quitarle
+     * el rol a alguien surte efecto de inmediato
+     *
+     * @param autorizacion valor del header Authorization, o null
+     * @throws NoAutenticadoException        si falta el token o no es válido
+     * @throws AccesoDenegadoException       si el usuario del token no tiene rol admin
+     * @throws ServicioNoDisponibleException si Firestore no está disponible
+     */
+    public void verificarAdministrador(String autorizacion) {
+        if (!requerida) {
+            return;
+        }
+        String uid = verificarToken(autorizacion);
+        Documento usuario = Futuros.esperar(resiliencia.leer(1, () -> almacen.leer("usuarios", uid)));
+        if (!usuario.existe() || !ROL_ADMIN.equals(usuario.getString("rol"))) {
+            throw new AccesoDenegadoException("El usuario " + uid + " no es administrador");
+        }
+    }
+
+    private String verificarToken(String autorizacion) {
+        if (autorizacion == null || !autorizacion.regionMatches(true, 0, PREFIJO_BEARER, 0, PREFIJO_BEARER.length())
+                || autorizacion.length() == PREFIJO_BEARER.length()) {
+            throw new NoAutenticadoException("Falta el header Authorization: Bearer <ID token de Firebase>");
+        }
+        return verificador.verificar(autorizacion.substring(PREFIJO_BEARER.length()).trim());
+    }
+}
@@ -0,0 +1,261 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import mx.edu.utez.paqueteria.dto.PaginaNotificacionesDTO;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.model.NotificacionModel;
+import mx.edu.utez.paqueteria.util.CursorPagina;
+import mx.edu.utez.paqueteria.util.Futuros;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Lectura paginada del historial de un usuario (usuarios/{id}/notificaciones) para la app.
+ * Las páginas se piden por llave (fecha, id) descendente con un cursor opaco, así cada página cuesta
+ * tamano + 1 lecturas sin importar qué tan atrás esté. La primera página de cada usuario y su conteo de
+ * no leídas se guardan en memoria (notificaciones.bandeja.*): el historial que escribe este servicio
+ * los actualiza al confirmarse el commit, y los cambios que hace la app directo en Firestore (marcar
+ * leída, borrar) se ven al expirar la entrada o al invalidarla desde CacheController. Los apuntadores
+ * de difusión se resuelven contra difusiones/{id}, que no cambia y se cachea aparte.
+ * El conteo de no leídas es una agregación sobre leida == false e incluye los apuntadores cuya difusión
+ * ya no existe, aunque la página los omita; desaparecen del conteo cuando la app los borra o marca.
+ */
+@Service
+public class BandejaNotificacionesService {
+
+    private static final String CAMPO_FECHA = "fecha";
+    private static final String CAMPO_LEIDA = "leida";
+    /** El contenido de una difusión no cambia; solo se acota la memoria que ocupa */
+    private static final long DIFUSIONES_EN_CACHE = 1_000;
+    private static final Duration TTL_DIFUSIONES = Duration.ofHours(1);
+
+    private final Cache<String, Contenido> primerasPaginas;
+    private final Cache<String, Long> noLeidas;
+    private final Cache<String, NotificacionModel> difusiones;
+    private final AlmacenDocumentos almacen;
+    private final ResilienciaFirestore resiliencia;
+    private final int tamanoPagina;
+    private final int tamanoMaximoPagina;
+    private final MeterRegistry registry;
+
+    public BandejaNotificacionesService(AlmacenDocumentos almacen, ResilienciaFirestore resiliencia,
+            @Value("${notificaciones.bandeja.tamano-pagina:20}") int tamanoPagina,
+            @Value("${notificaciones.bandeja.tamano-maximo-pagina:100}") int tamanoMaximoPagina,
+            @Value("${notificaciones.bandeja.usuarios-en-cache:10000}") long usuariosEnCache,
+            @Value("${notificaciones.bandeja.ttl-segundos:60}") long ttlSegundos,
+            MeterRegistry registry) {
+        this.almacen = almacen;
+        this.resiliencia = resiliencia;
+        this.tamanoMaximoPagina = Math.max(1, tamanoMaximoPagina);
+        this.tamanoPagina = Math.max(1, Math.min(tamanoPagina, this.tamanoMaximoPagina));
+        this.registry = registry;
+        this.primerasPaginas = Caffeine.newBuilder()
+                .maximumSize(usuariosEnCache)
+                .expireAfterWrite(Duration.ofSeconds(ttlSegundos))
+                .recordStats()
+                .build();
+        this.noLeidas = Caffeine.newBuilder()
+                .maximumSize(usuariosEnCache)
+                .expireAfterWrite(Duration.ofSeconds(ttlSegundos))
+                .build();
+        this.difusiones = Caffeine.newBuilder()
+                .maximumSize(DIFUSIONES_EN_CACHE)
+                .expireAfterWrite(TTL_DIFUSIONES)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, primerasPaginas, "bandeja");
+        CaffeineCacheMetrics.monitor(registry, difusiones, "difusiones");
+    }
+
+    /**
+     * Una página del historial; sin cursor y con el tamaño por defecto se sirve de caché.
+     *
+     * @param cursor siguienteCursor de la página anterior, o null para la primera
+     * @param limite notificaciones por página, o null para notificaciones.bandeja.tamano-pagina
+     * @throws IllegalArgumentException      si el cursor no es válido
+     * @throws ServicioNoDisponibleException si Firestore no está disponible
+     */
+    public Pagina obtenerPagina(String userId, String cursor, Integer limite) {
+        int tamano = limite != null ? Math.max(1, Math.min(limite, tamanoMaximoPagina)) : tamanoPagina;
+        Contenido contenido;
+        if (cursor == null && tamano == tamanoPagina) {
+            contenido = primerasPaginas.get(userId, id -> cargar(id, null, tamano));
+        } else {
+            contenido = cargar(userId, cursor != null ? CursorPagina.decodificar(cursor) : null, tamano);
+        }
+        long pendientes = noLeidas.get(userId, this::contarNoLeidas);
+        return new Pagina(new PaginaNotificacionesDTO(contenido.notificaciones, contenido.siguienteCursor,
+                pendientes), "\"" + Long.toHexString(contenido.huella) + "-" + pendientes + "\"");
+    }
+
+    /**
+     * Se confirmó una notificación nueva sin leer para cada usuario: su primera página deja de ser
+     * válida y su conteo sube en uno (si estaba en memoria; si no, se contará al pedirlo)
+     */
+    public void registrarNuevas(Collection<String> userIds) {
+        primerasPaginas.invalidateAll(userIds);
+        for (String userId : userIds) {
+            noLeidas.asMap().computeIfPresent(userId, (id, conteo) -> conteo + 1);
+        }
+    }
+
+    /**
+     * Descarta la primera página y el conteo del usuario, p. ej. después de que la app marque
+     * notificaciones como leídas o las borre
+     */
+    public void invalidar(String userId) {
+        primerasPaginas.invalidate(userId);
+        noLeidas.invalidate(userId);
+    }
+
+    private Contenido cargar(String userId, CursorPagina cursor, int tamano) {
+        String coleccion = "usuarios/" + userId + "/notificaciones";
+        Timer.Sample muestra = Timer.start(registry);
+        List<Documento> documentos;
+        try {
+            documentos = Futuros.esperar(resiliencia.leer(tamano + 1, () -> almacen.consultarPagina(coleccion,
+                    CAMPO_FECHA, cursor != null ? new Date(cursor.getFechaMs()) : null,
+                    cursor != null ? cursor.getId() : null, tamano + 1)));
+        } finally {
+            muestra.stop(registry.timer("notificaciones.firestore.lectura",
+                    "coleccion", "notificaciones", "resultado", "pagina"));
+        }
+
+        // Se pide un documento de más solo para saber si hay otra página
+        List<Documento> pagina = documentos.subList(0, Math.min(tamano, documentos.size()));
+        List<NotificacionModel> notificaciones = new ArrayList<>(pagina.size());
+        for (Documento documento : pagina) {
+            NotificacionModel notificacion = documento.como(NotificacionModel.class);
+            notificacion.setId(documento.getId());
+            notificaciones.add(notificacion);
+        }
+
+        String siguienteCursor = null;
+        if (documentos.size() > tamano) {
+            NotificacionModel ultima = notificaciones.get(notificaciones.size() - 1);
+            siguienteCursor = new CursorPagina(ultima.getFecha().getTime(), ultima.getId()).codificar();
+        }
+        return new Contenido(resolverDifusiones(notificaciones), siguienteCursor);
+    }
+
+    /**
+     * Completa título, mensaje y datos de los apuntadores de difusión; los que apuntan a una difusión
+     * que ya no existe se omiten, igual que en la app
+     */
+    private List<NotificacionModel> resolverDifusiones(List<NotificacionModel> notificaciones) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (NotificacionModel notificacion : notificaciones) {
+            if (notificacion.getDifusionId() != null && notificacion.getTitulo() == null) {
+                ids.add(notificacion.getDifusionId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return List.copyOf(notificaciones);
+        }
+
+        Map<String, NotificacionModel> contenidos = difusiones.getAll(ids, this::leerDifusiones);
+        List<NotificacionModel> resueltas = new ArrayList<>(notificaciones.size());
+        for (NotificacionModel notificacion : notificaciones) {
+            if (notificacion.getDifusionId() != null && notificacion.getTitulo() == null) {
+                NotificacionModel difusion = contenidos.get(notificacion.getDifusionId());
+                if (difusion == null) {
+                    continue;
+                }
+                notificacion.setTitulo(difusion.getTitulo());
+                notificacion.setMensaje(difusion.getMensaje());
+                notificacion.setData(difusion.getData());
+            }
+            resueltas.add(notificacion);
+        }
+        return List.copyOf(resueltas);
+    }
+
+    private Map<String, NotificacionModel> leerDifusiones(Set<? extends String> ids) {
+        Timer.Sample muestra = Timer.start(registry);
+        try {
+            List<Documento> documentos = Futuros.esperar(resiliencia.leer(ids.size(),
+                    () -> almacen.leerVarios("difusiones", new ArrayList<String>(ids))));
+            Map<String, NotificacionModel> contenidos = new HashMap<>();
+            for (Documento documento : documentos) {
+                if (documento.existe()) {
+                    contenidos.put(documento.getId(), documento.como(NotificacionModel.class));
+                }
+            }
+            return contenidos;
+        } finally {
+            muestra.stop(registry.timer("notificaciones.firestore.lectura",
+                    "coleccion", "difusiones", "resultado", "lote"));
+        }
+    }
+
+    /**
+     * Agregación count de Firestore: cobra una lectura por cada 1000 documentos contados.
+     * Descartar las difusiones huérfanas costaría leer todos los apuntadores, así que se cuentan:
+     * el resultado es un tope superior de lo que la app mostrará sin leer
+     */
+    private Long contarNoLeidas(String userId) {
+        Timer.Sample muestra = Timer.start(registry);
+        try {
+            return Futuros.esperar(resiliencia.leer(1,
+                    () -> almacen.contar("usuarios/" + userId + "/notificaciones", CAMPO_LEIDA, false)));
+        } finally {
+            muestra.stop(registry.timer("notificaciones.firestore.lectura",
+                    "coleccion", "notificaciones", "resultado", "conteo"));
+        }
+    }
+
+    /**
+     * Página lista para responder y su ETag, que cambia si cambian las notificaciones de la página,
+     * su estado de lectura o el conteo de no leídas
+     */
+    public static final class Pagina {
+        private final PaginaNotificacionesDTO contenido;
+        private final String etag;
+
+        private Pagina(PaginaNotificacionesDTO contenido, String etag) {
+            this.contenido = contenido;
+            this.etag = etag;
+        }
+
+        public PaginaNotificacionesDTO getContenido() {
+            return contenido;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    private static final class Contenido {
+        private final List<NotificacionModel> notificaciones;
+        private final String siguienteCursor;
+        private final long huella;
+
+        private Contenido(List<NotificacionModel> notificaciones, String siguienteCursor) {
+            this.notificaciones = notificaciones;
+            this.siguienteCursor = siguienteCursor;
+            CRC32C crc = new CRC32C();
+            for (NotificacionModel notificacion : notificaciones) {
+                crc.update((notificacion.getId() + (notificacion.isLeida() ? ":1;" : ":0;"))
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            this.huella = crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.util.Futuros;
+import mx.edu.utez.paqueteria.util.Lotes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limpieza de tokens FCM muertos.
+ * Los envíos reportan los tokens con UNREGISTERED; se quitan de inmediato del registro de
+ * repartidores y se acumulan para borrarlos de usuarios/{id}.fcmToken en WriteBatch periódicos.
+ * Antes de borrar se relee el documento y solo se borra si el token sigue siendo el mismo
+ * (con precondición sobre updateTime), así un token recién registrado por la app no se pierde.
+ * Las lecturas y escrituras pasan por ResilienciaFirestore como masivas, detrás de las de clientes,
+ * y cada una se espera como máximo notificaciones.tokens.timeout-ms para no retener el hilo del
+ * scheduler; lo que falla o no responde a tiempo se reagenda para la siguiente pasada.
+ */
+@Service
+public class DepuracionTokensService {
+
+    private static final Logger log = LoggerFactory.getLogger(DepuracionTokensService.class);
+
+    public static final String CODIGO_NO_REGISTRADO = "UNREGISTERED";
+
+    private static final int MAX_ESCRITURAS_POR_LOTE = 500;
+    /** Documentos por llamada a getAll, igual que en LecturaFirestoreService */
+    private static final int MAX_DOCUMENTOS_POR_LECTURA = 300;
+    /** Máximo de valores que acepta Firestore en un whereIn */
+    private static final int MAX_VALORES_WHERE_IN = 30;
+
+    private final AlmacenDocumentos almacen;
+    private final RegistroRepartidoresService registroRepartidores;
+    private final LecturaFirestoreService lecturaService;
+    private final ResilienciaFirestore resiliencia;
+    private final int pendientesMaximo;
+    private final long timeoutMs;
+    private final MeterRegistry registry;
+
+    /** token -> userId ("" si el envío no conocía al usuario) */
+    private final Map<String, String> pendientes = new ConcurrentHashMap<>();
+
+    public DepuracionTokensService(AlmacenDocumentos almacen, RegistroRepartidoresService registroRepartidores,
+            LecturaFirestoreService lecturaService, ResilienciaFirestore resiliencia,
+            @Value("${notificaciones.tokens.pendientes-maximo:10000}") int pendientesMaximo,
+            @Value("${notificaciones.tokens.timeout-ms:10000}") long timeoutMs,
+            MeterRegistry registry) {
+        this.almacen = almacen;
+        this.registroRepartidores = registroRepartidores;
+        this.lecturaService = lecturaService;
+        this.resiliencia = resiliencia;
+        this.pendientesMaximo = pendientesMaximo;
+        this.timeoutMs = timeoutMs;
+        this.registry = registry;
+        Gauge.builder("notificaciones.tokens.pendientes", pendientes, Map::size).register(registry);
+    }
+
+    /**
+     * Toma los resultados de un envío y agenda la limpieza de los tokens no registrados
+     */
+    public void registrarResultados(List<ResultadoEnvioDTO> resultados) {
+        Map<String, String> descartados = new HashMap<>();
+        for (ResultadoEnvioDTO resultado : resultados) {
+            if (!resultado.isExitoso() && CODIGO_NO_REGISTRADO.equals(resultado.getCodigoError())
+                    && resultado.getToken() != null) {
+                if (pendientes.size() >= pendientesMaximo) {
+                    registry.counter("notificaciones.tokens.depurados", "resultado", "descartado").increment();
+                    continue;
+                }
+                String userId = resultado.getUserId() != null ? resultado.getUserId() : "";
+                pendientes.put(resultado.getToken(), userId);
+                if (!userId.isEmpty()) {
+                    descartados.put(userId, resultado.getToken());
+                }
+            }
+        }
+        if (!descartados.isEmpty()) {
+            registroRepartidores.descartarTokens(descartados);
+        }
+    }
+
+    public int tokensPendientes() {
+        return pendientes.size();
+    }
+
+    @Scheduled(fixedDelayString = "${notificaciones.tokens.intervalo-depuracion-ms:30000}")
+    public void depurar() {
+        if (pendientes.isEmpty()) {
+            return;
+        }
+
+        // token -> userId de esta pasada
+        Map<String, String> tomados = new HashMap<>();
+        for (String token : new ArrayList<>(pendientes.keySet())) {
+            String userId = pendientes.remove(token);
+            if (userId != null) {
+                tomados.put(token, userId);
+            }
+        }
+        // Un usuario puede haber dejado varios tokens muertos; basta con que el vigente sea uno de ellos
+        Map<String, Set<String>> muertosPorUsuario = new HashMap<>();
+        List<String> sinUsuario = new ArrayList<>();
+        tomados.forEach((token, userId) -> {
+            if (userId.isEmpty()) {
+                sinUsuario.add(token);
+            } else {
+                muertosPorUsuario.computeIfAbsent(userId, id -> new HashSet<>()).add(token);
+            }
+        });
+
+        List<Documento> aBorrar = new ArrayList<>();
+        try {
+            Map<String, Documento> documentos = new HashMap<>();
+            for (List<String> grupo : Lotes.particionar(new ArrayList<>(muertosPorUsuario.keySet()),
+                    MAX_DOCUMENTOS_POR_LECTURA)) {
+                for (Documento doc : esperar(resiliencia.leerMasivo(grupo.size(),
+                        () -> almacen.leerVarios("usuarios", grupo)))) {
+                    documentos.put(doc.getId(), doc);
+                }
+            }
+            for (List<String> grupo : Lotes.particionar(sinUsuario, MAX_VALORES_WHERE_IN)) {
+                for (Documento doc : esperar(resiliencia.leerMasivo(grupo.size(),
+                        () -> almacen.consultar("usuarios", "fcmToken", grupo)))) {
+                    documentos.putIfAbsent(doc.getId(), doc);
+                    muertosPorUsuario.computeIfAbsent(doc.getId(), id -> new HashSet<>())
+                            .add(doc.getString("fcmToken"));
+                }
+            }
+
+            for (Documento doc : documentos.values()) {
+                Set<String> muertos = muertosPorUsuario.get(doc.getId());
+                if (doc.existe() && muertos != null && muertos.contains(doc.getString("fcmToken"))) {
+                    aBorrar.add(doc);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("No se pudieron leer los usuarios con tokens inválidos, se reintentará: {}", e.getMessage());
+            tomados.forEach(pendientes::putIfAbsent);
+            return;
+        }
+        // El usuario ya registró otro token o el documento no existe
+        registry.counter("notificaciones.tokens.depurados", "resultado", "vigente")
+                .increment(Math.max(0, tomados.size() - aBorrar.size()));
+
+        for (List<Documento> lote : Lotes.particionar(aBorrar, MAX_ESCRITURAS_POR_LOTE)) {
+            commitLote(lote);
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (!pendientes.isEmpty()) {
+            log.info("Depurando tokens pendientes antes de detener pendientes={}", pendientes.size());
+            depurar();
+        }
+    }
+
+    /**
+     * Borra el campo solo si el documento no cambió desde que se leyó. Si la precondición
+     * falla el lote completo se reagenda y en la siguiente pasada se relee.
+     */
+    private void commitLote(List<Documento> lote) {
+        List<Escritura> escrituras = new ArrayList<>(lote.size());
+        for (Documento doc : lote) {
+            escrituras.add(Escritura.borrarCampo("usuarios/" + doc.getId(), "fcmToken", doc.getActualizado()));
+        }
+        try {
+            esperar(resiliencia.escribirMasivo(escrituras.size(), () -> almacen.escribir(escrituras)));
+            for (Documento doc : lote) {
+                lecturaService.invalidarUsuario(doc.getId());
+            }
+            registry.counter("notificaciones.tokens.depurados", "resultado", "borrado").increment(lote.size());
+            log.info("Tokens FCM inválidos borrados de Firestore tokens={}", lote.size());
+        } catch (RuntimeException e) {
+            log.warn("Error al borrar lote de tokens inválidos tokens={}, se reintentará: {}", lote.size(),
+                    e.getMessage());
+            lote.forEach(doc -> pendientes.putIfAbsent(doc.getString("fcmToken"), doc.getId()));
+        }
+    }
+
+    /**
+     * Espera como máximo timeoutMs; al vencer falla con CompletionException(TimeoutException)
+     */
+    private <T> T esperar(CompletableFuture<T> futuro) {
+        return Futuros.esperar(futuro.orTimeout(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,307 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import mx.edu.utez.paqueteria.exception.ColaLlenaException;
+import mx.edu.utez.paqueteria.exception.EventoInvalidoException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.ColaPonderada;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingesta asíncrona de eventos de paquetes.
+ * El controlador encola el evento y responde 202; un pool de workers drena la cola
+ * y delega en NotificacionService. Si la cola está llena se rechaza el evento (429).
+ * La cola tiene dos carriles: transaccional (paquete tomado y entregado, un push a un cliente)
+ * y masivo (nuevo paquete, difusión a repartidores). Los workers los atienden por turno ponderado
+ * y notificaciones.ingesta.workers-reservados workers atienden solo el transaccional, así una
+ * ráfaga de difusiones no retrasa los avisos a clientes. notificaciones.ingesta.capacidad-cola es el total
+ * de ambos carriles; el transaccional puede ocuparlo completo y el masivo hasta capacidad-masivo, así una
+ * ráfaga de difusiones no deja sin lugar a los avisos a clientes.
+ * Cada evento se guarda en el outbox antes de encolarse y se confirma cuando su historial y su push
+ * quedaron confirmados (con la agrupación, al cerrar la ventana del cliente, sin ocupar al worker);
+ * los que quedaron sin confirmar se reencolan al arrancar. Si Firebase no está disponible
+ * (historial o push) el evento vuelve a la cola tras el Retry-After en lugar de perderse, aunque
+ * tenga que esperar a que se libere lugar.
+ */
+@Service
+public class DespachadorEventosService {
+
+    private static final Logger log = LoggerFactory.getLogger(DespachadorEventosService.class);
+
+    public static final String ACCION_CREADO = "CREADO";
+    public static final String ACCION_TOMADO = "TOMADO";
+    public static final String ACCION_ENTREGADO = "ENTREGADO";
+
+    public static final String ESTADO_PENDIENTE = "PENDIENTE";
+    public static final String ESTADO_PROCESANDO = "PROCESANDO";
+    public static final String ESTADO_COMPLETADO = "COMPLETADO";
+    public static final String ESTADO_ERROR = "ERROR";
+
+    private static final int CARRIL_TRANSACCIONAL = 0;
+    private static final int CARRIL_MASIVO = 1;
+    private static final String[] NOMBRES_CARRILES = { "transaccional", "masivo" };
+
+    private final NotificacionService notificacionService;
+    private final OutboxEventosService outbox;
+    private final GeneradorIds generadorIds;
+    private final ExecutorService despachadorExecutor;
+    private final int workers;
+    private final int workersReservados;
+    private final ColaPonderada<EventoEncolado> cola;
+    private final Map<String, String> estados;
+    private final MeterRegistry registry;
+
+    public DespachadorEventosService(NotificacionService notificacionService, OutboxEventosService outbox,
+            GeneradorIds generadorIds,
+            @Qualifier("despachadorExecutor") ExecutorService despachadorExecutor,
+            @Value("${notificaciones.ingesta.workers:4}") int workers,
+            @Value("${notificaciones.ingesta.workers-reservados:1}") int workersReservados,
+            @Value("${notificaciones.ingesta.capacidad-cola:1000}") int capacidadCola,
+            @Value("${notificaciones.ingesta.capacidad-masivo:500}") int capacidadMasivo,
+            @Value("${notificaciones.ingesta.peso-transaccional:4}") int pesoTransaccional,
+            @Value("${notificaciones.ingesta.peso-masivo:1}") int pesoMasivo,
+            @Value("${notificaciones.ingesta.estados-retenidos:10000}") int estadosRetenidos,
+            MeterRegistry registry) {
+        this.notificacionService = notificacionService;
+        this.outbox = outbox;
+        this.generadorIds = generadorIds;
+        this.despachadorExecutor = despachadorExecutor;
+        this.workers = workers;
+        this.workersReservados = Math.max(0, workersReservados);
+        // capacidad-cola es el total, como antes de los carriles; solo el masivo tiene un máximo propio
+        int capacidad = Math.max(1, capacidadCola);
+        this.cola = new ColaPonderada<>(new int[] { pesoTransaccional, pesoMasivo }, capacidad,
+                new int[] { capacidad, Math.max(1, Math.min(capacidadMasivo, capacidad)) });
+        this.registry = registry;
+        for (int carril = 0; carril < NOMBRES_CARRILES.length; carril++) {
+            int indice = carril;
+            Gauge.builder("notificaciones.ingesta.cola", cola, c -> c.tamano(indice))
+                    .tag("carril", NOMBRES_CARRILES[carril])
+                    .register(registry);
+        }
+        this.estados = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > estadosRetenidos;
+            }
+        });
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        for (int i = 0; i < workers; i++) {
+            despachadorExecutor.execute(() -> drenarCola(false));
+        }
+        for (int i = 0; i < workersReservados; i++) {
+            despachadorExecutor.execute(() -> drenarCola(true));
+        }
+        Map<String, PaqueteEventDTO> sinConfirmar = outbox.eventosSinConfirmar();
+        if (!sinConfirmar.isEmpty()) {
+            // En otro hilo: put() espera a que los workers hagan espacio sin frenar el arranque
+            Thread.ofVirtual().name("outbox-reproduccion").start(() -> reproducir(sinConfirmar));
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        log.info("Deteniendo despachador pendientes={}", cola.tamano());
+    }
+
+    /**
+     * Valida y encola un evento.
+     *
+     * @return id de seguimiento del evento
+     * @throws EventoInvalidoException si faltan datos obligatorios
+     * @throws ColaLlenaException      si la cola no tiene capacidad
+     */
+    public String encolar(PaqueteEventDTO evento, String accion) {
+        evento.setAccion(accion);
+        validar(evento);
+
+        String trackingId = generadorIds.siguiente();
+        outbox.registrar(trackingId, evento);
+        estados.put(trackingId, ESTADO_PENDIENTE);
+        EventoEncolado encolado = new EventoEncolado(trackingId, evento);
+        if (!cola.ofrecer(encolado.carril, encolado)) {
+            outbox.confirmar(trackingId);
+            estados.remove(trackingId);
+            registry.counter("notificaciones.ingesta.rechazados").increment();
+            throw new ColaLlenaException("Cola de notificaciones llena, intente más tarde");
+        }
+        return trackingId;
+    }
+
+    /**
+     * Estado de un evento encolado, o null si no se conoce el id.
+     */
+    public String obtenerEstado(String trackingId) {
+        return estados.get(trackingId);
+    }
+
+    public int eventosPendientes() {
+        return cola.tamano();
+    }
+
+    /**
+     * Datos mínimos de un evento según su acción
+     *
+     * @throws EventoInvalidoException si la acción no se conoce o faltan datos obligatorios
+     */
+    public static void validar(PaqueteEventDTO evento) {
+        if (!ACCION_CREADO.equals(evento.getAccion()) && !ACCION_TOMADO.equals(evento.getAccion())
+                && !ACCION_ENTREGADO.equals(evento.getAccion())) {
+            throw new EventoInvalidoException("Acción desconocida: " + evento.getAccion());
+        }
+        if (evento.getPaqueteId() == null || evento.getPaqueteId().isBlank()) {
+            throw new EventoInvalidoException("El campo paqueteId es obligatorio");
+        }
+        if (ACCION_TOMADO.equals(evento.getAccion())
+                && (evento.getRepartidorId() == null || evento.getRepartidorId().isBlank())) {
+            throw new EventoInvalidoException("El campo repartidorId es obligatorio para un paquete tomado");
+        }
+    }
+
+    /**
+     * @param soloTransaccional worker reservado para el carril transaccional
+     */
+    private void drenarCola(boolean soloTransaccional) {
+        while (!Thread.currentThread().isInterrupted()) {
+            EventoEncolado encolado;
+            try {
+                encolado = soloTransaccional ? cola.tomar(CARRIL_TRANSACCIONAL) : cola.tomar();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            procesar(encolado);
+        }
+    }
+
+    private void procesar(EventoEncolado encolado) {
+        MDC.put("trackingId", encolado.trackingId);
+        estados.put(encolado.trackingId, ESTADO_PROCESANDO);
+        registry.timer("notificaciones.ingesta.espera", "carril", NOMBRES_CARRILES[encolado.carril])
+                .record(System.nanoTime() - encolado.encoladoNs, TimeUnit.NANOSECONDS);
+        Timer.Sample muestra = Timer.start(registry);
+        CompletableFuture<Void> ejecucion;
+        try {
+            ejecucion = ejecutar(encolado.evento);
+        } catch (RuntimeException e) {
+            ejecucion = CompletableFuture.failedFuture(e);
+        } finally {
+            MDC.remove("trackingId");
+        }
+        ejecucion.whenComplete((valor, error) -> terminar(encolado, muestra, error));
+    }
+
+    /**
+     * Confirma, reencola o marca con error el evento; corre en el worker o, si la notificación quedó
+     * retenida para agrupar, en el hilo que cerró la ventana
+     */
+    private void terminar(EventoEncolado encolado, Timer.Sample muestra, Throwable error) {
+        MDC.put("trackingId", encolado.trackingId);
+        Throwable causa = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String resultado = "exito";
+        try {
+            if (causa == null) {
+                estados.put(encolado.trackingId, ESTADO_COMPLETADO);
+                outbox.confirmar(encolado.trackingId);
+            } else if (causa instanceof ServicioNoDisponibleException e) {
+                resultado = "reintento";
+                log.warn("Firebase no disponible, se reintentará en {}s trackingId={}", e.getReintentarEnSegundos(),
+                        encolado.trackingId);
+                estados.put(encolado.trackingId, ESTADO_PENDIENTE);
+                reencolar(encolado, e.getReintentarEnSegundos());
+            } else {
+                resultado = "error";
+                log.error("Error al procesar evento trackingId={} accion={}", encolado.trackingId,
+                        encolado.evento.getAccion(), causa);
+                estados.put(encolado.trackingId, ESTADO_ERROR);
+                // Un error no transitorio no se arregla reproduciendo el evento
+                outbox.confirmar(encolado.trackingId);
+            }
+        } finally {
+            muestra.stop(registry.timer("notificaciones.ingesta.procesamiento",
+                    "tipo", encolado.evento.getAccion(), "resultado", resultado));
+            MDC.remove("trackingId");
+        }
+    }
+
+    /**
+     * El evento ya se aceptó con 202: si su carril está lleno espera lugar en un hilo virtual, igual que
+     * al reproducir el outbox, y la cola se lo da antes que a los eventos nuevos
+     */
+    private void reencolar(EventoEncolado encolado, long segundos) {
+        CompletableFuture.delayedExecutor(segundos, TimeUnit.SECONDS, Thread::startVirtualThread).execute(() -> {
+            encolado.encoladoNs = System.nanoTime();
+            if (cola.ofrecer(encolado.carril, encolado)) {
+                return;
+            }
+            log.info("Cola llena, el evento espera lugar para reencolarse trackingId={}", encolado.trackingId);
+            registry.counter("notificaciones.ingesta.reencolados-en-espera").increment();
+            try {
+                cola.poner(encolado.carril, encolado);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void reproducir(Map<String, PaqueteEventDTO> eventos) {
+        log.info("Reproduciendo eventos del outbox eventos={}", eventos.size());
+        for (Map.Entry<String, PaqueteEventDTO> evento : eventos.entrySet()) {
+            estados.put(evento.getKey(), ESTADO_PENDIENTE);
+            try {
+                EventoEncolado encolado = new EventoEncolado(evento.getKey(), evento.getValue());
+                cola.poner(encolado.carril, encolado);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> ejecutar(PaqueteEventDTO evento) {
+        return switch (evento.getAccion()) {
+            case ACCION_TOMADO -> notificacionService.notificarPedidoTomadoAsync(evento);
+            case ACCION_CREADO -> {
+                notificacionService.notificarNuevoPedido(evento);
+                yield CompletableFuture.completedFuture(null);
+            }
+            case ACCION_ENTREGADO -> notificacionService.notificarPedidoEntregadoAsync(evento);
+            default -> throw new EventoInvalidoException("Acción desconocida: " + evento.getAccion());
+        };
+    }
+
+    private static final class EventoEncolado {
+        private final String trackingId;
+        private final PaqueteEventDTO evento;
+        private final int carril;
+        private volatile long encoladoNs = System.nanoTime();
+
+        private EventoEncolado(String trackingId, PaqueteEventDTO evento) {
+            this.trackingId = trackingId;
+            this.evento = evento;
+            this.carril = ACCION_CREADO.equals(evento.getAccion()) ? CARRIL_MASIVO : CARRIL_TRANSACCIONAL;
+        }
+    }
+}
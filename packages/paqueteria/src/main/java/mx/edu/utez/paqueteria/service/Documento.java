@@ -0,0 +1,27 @@
+package mx.edu.utez.paqueteria.service;
+
+import java.time.Instant;
+
+/**
+ * Documento leído de AlmacenDocumentos
+ */
+public interface Documento {
+
+    String getId();
+
+    boolean existe();
+
+    String getString(String campo);
+
+    Double getDouble(String campo);
+
+    /**
+     * Convierte el documento al modelo, o null si no existe
+     */
+    <T> T como(Class<T> tipo);
+
+    /**
+     * Hora de la última escritura según el almacén; sirve como versión para Escritura.borrarCampo
+     */
+    Instant getActualizado();
+}
@@ -0,0 +1,42 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.messaging.Message;
+
+import java.util.List;
+
+/**
+ * Puerto de salida hacia FCM. Permite sustituir Firebase por dobles en memoria
+ * en benchmarks y pruebas de carga.
+ */
+public interface EnviadorPush {
+
+    /**
+     * Envía hasta 500 mensajes en una sola llamada.
+     * Nunca lanza excepción: un fallo del lote completo se reporta en cada respuesta.
+     *
+     * @return una respuesta por mensaje, en el mismo orden
+     */
+    List<RespuestaPush> enviarLote(List<Message> mensajes);
+
+    /**
+     * Igual que enviarLote, para difusiones masivas que no deben quitarle el turno a los envíos
+     * a clientes; sin límite de tasa es lo mismo
+     */
+    default List<RespuestaPush> enviarLoteMasivo(List<Message> mensajes) {
+        return enviarLote(mensajes);
+    }
+
+    /**
+     * Suscribe hasta 1000 tokens a un tópico en una sola llamada
+     *
+     * @return tokens que no se pudieron suscribir
+     */
+    List<String> suscribir(List<String> tokens, String topico);
+
+    /**
+     * Quita hasta 1000 tokens de un tópico en una sola llamada
+     *
+     * @return tokens que no se pudieron quitar
+     */
+    List<String> desuscribir(List<String> tokens, String topico);
+}
@@ -0,0 +1,92 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EnviadorPush en memoria para pruebas de carga (notificaciones.backend=memoria).
+ * Cada llamada bloquea notificaciones.memoria.fcm.latencia-ms ± variacion-ms, como sendEach;
+ * cada mensaje falla con UNAVAILABLE (reintentable) con probabilidad tasa-errores o con
+ * UNREGISTERED con probabilidad tasa-no-registrados, lo que ejercita la depuración de tokens.
+ */
+@Component("enviadorPushDestino")
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "memoria")
+public class EnviadorPushMemoria implements EnviadorPush {
+
+    private static final Logger log = LoggerFactory.getLogger(EnviadorPushMemoria.class);
+
+    private final long latenciaMs;
+    private final long variacionMs;
+    private final double tasaErrores;
+    private final double tasaNoRegistrados;
+    private final AtomicLong mensajes = new AtomicLong();
+
+    public EnviadorPushMemoria(@Value("${notificaciones.memoria.fcm.latencia-ms:20}") long latenciaMs,
+            @Value("${notificaciones.memoria.fcm.variacion-ms:10}") long variacionMs,
+            @Value("${notificaciones.memoria.fcm.tasa-errores:0}") double tasaErrores,
+            @Value("${notificaciones.memoria.fcm.tasa-no-registrados:0}") double tasaNoRegistrados) {
+        this.latenciaMs = Math.max(0, latenciaMs);
+        this.variacionMs = Math.max(0, Math.min(variacionMs, latenciaMs));
+        this.tasaErrores = tasaErrores;
+        this.tasaNoRegistrados = tasaNoRegistrados;
+        log.warn("Usando FCM en memoria latenciaMs={} tasaErrores={} tasaNoRegistrados={}", latenciaMs,
+                tasaErrores, tasaNoRegistrados);
+    }
+
+    @Override
+    public List<RespuestaPush> enviarLote(List<Message> lote) {
+        if (!esperar()) {
+            return Collections.nCopies(lote.size(), RespuestaPush.fallo(null, "Envío interrumpido"));
+        }
+        List<RespuestaPush> respuestas = new ArrayList<>(lote.size());
+        for (int i = 0; i < lote.size(); i++) {
+            double sorteo = ThreadLocalRandom.current().nextDouble();
+            if (sorteo < tasaErrores) {
+                respuestas.add(RespuestaPush.fallo(MessagingErrorCode.UNAVAILABLE, "Falla simulada de FCM", true, 0));
+            } else if (sorteo < tasaErrores + tasaNoRegistrados) {
+                respuestas.add(RespuestaPush.fallo(MessagingErrorCode.UNREGISTERED, "Token no registrado (simulado)"));
+            } else {
+                respuestas.add(RespuestaPush.exito("memoria/" + mensajes.incrementAndGet()));
+            }
+        }
+        return respuestas;
+    }
+
+    @Override
+    public List<String> suscribir(List<String> tokens, String topico) {
+        return esperar() ? List.of() : tokens;
+    }
+
+    @Override
+    public List<String> desuscribir(List<String> tokens, String topico) {
+        return esperar() ? List.of() : tokens;
+    }
+
+    /**
+     * @return false si el hilo se interrumpió durante la latencia simulada
+     */
+    private boolean esperar() {
+        long esperaMs = latenciaMs;
+        if (variacionMs > 0) {
+            esperaMs += ThreadLocalRandom.current().nextLong(-variacionMs, variacionMs + 1);
+        }
+        try {
+            Thread.sleep(esperaMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.messaging.Message;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EnviadorPush con reintentos, circuit breaker y límite de tasa sobre el enviador de destino
+ * (FirebaseEnviadorPush, o EnviadorPushMemoria con notificaciones.backend=memoria).
+ * Solo se reintentan los mensajes del lote que fallaron con un error transitorio, con backoff
+ * exponencial y jitter; si FCM pidió Retry-After se espera al menos eso, y si pide más que
+ * notificaciones.resiliencia.espera-maxima-ms el mensaje se da por fallido sin ocupar el hilo.
+ * Un lote en el que todo falla de forma transitoria cuenta como fallo del circuito "fcm";
+ * con el circuito abierto los mensajes fallan de inmediato con CIRCUIT_OPEN.
+ * Cada llamada espera su turno en el limitador "fcm", que baja la tasa al recibir QUOTA_EXCEEDED;
+ * si el turno tardaría más de espera-maxima-ms los mensajes fallan de inmediato con RATE_LIMITED.
+ * Las difusiones (enviarLoteMasivo) no le quitan el turno a los envíos a clientes.
+ */
+@Component
+@Primary
+public class EnviadorPushResiliente implements EnviadorPush {
+
+    private final EnviadorPush delegado;
+    private final CircuitBreaker circuito;
+    private final PoliticaReintentos politica;
+    private final LimitadorAdaptativo limitador;
+    private final Counter reintentos;
+
+    public EnviadorPushResiliente(@Qualifier("enviadorPushDestino") EnviadorPush delegado,
+            @Qualifier("circuitoFcm") CircuitBreaker circuito, PoliticaReintentos politica,
+            @Qualifier("limitadorFcm") LimitadorAdaptativo limitador, MeterRegistry registry) {
+        this.delegado = delegado;
+        this.circuito = circuito;
+        this.politica = politica;
+        this.limitador = limitador;
+        this.reintentos = registry.counter("notificaciones.fcm.reintentos");
+    }
+
+    @Override
+    public List<RespuestaPush> enviarLote(List<Message> mensajes) {
+        return enviar(mensajes, true);
+    }
+
+    @Override
+    public List<RespuestaPush> enviarLoteMasivo(List<Message> mensajes) {
+        return enviar(mensajes, false);
+    }
+
+    private List<RespuestaPush> enviar(List<Message> mensajes, boolean prioritaria) {
+        if (mensajes.isEmpty()) {
+            return List.of();
+        }
+        RespuestaPush[] respuestas = new RespuestaPush[mensajes.size()];
+        List<Integer> pendientes = new ArrayList<>(mensajes.size());
+        for (int i = 0; i < mensajes.size(); i++) {
+            pendientes.add(i);
+        }
+
+        for (int intento = 0; ; intento++) {
+            List<Message> lote = new ArrayList<>(pendientes.size());
+            pendientes.forEach(i -> lote.add(mensajes.get(i)));
+            List<RespuestaPush> parciales = llamar(lote, prioritaria);
+
+            List<Integer> reintentables = new ArrayList<>();
+            long retryAfterMs = 0;
+            for (int i = 0; i < parciales.size(); i++) {
+                RespuestaPush respuesta = parciales.get(i);
+                respuestas[pendientes.get(i)] = respuesta;
+                if (respuesta.isReintentable()) {
+                    reintentables.add(pendientes.get(i));
+                    retryAfterMs = Math.max(retryAfterMs, respuesta.getReintentarTrasMs());
+                }
+            }
+
+            if (reintentables.isEmpty() || intento >= politica.getReintentos()
+                    || retryAfterMs > politica.getEsperaMaximaMs()) {
+                break;
+            }
+            try {
+                Thread.sleep(Math.max(politica.espera(intento), retryAfterMs));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            reintentos.increment(reintentables.size());
+            pendientes = reintentables;
+        }
+        return Arrays.asList(respuestas);
+    }
+
+    /**
+     * Sin reintentos ni efecto en el circuito: SuscripcionTopicosService vuelve a intentar
+     * los tokens fallidos en su siguiente sincronización
+     */
+    @Override
+    public List<String> suscribir(List<String> tokens, String topico) {
+        if (circuito.getState() == CircuitBreaker.State.OPEN) {
+            return tokens;
+        }
+        return delegado.suscribir(tokens, topico);
+    }
+
+    @Override
+    public List<String> desuscribir(List<String> tokens, String topico) {
+        if (circuito.getState() == CircuitBreaker.State.OPEN) {
+            return tokens;
+        }
+        return delegado.desuscribir(tokens, topico);
+    }
+
+    private List<RespuestaPush> llamar(List<Message> lote, boolean prioritaria) {
+        // Con el circuito abierto no tiene caso gastar turno del limitador
+        if (circuito.getState() == CircuitBreaker.State.OPEN) {
+            return Collections.nCopies(lote.size(), RespuestaPush.circuitoAbierto());
+        }
+        long esperaNs = limitador.reservar(lote.size(), prioritaria,
+                TimeUnit.MILLISECONDS.toNanos(politica.getEsperaMaximaMs()));
+        if (esperaNs == LimitadorAdaptativo.RECHAZADA) {
+            return Collections.nCopies(lote.size(), RespuestaPush.limiteTasa(politica.getEsperaMaximaMs()));
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(esperaNs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.nCopies(lote.size(), RespuestaPush.fallo(null, "Envío interrumpido"));
+        }
+        // El permiso se toma justo antes de la llamada: en HALF_OPEN los pocos permisos de prueba
+        // no se quedan retenidos mientras se espera turno
+        if (!circuito.tryAcquirePermission()) {
+            return Collections.nCopies(lote.size(), RespuestaPush.circuitoAbierto());
+        }
+        long inicio = System.nanoTime();
+        List<RespuestaPush> respuestas = delegado.enviarLote(lote);
+        long duracion = System.nanoTime() - inicio;
+        if (respuestas.stream().anyMatch(RespuestaPush::isSaturacion)) {
+            limitador.registrarSaturacion();
+        } else {
+            limitador.registrarExito(lote.size());
+        }
+        if (respuestas.stream().allMatch(RespuestaPush::isReintentable)) {
+            circuito.onError(duracion, TimeUnit.NANOSECONDS,
+                    new IllegalStateException(respuestas.get(0).getMensajeError()));
+        } else {
+            circuito.onSuccess(duracion, TimeUnit.NANOSECONDS);
+        }
+        return respuestas;
+    }
+}
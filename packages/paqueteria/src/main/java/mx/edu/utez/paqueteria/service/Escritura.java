@@ -0,0 +1,61 @@
+package mx.edu.utez.paqueteria.service;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Escritura de un lote de AlmacenDocumentos.escribir
+ */
+public final class Escritura {
+
+    public enum Tipo { GUARDAR, BORRAR_CAMPO }
+
+    private final Tipo tipo;
+    private final String ruta;
+    private final Map<String, Object> datos;
+    private final String campo;
+    private final Instant versionEsperada;
+
+    private Escritura(Tipo tipo, String ruta, Map<String, Object> datos, String campo, Instant versionEsperada) {
+        this.tipo = tipo;
+        this.ruta = ruta;
+        this.datos = datos;
+        this.campo = campo;
+        this.versionEsperada = versionEsperada;
+    }
+
+    /**
+     * Crea o reemplaza el documento completo (set)
+     */
+    public static Escritura guardar(String ruta, Map<String, Object> datos) {
+        return new Escritura(Tipo.GUARDAR, ruta, datos, null, null);
+    }
+
+    /**
+     * Borra un campo solo si el documento no se escribió después de {@code versionEsperada}
+     * (Documento.getActualizado de la lectura)
+     */
+    public static Escritura borrarCampo(String ruta, String campo, Instant versionEsperada) {
+        return new Escritura(Tipo.BORRAR_CAMPO, ruta, null, campo, versionEsperada);
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public String getRuta() {
+        return ruta;
+    }
+
+    public Map<String, Object> getDatos() {
+        return datos;
+    }
+
+    public String getCampo() {
+        return campo;
+    }
+
+    public Instant getVersionEsperada() {
+        return versionEsperada;
+    }
+}
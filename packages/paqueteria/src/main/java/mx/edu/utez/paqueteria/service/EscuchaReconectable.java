@@ -0,0 +1,101 @@
+package mx.edu.utez.paqueteria.service;
+
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.CambioDocumento;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.OyenteDocumentos;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener de AlmacenDocumentos que se vuelve a registrar cuando se detiene por un error.
+ * El oyente recibe primero el error, para dejar de confiar en su estado, y al reconectarse otra vez
+ * todos los documentos como AGREGADO. Los intentos esperan con backoff exponencial y jitter
+ * hasta un minuto, sin ocupar hilos; el contador se reinicia con el primer snapshot recibido.
+ */
+public final class EscuchaReconectable {
+
+    private static final Logger log = LoggerFactory.getLogger(EscuchaReconectable.class);
+
+    private static final PoliticaReintentos POLITICA = new PoliticaReintentos(Integer.MAX_VALUE, 1_000, 60_000);
+
+    private final AlmacenDocumentos almacen;
+    private final String nombre;
+    private final String coleccion;
+    private final String campo;
+    private final Object valor;
+    private final OyenteDocumentos oyente;
+
+    private AlmacenDocumentos.Suscripcion suscripcion;
+    private int intentos;
+    private boolean cancelada;
+
+    /**
+     * @param nombre para los logs, p. ej. "repartidores"
+     */
+    public EscuchaReconectable(AlmacenDocumentos almacen, String nombre, String coleccion, String campo,
+            Object valor, OyenteDocumentos oyente) {
+        this.almacen = almacen;
+        this.nombre = nombre;
+        this.coleccion = coleccion;
+        this.campo = campo;
+        this.valor = valor;
+        this.oyente = oyente;
+    }
+
+    public synchronized void iniciar() {
+        if (cancelada) {
+            return;
+        }
+        try {
+            suscripcion = almacen.escuchar(coleccion, campo, valor, new OyenteDocumentos() {
+                @Override
+                public void alCambiar(List<Documento> documentos, List<CambioDocumento> cambios,
+                        Exception error) {
+                    EscuchaReconectable.this.alCambiar(documentos, cambios, error);
+                }
+
+                @Override
+                public boolean usaDocumentos() {
+                    return oyente.usaDocumentos();
+                }
+            });
+        } catch (Exception e) {
+            log.warn("No se pudo registrar el listener de {}: {}", nombre, e.getMessage());
+            programarReconexion();
+        }
+    }
+
+    public synchronized void cancelar() {
+        cancelada = true;
+        if (suscripcion != null) {
+            suscripcion.cancelar();
+            suscripcion = null;
+        }
+    }
+
+    private void alCambiar(List<Documento> documentos, List<CambioDocumento> cambios, Exception error) {
+        oyente.alCambiar(documentos, cambios, error);
+        synchronized (this) {
+            if (error == null) {
+                intentos = 0;
+                return;
+            }
+            // El listener ya quedó cancelado por el almacén
+            suscripcion = null;
+            programarReconexion();
+        }
+    }
+
+    private void programarReconexion() {
+        if (cancelada) {
+            return;
+        }
+        long esperaMs = POLITICA.espera(intentos++);
+        log.info("Listener de {} se registrará de nuevo en {} ms intento={}", nombre, esperaMs, intentos);
+        CompletableFuture.delayedExecutor(esperaMs, TimeUnit.MILLISECONDS).execute(this::iniciar);
+    }
+}
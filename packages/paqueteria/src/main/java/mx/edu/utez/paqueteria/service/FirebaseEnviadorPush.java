@@ -0,0 +1,133 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.ErrorCode;
+import com.google.firebase.IncomingHttpResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.google.firebase.messaging.SendResponse;
+import com.google.firebase.messaging.TopicManagementResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementación de EnviadorPush sobre FirebaseMessaging.sendEach.
+ * Marca como reintentables los errores transitorios y conserva el Retry-After de FCM.
+ */
+@Component("enviadorPushDestino")
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "firebase", matchIfMissing = true)
+public class FirebaseEnviadorPush implements EnviadorPush {
+
+    private static final Set<MessagingErrorCode> MENSAJE_TRANSITORIO =
+            EnumSet.of(MessagingErrorCode.UNAVAILABLE, MessagingErrorCode.INTERNAL,
+                    MessagingErrorCode.QUOTA_EXCEEDED);
+    private static final Set<ErrorCode> LLAMADA_TRANSITORIA =
+            EnumSet.of(ErrorCode.UNAVAILABLE, ErrorCode.INTERNAL, ErrorCode.DEADLINE_EXCEEDED,
+                    ErrorCode.RESOURCE_EXHAUSTED);
+
+    @Override
+    public List<RespuestaPush> enviarLote(List<Message> mensajes) {
+        try {
+            List<SendResponse> responses = FirebaseMessaging.getInstance().sendEach(mensajes).getResponses();
+            List<RespuestaPush> respuestas = new ArrayList<>(responses.size());
+            for (SendResponse response : responses) {
+                if (response.isSuccessful()) {
+                    respuestas.add(RespuestaPush.exito(response.getMessageId()));
+                } else {
+                    FirebaseMessagingException exception = response.getException();
+                    respuestas.add(exception != null
+                            ? fallo(exception)
+                            : RespuestaPush.fallo(null, "Desconocido"));
+                }
+            }
+            return respuestas;
+        } catch (FirebaseMessagingException e) {
+            return Collections.nCopies(mensajes.size(), fallo(e));
+        } catch (RuntimeException e) {
+            return Collections.nCopies(mensajes.size(), RespuestaPush.fallo(null, e.getMessage()));
+        }
+    }
+
+    @Override
+    public List<String> suscribir(List<String> tokens, String topico) {
+        try {
+            return fallidos(tokens, FirebaseMessaging.getInstance().subscribeToTopic(tokens, topico));
+        } catch (FirebaseMessagingException | RuntimeException e) {
+            return tokens;
+        }
+    }
+
+    @Override
+    public List<String> desuscribir(List<String> tokens, String topico) {
+        try {
+            return fallidos(tokens, FirebaseMessaging.getInstance().unsubscribeFromTopic(tokens, topico));
+        } catch (FirebaseMessagingException | RuntimeException e) {
+            return tokens;
+        }
+    }
+
+    private static List<String> fallidos(List<String> tokens, TopicManagementResponse response) {
+        List<String> fallidos = new ArrayList<>(response.getFailureCount());
+        for (TopicManagementResponse.Error error : response.getErrors()) {
+            fallidos.add(tokens.get(error.getIndex()));
+        }
+        return fallidos;
+    }
+
+    private static RespuestaPush fallo(FirebaseMessagingException e) {
+        boolean reintentable = e.getMessagingErrorCode() != null
+                ? MENSAJE_TRANSITORIO.contains(e.getMessagingErrorCode())
+                : LLAMADA_TRANSITORIA.contains(e.getErrorCode());
+        // Un 429 de la llamada completa es la misma cuota agotada que QUOTA_EXCEEDED por mensaje
+        MessagingErrorCode codigo = e.getMessagingErrorCode() == null
+                && e.getErrorCode() == ErrorCode.RESOURCE_EXHAUSTED
+                ? MessagingErrorCode.QUOTA_EXCEEDED
+                : e.getMessagingErrorCode();
+        return RespuestaPush.fallo(codigo, e.getMessage(), reintentable,
+                reintentable ? retryAfterMs(e.getHttpResponse()) : 0);
+    }
+
+    /**
+     * Retry-After en segundos o como fecha HTTP; 0 si no viene o no se entiende
+     */
+    static long retryAfterMs(IncomingHttpResponse response) {
+        if (response == null || response.getHeaders() == null) {
+            return 0;
+        }
+        Object valor = null;
+        for (Map.Entry<String, Object> header : response.getHeaders().entrySet()) {
+            if ("retry-after".equalsIgnoreCase(header.getKey())) {
+                valor = header.getValue();
+            }
+        }
+        if (valor instanceof List<?> valores) {
+            valor = valores.isEmpty() ? null : valores.get(0);
+        }
+        if (valor == null) {
+            return 0;
+        }
+        String texto = valor.toString().trim();
+        try {
+            return Math.max(0, Long.parseLong(texto) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime fecha = ZonedDateTime.parse(texto, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(fecha.getZone()), fecha).toMillis());
+            } catch (DateTimeParseException ignorada) {
+                return 0;
+            }
+        }
+    }
+}
@@ -1,51 +1,101 @@
 package mx.edu.utez.paqueteria.service;
 
 import com.google.firebase.messaging.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.Lotes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 /**
  * Servicio para envío de notificaciones FCM
+ * Si FCM no responde tras los reintentos o su circuito está abierto, los envíos a un dispositivo
+ * y las difusiones en las que no salió ningún mensaje fallan con ServicioNoDisponibleException,
+ * para que el evento se reintente en lugar de perder el push.
  *
  * @author JonthanAyala
  */
 @Service
 public class FirebaseMessagingService {
 
+    private static final Logger log = LoggerFactory.getLogger(FirebaseMessagingService.class);
+
+    /** Máximo de mensajes que acepta FCM en una llamada a sendEach */
+    private static final int MAX_MENSAJES_POR_LOTE = 500;
+
+    private static final AndroidConfig ANDROID_CONFIG = AndroidConfig.builder()
+            .setPriority(AndroidConfig.Priority.HIGH)
+            .setNotification(AndroidNotification.builder()
+                    .setChannelId("paqueteria_channel")
+                    .setPriority(AndroidNotification.Priority.HIGH)
+                    .build())
+            .build();
+
+    private final ExecutorService fanOutExecutor;
+    private final int tamanoLote;
+    private final long abiertoSegundos;
+    private final EnviadorPush enviador;
+    private final DepuracionTokensService depuracionTokens;
+    private final MeterRegistry registry;
+    private final Timer lotes;
+
+    public FirebaseMessagingService(@Qualifier("fanOutExecutor") ExecutorService fanOutExecutor,
+            @Value("${notificaciones.fcm.tamano-lote:500}") int tamanoLote,
+            @Value("${notificaciones.resiliencia.circuito.abierto-segundos:30}") long abiertoSegundos,
+            EnviadorPush enviador, DepuracionTokensService depuracionTokens, MeterRegistry registry) {
+        this.fanOutExecutor = fanOutExecutor;
+        this.tamanoLote = Math.max(1, Math.min(tamanoLote, MAX_MENSAJES_POR_LOTE));
+        this.abiertoSegundos = abiertoSegundos;
+        this.enviador = enviador;
+        this.depuracionTokens = depuracionTokens;
+        this.registry = registry;
+        this.lotes = registry.timer("notificaciones.fcm.lote");
+    }
+
     /**
      * Enviar notificación a un solo dispositivo
+     *
+     * @throws ServicioNoDisponibleException si FCM no está disponible
      */
     public void enviarNotificacion(String fcmToken, String titulo, String cuerpo, Map<String, String> data) {
-        try {
-            Message message = Message.builder()
-                    .setToken(fcmToken)
-                    .setNotification(Notification.builder()
-                            .setTitle(titulo)
-                            .setBody(cuerpo)
-                            .build())
-                    .putAllData(data)
-                    .setAndroidConfig(AndroidConfig.builder()
-                            .setPriority(AndroidConfig.Priority.HIGH)
-                            .setNotification(AndroidNotification.builder()
-                                    .setChannelId("paqueteria_channel")
-                                    .setPriority(AndroidNotification.Priority.HIGH)
-                                    .build())
-                            .build())
-                    .build();
-
-            String response = FirebaseMessaging.getInstance().send(message);
-            System.out.println("Notificación enviada exitosamente: " + response);
-        } catch (FirebaseMessagingException e) {
-            if (e.getMessagingErrorCode() == MessagingErrorCode.UNREGISTERED) {
-                System.out.println("El token FCM " + fcmToken + " no es válido o el usuario ya no está registrado.");
-            } else {
-                System.out.println("Error al enviar notificación a token: " + fcmToken);
-                e.printStackTrace();
-            }
-        } catch (Exception e) {
-            System.err.println("Error inesperado al enviar la notificación: " + e.getMessage());
+        enviarNotificacion(null, fcmToken, titulo, cuerpo, data);
+    }
+
+    /**
+     * Enviar notificación al dispositivo de un usuario; si FCM reporta el token como no
+     * registrado se agenda su limpieza en usuarios/{userId}
+     *
+     * @throws ServicioNoDisponibleException si FCM no está disponible
+     */
+    public void enviarNotificacion(String userId, String fcmToken, String titulo, String cuerpo,
+            Map<String, String> data) {
+        RespuestaPush respuesta = enviar(List.of(construirMensaje(fcmToken, titulo, cuerpo, data)), false).get(0);
+        if (respuesta.isExitoso()) {
+            log.debug("Notificación enviada messageId={}", respuesta.getMessageId());
+        } else if (respuesta.getCodigoError() == MessagingErrorCode.UNREGISTERED) {
+            log.info("Token FCM no registrado userId={} token={}", userId, fcmToken);
+            depuracionTokens.registrarResultados(List.of(ResultadoEnvioDTO.fallo(userId, fcmToken,
+                    respuesta.getNombreError())));
+        } else if (respuesta.isNoDisponible()) {
+            throw noDisponible(respuesta);
+        } else {
+            log.warn("Error al enviar notificación token={} codigo={}: {}", fcmToken, respuesta.getNombreError(),
+                    respuesta.getMensajeError());
         }
     }
 
@@ -55,51 +105,229 @@ public class FirebaseMessagingService {
     public void enviarNotificacionMultiple(List<String> tokens, String titulo, String cuerpo,
             Map<String, String> data) {
         if (tokens == null || tokens.isEmpty()) {
-            System.out.println("No hay tokens para enviar notificaciones");
+            log.info("No hay tokens para enviar notificaciones");
             return;
         }
 
-        try {
-            MulticastMessage message = MulticastMessage.builder()
-                    .addAllTokens(tokens)
-                    .setNotification(Notification.builder()
-                            .setTitle(titulo)
-                            .setBody(cuerpo)
-                            .build())
-                    .putAllData(data)
-                    .setAndroidConfig(AndroidConfig.builder()
-                            .setPriority(AndroidConfig.Priority.HIGH)
-                            .setNotification(AndroidNotification.builder()
-                                    .setChannelId("paqueteria_channel")
-                                    .setPriority(AndroidNotification.Priority.HIGH)
-                                    .build())
-                            .build())
-                    .build();
-
-            BatchResponse response = FirebaseMessaging.getInstance().sendMulticast(message);
-            System.out.println("Notificaciones enviadas: " + response.getSuccessCount() + " exitosas, "
-                    + response.getFailureCount() + " fallidas de " + tokens.size() + " total");
-
-            // Log de tokens fallidos
-            if (response.getFailureCount() > 0) {
-                List<SendResponse> responses = response.getResponses();
-                for (int i = 0; i < responses.size(); i++) {
-                    if (!responses.get(i).isSuccessful()) {
-                        FirebaseMessagingException exception = (FirebaseMessagingException) responses.get(i)
-                                .getException();
-                        if (exception != null && exception.getMessagingErrorCode() == MessagingErrorCode.UNREGISTERED) {
-                            System.out.println("El token [" + tokens.get(i)
-                                    + "] no es válido o el usuario ya no está registrado.");
-                        } else {
-                            System.err.println("Error enviando a token [" + tokens.get(i) + "]: "
-                                    + (exception != null ? exception.getMessage() : "Desconocido"));
-                        }
-                    }
+        List<Map.Entry<String, String>> destinatarios = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            destinatarios.add(new AbstractMap.SimpleImmutableEntry<>(null, token));
+        }
+        Notification notificacion = notificacion(titulo, cuerpo);
+        enviarEnLotes(destinatarios, true, (i, destinatario) -> mensajeDifusion(destinatario, notificacion, data));
+    }
+
+    /**
+     * Enviar la misma notificación a muchos destinatarios.
+     * Los tokens se dividen en lotes de hasta 500 mensajes (sendEach) y los lotes se envían
+     * en paralelo; el tamaño de fanOutExecutor acota cuántos lotes hay en vuelo.
+     *
+     * @param tokensPorUsuario userId -> token FCM
+     * @param data             datos comunes; a cada mensaje se le agrega su "userId"
+     * @return un resultado por token, en el mismo orden de iteración del mapa
+     * @throws ServicioNoDisponibleException si no salió ningún mensaje porque FCM no está disponible
+     */
+    public List<ResultadoEnvioDTO> enviarNotificacionMasiva(Map<String, String> tokensPorUsuario, String titulo,
+            String cuerpo, Map<String, String> data) {
+        if (tokensPorUsuario.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Notification notificacion = notificacion(titulo, cuerpo);
+        List<ResultadoEnvioDTO> resultados = enviarEnLotes(new ArrayList<>(tokensPorUsuario.entrySet()), true,
+                (i, destinatario) -> mensajeDifusion(destinatario, notificacion, data));
+        // Si salió alguno, reintentar la difusión completa duplicaría el aviso a los demás
+        if (resultados.stream().allMatch(ResultadoEnvioDTO::isNoDisponible)) {
+            throw new ServicioNoDisponibleException("FCM no disponible: " + resultados.get(0).getCodigoError(),
+                    abiertoSegundos);
+        }
+        return resultados;
+    }
+
+    /**
+     * Enviar notificaciones distintas (una por destinatario) agrupadas en llamadas sendEach,
+     * con los lotes en paralelo igual que una difusión
+     *
+     * @param fcmTokens token de cada notificación, en el mismo orden
+     * @return un resultado por notificación, en el mismo orden
+     */
+    public List<ResultadoEnvioDTO> enviarNotificaciones(List<NotificacionDTO> notificaciones, List<String> fcmTokens) {
+        if (notificaciones.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Map.Entry<String, String>> destinatarios = new ArrayList<>(notificaciones.size());
+        for (int i = 0; i < notificaciones.size(); i++) {
+            destinatarios.add(new AbstractMap.SimpleImmutableEntry<>(notificaciones.get(i).getUserId(),
+                    fcmTokens.get(i)));
+        }
+        return enviarEnLotes(destinatarios, false, (i, destinatario) -> {
+            NotificacionDTO notificacion = notificaciones.get(i);
+            return construirMensaje(destinatario.getValue(), notificacion.getTitulo(), notificacion.getMensaje(),
+                    notificacion.getData());
+        });
+    }
+
+    /**
+     * Un solo envío a todos los dispositivos suscritos al tópico.
+     * Los datos son los mismos para todos, sin "userId" por destinatario.
+     *
+     * @return true si FCM aceptó el mensaje
+     * @throws ServicioNoDisponibleException si FCM no está disponible
+     */
+    public boolean enviarNotificacionTopico(String topico, String titulo, String cuerpo, Map<String, String> data) {
+        Message mensaje = mensajeBase(notificacion(titulo, cuerpo), data).setTopic(topico).build();
+        RespuestaPush respuesta = enviar(List.of(mensaje), false).get(0);
+        if (respuesta.isExitoso()) {
+            log.info("Difusión por tópico enviada topico={} messageId={}", topico, respuesta.getMessageId());
+        } else if (respuesta.isNoDisponible()) {
+            throw noDisponible(respuesta);
+        } else {
+            log.warn("Error al enviar al tópico topico={} codigo={}: {}", topico, respuesta.getNombreError(),
+                    respuesta.getMensajeError());
+        }
+        return respuesta.isExitoso();
+    }
+
+    /**
+     * Construye el mensaje FCM de un destinatario con la configuración Android de la app
+     */
+    public static Message construirMensaje(String token, String titulo, String cuerpo, Map<String, String> data) {
+        return mensajeBase(notificacion(titulo, cuerpo), data).setToken(token).build();
+    }
+
+    private static Notification notificacion(String titulo, String cuerpo) {
+        return Notification.builder()
+                .setTitle(titulo)
+                .setBody(cuerpo)
+                .build();
+    }
+
+    /**
+     * Notification y AndroidConfig son inmutables, así que un mismo objeto sirve para todos los mensajes
+     */
+    private static Message.Builder mensajeBase(Notification notificacion, Map<String, String> data) {
+        return Message.builder()
+                .setNotification(notificacion)
+                .putAllData(data)
+                .setAndroidConfig(ANDROID_CONFIG);
+    }
+
+    /**
+     * Mensaje de difusión: la notificación y los datos comunes más el "userId" del destinatario si se conoce
+     */
+    private static Message mensajeDifusion(Map.Entry<String, String> destinatario, Notification notificacion,
+            Map<String, String> data) {
+        Message.Builder mensaje = mensajeBase(notificacion, data).setToken(destinatario.getValue());
+        if (destinatario.getKey() != null) {
+            mensaje.putData("userId", destinatario.getKey());
+        }
+        return mensaje.build();
+    }
+
+    /**
+     * @param destinatarios pares userId -> token
+     * @param masivo        difusión a repartidores: cede el turno del limitador a los envíos a clientes
+     * @param constructor   arma el mensaje a partir de la posición y el destinatario; corre en fanOutExecutor
+     */
+    private List<ResultadoEnvioDTO> enviarEnLotes(List<Map.Entry<String, String>> destinatarios, boolean masivo,
+            BiFunction<Integer, Map.Entry<String, String>, Message> constructor) {
+        List<ResultadoEnvioDTO> resultados = new ArrayList<>(destinatarios.size());
+        List<List<Map.Entry<String, String>>> lotes = Lotes.particionar(destinatarios, tamanoLote);
+        List<Future<List<ResultadoEnvioDTO>>> envios = new ArrayList<>(lotes.size());
+        for (int i = 0; i < lotes.size(); i++) {
+            List<Map.Entry<String, String>> lote = lotes.get(i);
+            int inicio = i * tamanoLote;
+            envios.add(fanOutExecutor.submit(() -> enviarLote(lote, inicio, masivo, constructor)));
+        }
+
+        for (int i = 0; i < envios.size(); i++) {
+            try {
+                resultados.addAll(envios.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                agregarFallos(resultados, lotes.get(i), "INTERRUPTED");
+            } catch (ExecutionException e) {
+                log.error("Error inesperado al enviar lote FCM", e.getCause());
+                agregarFallos(resultados, lotes.get(i), "UNKNOWN");
+            }
+        }
+        depuracionTokens.registrarResultados(resultados);
+
+        if (log.isInfoEnabled()) {
+            long exitosos = resultados.stream().filter(ResultadoEnvioDTO::isExitoso).count();
+            log.info("Difusión FCM exitosas={} fallidas={} total={} lotes={}", exitosos,
+                    resultados.size() - exitosos, resultados.size(), lotes.size());
+        }
+        return resultados;
+    }
+
+    private List<ResultadoEnvioDTO> enviarLote(List<Map.Entry<String, String>> lote, int inicio, boolean masivo,
+            BiFunction<Integer, Map.Entry<String, String>, Message> constructor) {
+        List<Message> mensajes = new ArrayList<>(lote.size());
+        for (int i = 0; i < lote.size(); i++) {
+            mensajes.add(constructor.apply(inicio + i, lote.get(i)));
+        }
+
+        List<RespuestaPush> respuestas = enviar(mensajes, masivo);
+        List<ResultadoEnvioDTO> resultados = new ArrayList<>(lote.size());
+        for (int i = 0; i < respuestas.size(); i++) {
+            Map.Entry<String, String> destinatario = lote.get(i);
+            RespuestaPush respuesta = respuestas.get(i);
+            if (respuesta.isExitoso()) {
+                resultados.add(ResultadoEnvioDTO.exito(destinatario.getKey(), destinatario.getValue(),
+                        respuesta.getMessageId()));
+            } else {
+                // Un mensaje por token fallido puede ser miles en una difusión: solo en DEBUG
+                if (log.isDebugEnabled()) {
+                    log.debug("Error enviando userId={} token={} codigo={}: {}", destinatario.getKey(),
+                            destinatario.getValue(), respuesta.getNombreError(), respuesta.getMensajeError());
                 }
+                resultados.add(respuesta.isNoDisponible()
+                        ? ResultadoEnvioDTO.noDisponible(destinatario.getKey(), destinatario.getValue(),
+                                respuesta.getNombreError())
+                        : ResultadoEnvioDTO.fallo(destinatario.getKey(), destinatario.getValue(),
+                                respuesta.getNombreError()));
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * Envía por el puerto y registra la latencia del lote y el resultado de cada mensaje
+     * en notificaciones.fcm.envios (exito, unregistered, error)
+     */
+    private List<RespuestaPush> enviar(List<Message> mensajes, boolean masivo) {
+        List<RespuestaPush> respuestas = lotes.record(() -> masivo ? enviador.enviarLoteMasivo(mensajes)
+                : enviador.enviarLote(mensajes));
+        int exitosos = 0;
+        int noRegistrados = 0;
+        for (RespuestaPush respuesta : respuestas) {
+            if (respuesta.isExitoso()) {
+                exitosos++;
+            } else if (respuesta.getCodigoError() == MessagingErrorCode.UNREGISTERED) {
+                noRegistrados++;
             }
-        } catch (FirebaseMessagingException e) {
-            System.err.println("Error al enviar notificaciones múltiples: " + e.getMessage());
-            e.printStackTrace();
+        }
+        registry.counter("notificaciones.fcm.envios", "resultado", "exito").increment(exitosos);
+        registry.counter("notificaciones.fcm.envios", "resultado", "unregistered").increment(noRegistrados);
+        registry.counter("notificaciones.fcm.envios", "resultado", "error")
+                .increment(respuestas.size() - exitosos - noRegistrados);
+        return respuestas;
+    }
+
+    /**
+     * El Retry-After de FCM o del limitador si lo indicó, si no el tiempo que el circuito queda abierto
+     */
+    private ServicioNoDisponibleException noDisponible(RespuestaPush respuesta) {
+        long segundos = respuesta.getReintentarTrasMs() > 0
+                ? (respuesta.getReintentarTrasMs() + 999) / 1000
+                : abiertoSegundos;
+        return new ServicioNoDisponibleException("FCM no disponible: " + respuesta.getNombreError(), segundos);
+    }
+
+    private void agregarFallos(List<ResultadoEnvioDTO> resultados, List<Map.Entry<String, String>> lote,
+            String codigoError) {
+        for (Map.Entry<String, String> destinatario : lote) {
+            resultados.add(ResultadoEnvioDTO.fallo(destinatario.getKey(), destinatario.getValue(), codigoError));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import mx.edu.utez.paqueteria.exception.NoAutenticadoException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * VerificadorTokens con el Admin SDK: comprueba firma, emisor, audiencia y expiración del ID token.
+ * Las llaves públicas de Google se descargan una vez y se guardan en caché según su Cache-Control.
+ */
+@Component
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "firebase", matchIfMissing = true)
+public class FirebaseVerificadorTokens implements VerificadorTokens {
+
+    @Override
+    public String verificar(String idToken) {
+        try {
+            return FirebaseAuth.getInstance().verifyIdToken(idToken).getUid();
+        } catch (FirebaseAuthException | IllegalArgumentException e) {
+            throw new NoAutenticadoException("Token de Firebase inválido: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.AggregateQuerySnapshot;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.cloud.FirestoreClient;
+import mx.edu.utez.paqueteria.util.Futuros;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementación de AlmacenDocumentos sobre el SDK de Firestore (notificaciones.backend=firebase)
+ */
+@Component
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "firebase", matchIfMissing = true)
+@DependsOn("firebaseConfig")
+public class FirestoreAlmacenDocumentos implements AlmacenDocumentos {
+
+    @Override
+    public CompletableFuture<Documento> leer(String coleccion, String id) {
+        return Futuros.aCompletable(FirestoreClient.getFirestore().collection(coleccion).document(id).get())
+                .thenApply(DocumentoFirestore::new);
+    }
+
+    @Override
+    public CompletableFuture<List<Documento>> leerVarios(String coleccion, Collection<String> ids) {
+        Firestore db = FirestoreClient.getFirestore();
+        DocumentReference[] referencias = new DocumentReference[ids.size()];
+        int i = 0;
+        for (String id : ids) {
+            referencias[i++] = db.collection(coleccion).document(id);
+        }
+        return Futuros.aCompletable(db.getAll(referencias)).thenApply(FirestoreAlmacenDocumentos::documentos);
+    }
+
+    @Override
+    public CompletableFuture<List<Documento>> consultar(String coleccion, String campo, List<?> valores) {
+        Query consulta = FirestoreClient.getFirestore().collection(coleccion);
+        consulta = valores.size() == 1
+                ? consulta.whereEqualTo(campo, valores.get(0))
+                : consulta.whereIn(campo, new ArrayList<Object>(valores));
+        return Futuros.aCompletable(consulta.get())
+                .thenApply(query -> documentos(new ArrayList<DocumentSnapshot>(query.getDocuments())));
+    }
+
+    @Override
+    public CompletableFuture<List<Documento>> consultarPagina(String coleccion, String campoOrden,
+            Object valorCursor, String idCursor, int limite) {
+        Query consulta = FirestoreClient.getFirestore().collection(coleccion)
+                .orderBy(campoOrden, Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        if (idCursor != null) {
+            consulta = consulta.startAfter(valorCursor, idCursor);
+        }
+        return Futuros.aCompletable(consulta.limit(limite).get())
+                .thenApply(query -> documentos(new ArrayList<DocumentSnapshot>(query.getDocuments())));
+    }
+
+    @Override
+    public CompletableFuture<Long> contar(String coleccion, String campo, Object valor) {
+        return Futuros.aCompletable(FirestoreClient.getFirestore().collection(coleccion)
+                        .whereEqualTo(campo, valor).count().get())
+                .thenApply(AggregateQuerySnapshot::getCount);
+    }
+
+    @Override
+    public CompletableFuture<Void> escribir(List<Escritura> escrituras) {
+        Firestore db = FirestoreClient.getFirestore();
+        WriteBatch batch = db.batch();
+        for (Escritura escritura : escrituras) {
+            DocumentReference referencia = db.document(escritura.getRuta());
+            switch (escritura.getTipo()) {
+                case GUARDAR -> batch.set(referencia, escritura.getDatos());
+                case BORRAR_CAMPO -> batch.update(referencia,
+                        Precondition.updatedAt(Timestamp.ofTimeSecondsAndNanos(
+                                escritura.getVersionEsperada().getEpochSecond(),
+                                escritura.getVersionEsperada().getNano())),
+                        escritura.getCampo(), FieldValue.delete());
+            }
+        }
+        return Futuros.aCompletable(batch.commit()).thenApply(resultados -> null);
+    }
+
+    @Override
+    public Suscripcion escuchar(String coleccion, String campo, Object valor, OyenteDocumentos oyente) {
+        Query consulta = FirestoreClient.getFirestore().collection(coleccion);
+        if (campo != null) {
+            consulta = consulta.whereEqualTo(campo, valor);
+        }
+        ListenerRegistration registro = consulta.addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                oyente.alCambiar(List.of(), List.of(), error);
+                return;
+            }
+            List<Documento> documentos = oyente.usaDocumentos()
+                    ? documentos(new ArrayList<DocumentSnapshot>(snapshot.getDocuments()))
+                    : List.of();
+            oyente.alCambiar(documentos, cambios(snapshot), null);
+        });
+        return registro::remove;
+    }
+
+    private static List<Documento> documentos(List<DocumentSnapshot> snapshots) {
+        List<Documento> documentos = new ArrayList<>(snapshots.size());
+        for (DocumentSnapshot snapshot : snapshots) {
+            documentos.add(new DocumentoFirestore(snapshot));
+        }
+        return documentos;
+    }
+
+    private static List<CambioDocumento> cambios(QuerySnapshot snapshot) {
+        List<CambioDocumento> cambios = new ArrayList<>(snapshot.getDocumentChanges().size());
+        for (DocumentChange cambio : snapshot.getDocumentChanges()) {
+            CambioDocumento.Tipo tipo = switch (cambio.getType()) {
+                case ADDED -> CambioDocumento.Tipo.AGREGADO;
+                case MODIFIED -> CambioDocumento.Tipo.MODIFICADO;
+                case REMOVED -> CambioDocumento.Tipo.ELIMINADO;
+            };
+            cambios.add(new CambioDocumento(tipo, new DocumentoFirestore(cambio.getDocument())));
+        }
+        return cambios;
+    }
+
+    private static final class DocumentoFirestore implements Documento {
+        private final DocumentSnapshot snapshot;
+
+        private DocumentoFirestore(DocumentSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public String getId() {
+            return snapshot.getId();
+        }
+
+        @Override
+        public boolean existe() {
+            return snapshot.exists();
+        }
+
+        @Override
+        public String getString(String campo) {
+            return snapshot.getString(campo);
+        }
+
+        @Override
+        public Double getDouble(String campo) {
+            return snapshot.getDouble(campo);
+        }
+
+        @Override
+        public <T> T como(Class<T> tipo) {
+            return snapshot.exists() ? snapshot.toObject(tipo) : null;
+        }
+
+        @Override
+        public Instant getActualizado() {
+            Timestamp actualizado = snapshot.getUpdateTime();
+            return actualizado != null
+                    ? Instant.ofEpochSecond(actualizado.getSeconds(), actualizado.getNanos())
+                    : null;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import mx.edu.utez.paqueteria.util.Lotes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistencia del historial de notificaciones en usuarios/{id}/notificaciones.
+ * Agrupa los documentos en WriteBatch de hasta 500 escrituras y limita cuántos commits
+ * hay en vuelo a la vez sin bloquear a quien guarda: los que no caben esperan turno y arrancan cuando
+ * termina otro. Los de clientes salen primero y los de difusiones nunca ocupan todos los turnos, así un
+ * aviso a un cliente no espera detrás de los apuntadores de una difusión grande. Cada destinatario
+ * recibe su propio resultado. Los commits con errores
+ * transitorios se reintentan con los mismos ids de documento, así un reintento no duplica historial.
+ * Las difusiones en formato compacto guardan el contenido una sola vez en difusiones/{id} y a cada
+ * destinatario solo un apuntador con su estado de lectura; la app resuelve el contenido al leer.
+ * Cada commit confirmado se avisa a BandejaNotificacionesService para que no sirva páginas viejas.
+ */
+@Service
+public class HistorialNotificacionesService {
+
+    private static final Logger log = LoggerFactory.getLogger(HistorialNotificacionesService.class);
+
+    /** Máximo de escrituras que acepta Firestore en un WriteBatch */
+    private static final int MAX_ESCRITURAS_POR_LOTE = 500;
+    /** Igual que la limpieza de notificaciones antiguas de la app; para una política TTL sobre expiraEn */
+    private static final Duration RETENCION_DIFUSION = Duration.ofDays(30);
+
+    private final AlmacenDocumentos almacen;
+    private final BandejaNotificacionesService bandeja;
+    private final GeneradorIds generadorIds;
+    private final ResilienciaFirestore resiliencia;
+    private final boolean difusionCompacta;
+    private final MeterRegistry registry;
+
+    private final int lotesEnParalelo;
+    private final int lotesMasivosEnParalelo;
+    /** Commits en espera de turno; los protege candado */
+    private final ArrayDeque<Runnable> commitsPrioritarios = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> commitsMasivos = new ArrayDeque<>();
+    private final Object candado = new Object();
+    private int enVuelo;
+    private int masivosEnVuelo;
+    /** Pasadas de despachar pendientes; solo un hilo a la vez arranca commits */
+    private final AtomicInteger pasadas = new AtomicInteger();
+
+    public HistorialNotificacionesService(AlmacenDocumentos almacen, BandejaNotificacionesService bandeja,
+            GeneradorIds generadorIds, ResilienciaFirestore resiliencia,
+            @Value("${notificaciones.historial.lotes-en-paralelo:2}") int lotesEnParalelo,
+            @Value("${notificaciones.historial.difusion-compacta:true}") boolean difusionCompacta,
+            MeterRegistry registry) {
+        this.almacen = almacen;
+        this.bandeja = bandeja;
+        this.generadorIds = generadorIds;
+        this.resiliencia = resiliencia;
+        this.difusionCompacta = difusionCompacta;
+        this.registry = registry;
+        this.lotesEnParalelo = Math.max(1, lotesEnParalelo);
+        this.lotesMasivosEnParalelo = Math.max(1, this.lotesEnParalelo - 1);
+        Gauge.builder("notificaciones.historial.commits-en-espera", this, HistorialNotificacionesService::enEspera)
+                .register(registry);
+    }
+
+    /**
+     * Guarda las notificaciones en lotes y espera a que terminen todos los commits
+     */
+    public List<ResultadoEnvioDTO> guardarLote(List<NotificacionDTO> notificaciones) {
+        return guardarLoteAsync(notificaciones).join();
+    }
+
+    /**
+     * Guarda las notificaciones en lotes sin bloquear; el futuro se completa con un resultado por
+     * destinatario y nunca con excepción.
+     */
+    public CompletableFuture<List<ResultadoEnvioDTO>> guardarLoteAsync(List<NotificacionDTO> notificaciones) {
+        return guardarLoteAsync(notificaciones, false);
+    }
+
+    /**
+     * @param masivo historial de una difusión: sus commits ceden el turno del limitador a los de clientes
+     */
+    private CompletableFuture<List<ResultadoEnvioDTO>> guardarLoteAsync(List<NotificacionDTO> notificaciones,
+            boolean masivo) {
+        if (notificaciones.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        List<CompletableFuture<List<ResultadoEnvioDTO>>> commits = new ArrayList<>();
+        for (List<NotificacionDTO> lote : Lotes.particionar(notificaciones, MAX_ESCRITURAS_POR_LOTE)) {
+            List<String> userIds = new ArrayList<>(lote.size());
+            List<Map<String, Object>> documentos = new ArrayList<>(lote.size());
+            for (NotificacionDTO notificacion : lote) {
+                userIds.add(notificacion.getUserId());
+                documentos.add(crearDocumento(notificacion));
+            }
+            commits.add(commitLote(userIds, documentos, null, masivo));
+        }
+        return unir(commits, notificaciones.size());
+    }
+
+    /**
+     * Guarda el historial de una difusión a muchos destinatarios. En formato compacto el contenido
+     * (título, mensaje, tipo y datos comunes) se escribe una vez en difusiones/{id}, dentro del primer
+     * lote, y cada destinatario recibe un apuntador {id, difusionId, tipo, fecha, leida}. Si falla el
+     * primer lote, los apuntadores de los demás quedan sin contenido y la app los omite al leer.
+     */
+    public CompletableFuture<List<ResultadoEnvioDTO>> guardarDifusionAsync(Collection<String> userIds, String titulo,
+            String mensaje, String tipo, Map<String, String> dataComun) {
+        if (!difusionCompacta) {
+            return guardarLoteAsync(crearHistorialDifusion(userIds, titulo, mensaje, tipo, dataComun), true);
+        }
+        if (userIds.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        Date fecha = new Date();
+        Map<String, Object> difusion = new HashMap<>();
+        difusion.put("id", generadorIds.siguiente());
+        difusion.put("titulo", titulo);
+        difusion.put("mensaje", mensaje);
+        difusion.put("tipo", tipo);
+        difusion.put("data", dataComun);
+        difusion.put("fecha", fecha);
+        difusion.put("destinatarios", userIds.size());
+        difusion.put("expiraEn", Date.from(fecha.toInstant().plus(RETENCION_DIFUSION)));
+
+        List<CompletableFuture<List<ResultadoEnvioDTO>>> commits = new ArrayList<>();
+        // El primer lote lleva además el documento de la difusión
+        for (List<String> lote : Lotes.particionar(new ArrayList<>(userIds), MAX_ESCRITURAS_POR_LOTE - 1)) {
+            List<Map<String, Object>> apuntadores = new ArrayList<>(lote.size());
+            for (String userId : lote) {
+                Map<String, Object> apuntador = new HashMap<>();
+                apuntador.put("id", generadorIds.siguiente());
+                apuntador.put("difusionId", difusion.get("id"));
+                apuntador.put("tipo", tipo);
+                apuntador.put("fecha", fecha);
+                apuntador.put("leida", false);
+                apuntadores.add(apuntador);
+            }
+            commits.add(commitLote(lote, apuntadores, commits.isEmpty() ? difusion : null, true));
+        }
+        return unir(commits, userIds.size());
+    }
+
+    /**
+     * Un registro de historial por destinatario, cada uno con su propia copia de los datos y su "userId"
+     */
+    public static List<NotificacionDTO> crearHistorialDifusion(Collection<String> userIds, String titulo,
+            String mensaje, String tipo, Map<String, String> dataComun) {
+        List<NotificacionDTO> historial = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            Map<String, String> data = new HashMap<>(dataComun);
+            data.put("userId", userId);
+            historial.add(new NotificacionDTO(userId, titulo, mensaje, tipo, data));
+        }
+        return historial;
+    }
+
+    private static CompletableFuture<List<ResultadoEnvioDTO>> unir(
+            List<CompletableFuture<List<ResultadoEnvioDTO>>> commits, int total) {
+        return CompletableFuture.allOf(commits.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<ResultadoEnvioDTO> resultados = new ArrayList<>(total);
+            commits.forEach(commit -> resultados.addAll(commit.join()));
+            return resultados;
+        });
+    }
+
+    /**
+     * Falla si algún destinatario se quedó sin historial porque Firestore no estaba disponible,
+     * para que el evento se reintente en lugar de confirmarse sin él
+     *
+     * @throws ServicioNoDisponibleException si algún resultado es noDisponible
+     */
+    public void verificarDisponible(List<ResultadoEnvioDTO> resultados) {
+        long noDisponibles = resultados.stream().filter(ResultadoEnvioDTO::isNoDisponible).count();
+        if (noDisponibles > 0) {
+            throw new ServicioNoDisponibleException("Firestore no disponible, historial sin guardar documentos="
+                    + noDisponibles, resiliencia.getAbiertoSegundos());
+        }
+    }
+
+    /**
+     * @param documentos un documento por userId, en el mismo orden
+     * @param difusion   contenido compartido a escribir en el mismo lote, o null
+     * @param masivo     escribir con ResilienciaFirestore.escribirMasivo
+     */
+    private CompletableFuture<List<ResultadoEnvioDTO>> commitLote(List<String> userIds,
+            List<Map<String, Object>> documentos, Map<String, Object> difusion, boolean masivo) {
+        List<Escritura> escrituras = new ArrayList<>(userIds.size() + 1);
+        if (difusion != null) {
+            escrituras.add(Escritura.guardar("difusiones/" + difusion.get("id"), difusion));
+        }
+        for (int i = 0; i < userIds.size(); i++) {
+            Map<String, Object> documento = documentos.get(i);
+            escrituras.add(Escritura.guardar("usuarios/" + userIds.get(i) + "/notificaciones/" + documento.get("id"),
+                    documento));
+        }
+
+        CompletableFuture<List<ResultadoEnvioDTO>> resultado = new CompletableFuture<>();
+        Runnable commit = () -> {
+            Timer.Sample muestra = Timer.start(registry);
+            CompletableFuture<?> escritura;
+            try {
+                escritura = masivo
+                        ? resiliencia.escribirMasivo(escrituras.size(), () -> almacen.escribir(escrituras))
+                        : resiliencia.escribir(escrituras.size(), () -> almacen.escribir(escrituras));
+            } catch (RuntimeException e) {
+                escritura = CompletableFuture.failedFuture(e);
+            }
+            escritura.whenComplete((valor, error) -> {
+                List<ResultadoEnvioDTO> resultados = resultados(userIds, error);
+                try {
+                    String etiqueta = error == null ? "exito" : "error";
+                    muestra.stop(registry.timer("notificaciones.firestore.escritura", "resultado", etiqueta));
+                    registry.counter("notificaciones.historial.documentos", "resultado", etiqueta)
+                            .increment(userIds.size());
+                    if (error == null) {
+                        bandeja.registrarNuevas(userIds);
+                    } else {
+                        log.error("Error al guardar lote de historial documentos={}: {}", userIds.size(),
+                                error.getMessage());
+                    }
+                } finally {
+                    liberarTurno(masivo);
+                    resultado.complete(resultados);
+                }
+            });
+        };
+
+        synchronized (candado) {
+            (masivo ? commitsMasivos : commitsPrioritarios).addLast(commit);
+        }
+        despachar();
+        return resultado;
+    }
+
+    /**
+     * Arranca los commits en espera mientras haya turnos. Un commit que termina en el mismo hilo vuelve
+     * a llamar aquí; en lugar de anidarse, deja la pasada pendiente para el hilo que ya está despachando.
+     */
+    private void despachar() {
+        if (pasadas.getAndIncrement() != 0) {
+            return;
+        }
+        int pendientes = 1;
+        do {
+            Runnable commit;
+            while ((commit = siguienteCommit()) != null) {
+                commit.run();
+            }
+            pendientes = pasadas.addAndGet(-pendientes);
+        } while (pendientes != 0);
+    }
+
+    /**
+     * El siguiente commit que cabe, o null: primero los de clientes y los de difusiones solo hasta
+     * lotesMasivosEnParalelo, para que siempre quede un turno libre para un cliente
+     */
+    private Runnable siguienteCommit() {
+        synchronized (candado) {
+            if (enVuelo >= lotesEnParalelo) {
+                return null;
+            }
+            Runnable commit = commitsPrioritarios.pollFirst();
+            if (commit == null && masivosEnVuelo < lotesMasivosEnParalelo) {
+                commit = commitsMasivos.pollFirst();
+                if (commit != null) {
+                    masivosEnVuelo++;
+                }
+            }
+            if (commit != null) {
+                enVuelo++;
+            }
+            return commit;
+        }
+    }
+
+    private void liberarTurno(boolean masivo) {
+        synchronized (candado) {
+            enVuelo--;
+            if (masivo) {
+                masivosEnVuelo--;
+            }
+        }
+        despachar();
+    }
+
+    private int enEspera() {
+        synchronized (candado) {
+            return commitsPrioritarios.size() + commitsMasivos.size();
+        }
+    }
+
+    private Map<String, Object> crearDocumento(NotificacionDTO notificacion) {
+        String notificacionId = generadorIds.siguiente();
+
+        Map<String, Object> documento = new HashMap<>();
+        documento.put("id", notificacionId);
+        documento.put("titulo", notificacion.getTitulo());
+        documento.put("mensaje", notificacion.getMensaje());
+        documento.put("fecha", new Date());
+        documento.put("leida", false);
+        documento.put("tipo", notificacion.getTipo());
+        documento.put("data", notificacion.getData());
+        return documento;
+    }
+
+    /**
+     * Un resultado por destinatario; si el commit se agotó en reintentos o encontró el circuito abierto
+     * queda como noDisponible
+     */
+    private static List<ResultadoEnvioDTO> resultados(List<String> userIds, Throwable error) {
+        Throwable causa = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        List<ResultadoEnvioDTO> resultados = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            if (causa == null) {
+                resultados.add(ResultadoEnvioDTO.exito(userId, null, null));
+            } else if (causa instanceof ServicioNoDisponibleException) {
+                resultados.add(ResultadoEnvioDTO.noDisponible(userId, null, causa.getClass().getSimpleName()));
+            } else {
+                resultados.add(ResultadoEnvioDTO.fallo(userId, null, causa.getClass().getSimpleName()));
+            }
+        }
+        return resultados;
+    }
+}
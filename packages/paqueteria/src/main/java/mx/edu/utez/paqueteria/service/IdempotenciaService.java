@@ -0,0 +1,128 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicación de eventos reintentados por los clientes.
+ * La clave es el header Idempotency-Key o, si no viene, paqueteId + acción. Las claves viven
+ * en memoria durante notificaciones.idempotencia.ventana-segundos (acotadas a
+ * notificaciones.idempotencia.tamano-maximo); un duplicado recibe la respuesta original sin
+ * repetir lecturas, historial ni push. Un duplicado concurrente espera a que termine el original.
+ * Los eventos de un lote se deduplican uno por uno con reservar y completar.
+ * Solo se recuerdan las respuestas 2xx: un 404 (el paquete aún no existe en Firestore), un 400,
+ * un 429 o un 5xx se olvidan para que el reintento pueda volver a procesarse.
+ */
+@Service
+public class IdempotenciaService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotenciaService.class);
+
+    private final Cache<String, CompletableFuture<ResponseEntity<?>>> respuestas;
+
+    public IdempotenciaService(@Value("${notificaciones.idempotencia.ventana-segundos:600}") long ventanaSegundos,
+            @Value("${notificaciones.idempotencia.tamano-maximo:50000}") long tamanoMaximo) {
+        this.respuestas = Caffeine.newBuilder()
+                .maximumSize(tamanoMaximo)
+                .expireAfterWrite(Duration.ofSeconds(ventanaSegundos))
+                .build();
+    }
+
+    public static String clave(String idempotencyKey, String paqueteId, String accion) {
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            return "key:" + idempotencyKey;
+        }
+        if (paqueteId == null || paqueteId.isBlank()) {
+            return null;
+        }
+        return accion + ":" + paqueteId;
+    }
+
+    /**
+     * Ejecuta el procesamiento solo la primera vez que se ve la clave dentro de la ventana.
+     * Sin clave (evento sin paqueteId ni header) se procesa siempre.
+     */
+    public ResponseEntity<?> ejecutar(String clave, Supplier<ResponseEntity<?>> procesamiento) {
+        if (clave == null) {
+            return procesamiento.get();
+        }
+        Reserva reserva = reservar(clave);
+        if (!reserva.isPropia()) {
+            return reserva.esperarOriginal();
+        }
+
+        try {
+            ResponseEntity<?> respuesta = procesamiento.get();
+            completar(reserva, respuesta);
+            return respuesta;
+        } catch (RuntimeException e) {
+            liberar(reserva, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Toma la clave sin esperar, para procesar fuera de ejecutar (cada evento de un lote).
+     * Si la reserva es propia hay que llamar a completar; si no, esperarOriginal da la respuesta de
+     * quien la tiene. Quien tiene reservas propias debe completarlas antes de esperar otras.
+     */
+    public Reserva reservar(String clave) {
+        CompletableFuture<ResponseEntity<?>> nuevo = new CompletableFuture<>();
+        CompletableFuture<ResponseEntity<?>> existente = respuestas.asMap().putIfAbsent(clave, nuevo);
+        return existente == null ? new Reserva(clave, nuevo, true) : new Reserva(clave, existente, false);
+    }
+
+    /**
+     * Entrega la respuesta a los duplicados que esperan; solo una 2xx se recuerda
+     */
+    public void completar(Reserva reserva, ResponseEntity<?> respuesta) {
+        if (!respuesta.getStatusCode().is2xxSuccessful()) {
+            respuestas.asMap().remove(reserva.clave, reserva.respuesta);
+        }
+        reserva.respuesta.complete(respuesta);
+    }
+
+    /**
+     * Olvida la clave tras un error; los duplicados que esperaban reciben la excepción
+     */
+    public void liberar(Reserva reserva, RuntimeException error) {
+        respuestas.asMap().remove(reserva.clave, reserva.respuesta);
+        reserva.respuesta.completeExceptionally(error);
+    }
+
+    /**
+     * Clave tomada con reservar: propia (hay que procesar y completar) o de otra petición
+     */
+    public static final class Reserva {
+        private final String clave;
+        private final CompletableFuture<ResponseEntity<?>> respuesta;
+        private final boolean propia;
+
+        private Reserva(String clave, CompletableFuture<ResponseEntity<?>> respuesta, boolean propia) {
+            this.clave = clave;
+            this.respuesta = respuesta;
+            this.propia = propia;
+        }
+
+        public boolean isPropia() {
+            return propia;
+        }
+
+        /**
+         * Respuesta de la petición original; si sigue en curso espera a que termine
+         */
+        public ResponseEntity<?> esperarOriginal() {
+            log.info("Evento duplicado, se devuelve la respuesta original clave={}", clave);
+            return respuesta.join();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.model.PaqueteModel;
+import mx.edu.utez.paqueteria.model.UsuarioModel;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.CambioDocumento;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.OyenteDocumentos;
+import mx.edu.utez.paqueteria.util.Futuros;
+import mx.edu.utez.paqueteria.util.Lotes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Lecturas de usuarios y paquetes en Firestore (a través de AlmacenDocumentos) con caché read-through.
+ * Cada entrada expira tras notificaciones.cache.ttl-segundos y la caché se acota a
+ * notificaciones.cache.tamano-maximo entradas por colección. Los documentos inexistentes
+ * no se guardan en caché. Las lecturas pasan por ResilienciaFirestore; si Firestore no está
+ * disponible el futuro falla con ServicioNoDisponibleException en lugar de devolver null.
+ * Las entradas de repartidores las invalida el listener de RegistroRepartidoresService y las de
+ * tokens que FCM rechaza, DepuracionTokensService; el resto espera al TTL. Con
+ * notificaciones.cache.escucha-usuarios=true se registra además un listener sobre los clientes
+ * (rol == cliente, para no escuchar dos veces a los repartidores) que invalida cada documento que
+ * cambia; cuesta una lectura por cliente al registrarse y en cada reconexión, por eso viene apagado.
+ */
+@Service
+public class LecturaFirestoreService {
+
+    private static final Logger log = LoggerFactory.getLogger(LecturaFirestoreService.class);
+
+    /** Documentos por llamada a getAll en las lecturas en lote */
+    private static final int MAX_DOCUMENTOS_POR_LECTURA = 300;
+    private static final String ROL_CLIENTE = "cliente";
+
+    private final AsyncCache<String, UsuarioModel> usuarios;
+    private final AsyncCache<String, PaqueteModel> paquetes;
+    private final AlmacenDocumentos almacen;
+    private final ResilienciaFirestore resiliencia;
+    private final EscuchaReconectable escucha;
+    private final MeterRegistry registry;
+
+    public LecturaFirestoreService(AlmacenDocumentos almacen, ResilienciaFirestore resiliencia,
+            @Value("${notificaciones.cache.tamano-maximo:10000}") long tamanoMaximo,
+            @Value("${notificaciones.cache.ttl-segundos:300}") long ttlSegundos,
+            @Value("${notificaciones.cache.escucha-usuarios:false}") boolean escuchaUsuarios,
+            MeterRegistry registry) {
+        this.usuarios = crearCache(tamanoMaximo, ttlSegundos);
+        this.paquetes = crearCache(tamanoMaximo, ttlSegundos);
+        this.almacen = almacen;
+        this.resiliencia = resiliencia;
+        this.escucha = escuchaUsuarios
+                ? new EscuchaReconectable(almacen, "clientes", "usuarios", "rol", ROL_CLIENTE,
+                        OyenteDocumentos.soloCambios(this::aplicarCambiosClientes))
+                : null;
+        this.registry = registry;
+        CaffeineCacheMetrics.monitor(registry, usuarios.synchronous(), "usuarios");
+        CaffeineCacheMetrics.monitor(registry, paquetes.synchronous(), "paquetes");
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (escucha != null) {
+            escucha.iniciar();
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (escucha != null) {
+            escucha.cancelar();
+        }
+    }
+
+    /**
+     * Usuario por id, o null si no existe o falló la lectura
+     *
+     * @throws ServicioNoDisponibleException si Firestore no está disponible
+     */
+    public UsuarioModel obtenerUsuario(String userId) {
+        return Futuros.esperar(obtenerUsuarioAsync(userId));
+    }
+
+    /**
+     * Paquete por id, o null si no existe o falló la lectura
+     *
+     * @throws ServicioNoDisponibleException si Firestore no está disponible
+     */
+    public PaqueteModel obtenerPaquete(String paqueteId) {
+        return Futuros.esperar(obtenerPaqueteAsync(paqueteId));
+    }
+
+    /**
+     * Versión sin bloqueo de obtenerUsuario; solo falla con ServicioNoDisponibleException
+     */
+    public CompletableFuture<UsuarioModel> obtenerUsuarioAsync(String userId) {
+        return usuarios.get(userId, (id, executor) -> leerDocumento("usuarios", id, UsuarioModel.class))
+                .exceptionally(e -> {
+                    relanzarSiNoDisponible(e);
+                    log.warn("Error al obtener usuario userId={}: {}", userId, causa(e).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Versión sin bloqueo de obtenerPaquete; solo falla con ServicioNoDisponibleException
+     */
+    public CompletableFuture<PaqueteModel> obtenerPaqueteAsync(String paqueteId) {
+        return paquetes.get(paqueteId, (id, executor) -> leerDocumento("paquetes", id, PaqueteModel.class))
+                .exceptionally(e -> {
+                    relanzarSiNoDisponible(e);
+                    log.warn("Error al obtener paquete paqueteId={}: {}", paqueteId, causa(e).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Varios usuarios a la vez: los que no están en caché se leen con getAll en una sola ida
+     * (por grupos de 300) y quedan en caché. El mapa solo trae los que existen.
+     * Solo falla con ServicioNoDisponibleException.
+     */
+    public CompletableFuture<Map<String, UsuarioModel>> obtenerUsuariosAsync(Collection<String> userIds) {
+        return usuarios.getAll(userIds, (faltantes, executor) -> leerDocumentos("usuarios", faltantes,
+                        UsuarioModel.class))
+                .exceptionally(e -> {
+                    relanzarSiNoDisponible(e);
+                    log.warn("Error al obtener usuarios en lote usuarios={}: {}", userIds.size(),
+                            causa(e).getMessage());
+                    return Map.of();
+                });
+    }
+
+    /**
+     * Varios paquetes a la vez, igual que obtenerUsuariosAsync
+     */
+    public CompletableFuture<Map<String, PaqueteModel>> obtenerPaquetesAsync(Collection<String> paqueteIds) {
+        return paquetes.getAll(paqueteIds, (faltantes, executor) -> leerDocumentos("paquetes", faltantes,
+                        PaqueteModel.class))
+                .exceptionally(e -> {
+                    relanzarSiNoDisponible(e);
+                    log.warn("Error al obtener paquetes en lote paquetes={}: {}", paqueteIds.size(),
+                            causa(e).getMessage());
+                    return Map.of();
+                });
+    }
+
+    public void invalidarUsuario(String userId) {
+        usuarios.synchronous().invalidate(userId);
+    }
+
+    public void invalidarPaquete(String paqueteId) {
+        paquetes.synchronous().invalidate(paqueteId);
+    }
+
+    /**
+     * Contadores de aciertos/fallos de ambas cachés
+     */
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> estadisticas = new HashMap<>();
+        estadisticas.put("usuarios", resumir(usuarios));
+        estadisticas.put("paquetes", resumir(paquetes));
+        return estadisticas;
+    }
+
+    private void aplicarCambiosClientes(List<CambioDocumento> cambios, Exception error) {
+        if (error != null) {
+            // No se sabe qué cambió mientras estuvo caído: se descarta todo hasta que se reconecte
+            usuarios.synchronous().invalidateAll();
+            log.warn("Listener de clientes detenido, caché de usuarios vaciada: {}", error.getMessage());
+            return;
+        }
+        // Al registrarse llegan todos como AGREGADO; invalidar una entrada ausente no cuesta nada
+        for (CambioDocumento cambio : cambios) {
+            usuarios.synchronous().invalidate(cambio.getDocumento().getId());
+        }
+    }
+
+    private static void relanzarSiNoDisponible(Throwable e) {
+        if (causa(e) instanceof ServicioNoDisponibleException noDisponible) {
+            throw noDisponible;
+        }
+    }
+
+    private static Throwable causa(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static <T> AsyncCache<String, T> crearCache(long tamanoMaximo, long ttlSegundos) {
+        return Caffeine.newBuilder()
+                .maximumSize(tamanoMaximo)
+                .expireAfterWrite(Duration.ofSeconds(ttlSegundos))
+                .recordStats()
+                .buildAsync();
+    }
+
+    private static Map<String, Object> resumir(AsyncCache<String, ?> cache) {
+        CacheStats stats = cache.synchronous().stats();
+        Map<String, Object> resumen = new HashMap<>();
+        resumen.put("aciertos", stats.hitCount());
+        resumen.put("fallos", stats.missCount());
+        resumen.put("tasaAciertos", stats.hitRate());
+        resumen.put("desalojos", stats.evictionCount());
+        resumen.put("tamano", cache.synchronous().estimatedSize());
+        return resumen;
+    }
+
+    /**
+     * Lee un documento sin bloquear; el futuro se completa con null si no existe,
+     * lo que hace que Caffeine descarte la entrada. Solo las lecturas reales (fallos de caché)
+     * se registran en notificaciones.firestore.lectura.
+     */
+    private <T> CompletableFuture<T> leerDocumento(String coleccion, String id, Class<T> tipo) {
+        Timer.Sample muestra = Timer.start(registry);
+        CompletableFuture<T> lectura = resiliencia.leer(1, () -> almacen.leer(coleccion, id))
+                .thenApply(doc -> doc.como(tipo));
+        return lectura.whenComplete((valor, error) -> muestra.stop(registry.timer("notificaciones.firestore.lectura",
+                "coleccion", coleccion,
+                "resultado", error != null ? "error" : valor != null ? "encontrado" : "no_encontrado")));
+    }
+
+    /**
+     * Lee varios documentos en una llamada por grupo (getAll en Firestore); los inexistentes no
+     * aparecen en el mapa
+     */
+    private <T> CompletableFuture<Map<String, T>> leerDocumentos(String coleccion, Set<? extends String> ids,
+            Class<T> tipo) {
+        Timer.Sample muestra = Timer.start(registry);
+        List<CompletableFuture<List<Documento>>> lecturas = new ArrayList<>();
+        for (List<String> grupo : Lotes.particionar(new ArrayList<String>(ids), MAX_DOCUMENTOS_POR_LECTURA)) {
+            lecturas.add(resiliencia.leer(grupo.size(), () -> almacen.leerVarios(coleccion, grupo)));
+        }
+        CompletableFuture<Map<String, T>> lectura = CompletableFuture.allOf(lecturas.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    Map<String, T> documentos = new HashMap<>();
+                    for (CompletableFuture<List<Documento>> grupo : lecturas) {
+                        for (Documento doc : grupo.join()) {
+                            if (doc.existe()) {
+                                documentos.put(doc.getId(), doc.como(tipo));
+                            }
+                        }
+                    }
+                    return documentos;
+                });
+        return lectura.whenComplete((documentos, error) -> muestra.stop(registry.timer(
+                "notificaciones.firestore.lectura", "coleccion", coleccion,
+                "resultado", error != null ? "error" : "lote")));
+    }
+}
@@ -1,155 +1,222 @@
 package mx.edu.utez.paqueteria.service;
 
-import com.google.cloud.firestore.DocumentSnapshot;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QuerySnapshot;
-import com.google.firebase.cloud.FirestoreClient;
 import lombok.RequiredArgsConstructor;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
 import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEventoDTO;
+import mx.edu.utez.paqueteria.exception.EventoInvalidoException;
 import mx.edu.utez.paqueteria.exception.NotificacionException;
 import mx.edu.utez.paqueteria.exception.RecursoNoEncontradoException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
 import mx.edu.utez.paqueteria.model.PaqueteModel;
 import mx.edu.utez.paqueteria.model.UsuarioModel;
+import mx.edu.utez.paqueteria.service.PlantillasNotificacionService.Plantilla;
+import mx.edu.utez.paqueteria.util.Futuros;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Servicio de notificaciones de paquetería
  * Maneja 3 casos: Pedido tomado, Nuevo pedido, Pedido entregado
- * Recupera información faltante directamente de Firestore.
+ * Recupera información faltante de Firestore a través de LecturaFirestoreService.
  * 
  * @author JonthanAyala
  */
 @Service
 public class NotificacionService {
 
-    private final FirebaseMessagingService fcmService;
+    private static final Logger log = LoggerFactory.getLogger(NotificacionService.class);
 
-    public NotificacionService(FirebaseMessagingService fcmService) {
+    private final FirebaseMessagingService fcmService;
+    private final LecturaFirestoreService lecturaService;
+    private final RegistroRepartidoresService registroRepartidores;
+    private final HistorialNotificacionesService historialService;
+    private final SuscripcionTopicosService suscripcionTopicos;
+    private final UbicacionRepartidoresService ubicacionRepartidores;
+    private final AgrupacionNotificacionesService agrupacion;
+    private final PlantillasNotificacionService plantillas;
+
+    public NotificacionService(FirebaseMessagingService fcmService, LecturaFirestoreService lecturaService,
+            RegistroRepartidoresService registroRepartidores, HistorialNotificacionesService historialService,
+            SuscripcionTopicosService suscripcionTopicos, UbicacionRepartidoresService ubicacionRepartidores,
+            AgrupacionNotificacionesService agrupacion, PlantillasNotificacionService plantillas) {
         this.fcmService = fcmService;
+        this.lecturaService = lecturaService;
+        this.registroRepartidores = registroRepartidores;
+        this.historialService = historialService;
+        this.suscripcionTopicos = suscripcionTopicos;
+        this.ubicacionRepartidores = ubicacionRepartidores;
+        this.agrupacion = agrupacion;
+        this.plantillas = plantillas;
     }
 
     /**
      * CASO 1: Notificar al cliente que su paquete fue tomado por un repartidor
      */
     public void notificarPedidoTomado(PaqueteEventDTO evento) {
+        Futuros.esperar(notificarPedidoTomadoAsync(evento));
+    }
+
+    /**
+     * Igual que notificarPedidoTomado, pero con la agrupación habilitada no bloquea mientras la ventana
+     * está abierta: el futuro se completa cuando el historial y el push quedaron confirmados
+     */
+    public CompletableFuture<Void> notificarPedidoTomadoAsync(PaqueteEventDTO evento) {
         try {
-            // 1. Completar datos faltantes (Nombre del repartidor)
-            if (evento.getRepartidorNombre() == null || evento.getRepartidorNombre().isEmpty()) {
-                UsuarioModel repartidor = obtenerUsuario(evento.getRepartidorId());
-                if (repartidor != null) {
-                    evento.setRepartidorNombre(repartidor.getNombre());
-                } else {
-                    throw new RecursoNoEncontradoException(
-                            "Repartidor no encontrado con ID: " + evento.getRepartidorId());
-                }
-            }
+            // Guardar en Firestore (Historial) y enviar Push si tiene token
+            return notificarCliente(prepararPedidoTomado(evento));
+        } catch (RecursoNoEncontradoException | ServicioNoDisponibleException e) {
+            throw e; // Re-lanzar para que el controlador la capture
+        } catch (Exception e) {
+            log.error("Error al notificar pedido tomado paqueteId={}", evento.getPaqueteId(), e);
+            throw new NotificacionException("Error interno al procesar notificación de pedido tomado", e);
+        }
+    }
 
-            // 2. Obtener clienteId si falta
-            if (evento.getClienteId() == null || evento.getClienteId().isEmpty()) {
-                PaqueteModel paquete = obtenerPaquete(evento.getPaqueteId());
-                if (paquete != null) {
-                    evento.setClienteId(paquete.getClienteId());
-                } else {
-                    throw new RecursoNoEncontradoException("Paquete no encontrado con ID: " + evento.getPaqueteId());
-                }
+    /**
+     * Completa el evento con las lecturas que falten y arma la notificación del cliente
+     */
+    private EnvioCliente prepararPedidoTomado(PaqueteEventDTO evento) {
+        // 1. Lanzar en paralelo las lecturas independientes (repartidor y paquete -> cliente)
+        boolean faltaNombre = evento.getRepartidorNombre() == null || evento.getRepartidorNombre().isEmpty();
+        boolean faltaClienteId = evento.getClienteId() == null || evento.getClienteId().isEmpty();
+        CompletableFuture<UsuarioModel> repartidorFuture = faltaNombre
+                ? lecturaService.obtenerUsuarioAsync(evento.getRepartidorId())
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<PaqueteModel> paqueteFuture = faltaClienteId
+                ? lecturaService.obtenerPaqueteAsync(evento.getPaqueteId())
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<UsuarioModel> clienteFuture = obtenerClienteAsync(evento, faltaClienteId, paqueteFuture);
+
+        // 2. Completar nombre del repartidor
+        if (faltaNombre) {
+            UsuarioModel repartidor = Futuros.esperar(repartidorFuture);
+            if (repartidor != null) {
+                evento.setRepartidorNombre(repartidor.getNombre());
+            } else {
+                throw new RecursoNoEncontradoException(
+                        "Repartidor no encontrado con ID: " + evento.getRepartidorId());
             }
+        }
 
-            System.out.println("Notificando pedido tomado - Paquete: " + evento.getPaqueteId() + ", Repartidor: "
-                    + evento.getRepartidorNombre());
-
-            // 3. Obtener cliente para su token
-            UsuarioModel cliente = obtenerUsuario(evento.getClienteId());
-
-            if (cliente == null) {
-                throw new RecursoNoEncontradoException("Cliente no encontrado con ID: " + evento.getClienteId());
+        // 3. Completar clienteId desde el paquete
+        if (faltaClienteId) {
+            PaqueteModel paquete = Futuros.esperar(paqueteFuture);
+            if (paquete != null) {
+                evento.setClienteId(paquete.getClienteId());
+            } else {
+                throw new RecursoNoEncontradoException("Paquete no encontrado con ID: " + evento.getPaqueteId());
             }
+        }
 
-            Map<String, String> data = new HashMap<>();
-            data.put("tipo", "asignacion");
-            data.put("paqueteId", evento.getPaqueteId());
-            data.put("repartidorId", evento.getRepartidorId());
-            data.put("userId", evento.getClienteId());
+        log.debug("Notificando pedido tomado paqueteId={} repartidor={}", evento.getPaqueteId(),
+                evento.getRepartidorNombre());
 
-            String titulo = "🚚 Paquete en camino";
-            String mensaje = String.format("%s tomó tu paquete y está en camino", evento.getRepartidorNombre());
+        // 4. Cliente para su token (su lectura ya estaba en curso)
+        UsuarioModel cliente = Futuros.esperar(clienteFuture);
 
-            // Guardar en Firestore (Historial)
-            guardarNotificacionEnFirestore(evento.getClienteId(), titulo, mensaje, "asignacion", data);
+        if (cliente == null) {
+            throw new RecursoNoEncontradoException("Cliente no encontrado con ID: " + evento.getClienteId());
+        }
 
-            // Enviar Push si tiene token
-            if (cliente.getFcmToken() != null && !cliente.getFcmToken().isEmpty()) {
-                fcmService.enviarNotificacion(cliente.getFcmToken(), titulo, mensaje, data);
-                System.out.println("Notificación enviada al cliente: " + evento.getClienteId());
-            } else {
-                System.out.println(
-                        "Cliente " + evento.getClienteId() + " no tiene token FCM, solo se guardó en historial");
-            }
+        Map<String, String> data = new HashMap<>();
+        data.put("tipo", "asignacion");
+        data.put("paqueteId", evento.getPaqueteId());
+        data.put("repartidorId", evento.getRepartidorId());
+        data.put("userId", evento.getClienteId());
 
-        } catch (RecursoNoEncontradoException e) {
-            throw e; // Re-lanzar para que el controlador la capture
-        } catch (Exception e) {
-            System.out.println("Error al notificar pedido tomado: " + e.getMessage());
-            e.printStackTrace();
-            throw new NotificacionException("Error interno al procesar notificación de pedido tomado", e);
-        }
+        Plantilla plantilla = plantillas.obtener("asignacion", cliente.getIdioma());
+        Map<String, String> variables = Collections.singletonMap("repartidor", evento.getRepartidorNombre());
+        String titulo = plantilla.titulo(variables);
+        String mensaje = plantilla.mensaje(variables);
+
+        return new EnvioCliente(new NotificacionDTO(evento.getClienteId(), titulo, mensaje, "asignacion", data),
+                cliente.getFcmToken(), cliente.getIdioma());
     }
 
     /**
-     * CASO 2: Notificar a todos los repartidores sobre un nuevo pedido disponible
+     * CASO 2: Notificar a los repartidores sobre un nuevo pedido disponible
+     * (los más cercanos si el paquete tiene coordenadas, si no a todos)
      */
     public void notificarNuevoPedido(PaqueteEventDTO evento) {
         try {
-            // 1. Completar datos del paquete si faltan
-            if (evento.getDestinatario() == null || evento.getDireccion() == null) {
-                PaqueteModel paquete = obtenerPaquete(evento.getPaqueteId());
+            // 1. Completar datos del paquete si faltan; las coordenadas solo se toman del documento si
+            // ya hubo que leerlo, un evento sin ellas se difunde a todos en lugar de costar una lectura
+            boolean faltanDatos = evento.getDestinatario() == null || evento.getDireccion() == null;
+            if (faltanDatos) {
+                PaqueteModel paquete = lecturaService.obtenerPaquete(evento.getPaqueteId());
                 if (paquete != null) {
                     evento.setDestinatario(paquete.getDestinatario());
                     evento.setDireccion(paquete.getDireccion());
+                    if (evento.getLatitud() == null || evento.getLongitud() == null) {
+                        evento.setLatitud(paquete.getLatitud());
+                        evento.setLongitud(paquete.getLongitud());
+                    }
                 } else {
                     throw new RecursoNoEncontradoException("Paquete no encontrado con ID: " + evento.getPaqueteId());
                 }
             }
 
-            System.out.println("Notificando nuevo pedido - Paquete: " + evento.getPaqueteId() + ", Destinatario: "
-                    + evento.getDestinatario());
+            log.debug("Notificando nuevo pedido paqueteId={} destinatario={}", evento.getPaqueteId(),
+                    evento.getDestinatario());
 
-            // 2. Obtener repartidores
-            Map<String, String> repartidoresTokens = obtenerRepartidoresConTokens();
+            // 2. Obtener repartidores: los cercanos al paquete o todos
+            Map<String, String> todos = registroRepartidores.obtenerTokens();
+            Map<String, String> repartidoresTokens = ubicacionRepartidores.seleccionar(todos, evento.getLatitud(),
+                    evento.getLongitud());
+            boolean soloCercanos = repartidoresTokens.size() < todos.size();
 
             if (!repartidoresTokens.isEmpty()) {
-                String titulo = "📦 Nuevo paquete disponible";
-                String mensaje = String.format("Paquete para %s - %s", evento.getDestinatario(), evento.getDireccion());
-
-                for (Map.Entry<String, String> entry : repartidoresTokens.entrySet()) {
-                    String repartidorId = entry.getKey();
-                    String token = entry.getValue();
-
-                    Map<String, String> data = new HashMap<>();
-                    data.put("tipo", "paquete");
-                    data.put("paqueteId", evento.getPaqueteId());
-                    data.put("destinatario", evento.getDestinatario());
-                    data.put("direccion", evento.getDireccion());
-                    data.put("userId", repartidorId);
-
-                    // Guardar en Firestore (Historial)
-                    guardarNotificacionEnFirestore(repartidorId, titulo, mensaje, "paquete", data);
+                Map<String, String> dataComun = new HashMap<>();
+                dataComun.put("tipo", "paquete");
+                dataComun.put("paqueteId", evento.getPaqueteId());
+                dataComun.put("destinatario", evento.getDestinatario());
+                dataComun.put("direccion", evento.getDireccion());
+
+                // Un solo texto para toda la difusión, en el idioma predeterminado
+                Plantilla plantilla = plantillas.obtener("paquete", null);
+                String titulo = plantilla.titulo(dataComun);
+                String mensaje = plantilla.mensaje(dataComun);
+
+                // Guardar en Firestore (Historial) en lotes mientras se envían los Push
+                CompletableFuture<List<ResultadoEnvioDTO>> guardado = historialService.guardarDifusionAsync(
+                        repartidoresTokens.keySet(), titulo, mensaje, "paquete", dataComun);
+
+                // Enviar Push: un solo mensaje al tópico (llega a todos), o por token en lotes paralelos;
+                // si FCM rechaza el mensaje al tópico se envía por token para no perder la difusión
+                boolean porTopico = suscripcionTopicos.isHabilitado() && !soloCercanos
+                        && fcmService.enviarNotificacionTopico(suscripcionTopicos.getTopico(), titulo, mensaje,
+                                dataComun);
+                if (!porTopico) {
+                    fcmService.enviarNotificacionMasiva(repartidoresTokens, titulo, mensaje, dataComun);
+                }
 
-                    // Enviar Push
-                    fcmService.enviarNotificacion(token, titulo, mensaje, data);
+                // El evento se confirma solo con el historial guardado; reintentarlo repite el push
+                List<ResultadoEnvioDTO> guardados = guardado.join();
+                historialService.verificarDisponible(guardados);
+                if (log.isInfoEnabled()) {
+                    long guardadas = guardados.stream().filter(ResultadoEnvioDTO::isExitoso).count();
+                    log.info("Nuevo pedido difundido paqueteId={} repartidores={} cercanos={} historialGuardado={}",
+                            evento.getPaqueteId(), repartidoresTokens.size(), soloCercanos, guardadas);
                 }
-                System.out.println("Notificaciones enviadas a " + repartidoresTokens.size() + " repartidores");
             } else {
-                System.out.println("No hay repartidores disponibles");
+                log.info("No hay repartidores disponibles paqueteId={}", evento.getPaqueteId());
             }
-        } catch (RecursoNoEncontradoException e) {
+        } catch (RecursoNoEncontradoException | ServicioNoDisponibleException e) {
             throw e;
         } catch (Exception e) {
-            System.err.println("Error al notificar nuevo pedido: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error al notificar nuevo pedido paqueteId={}", evento.getPaqueteId(), e);
             throw new NotificacionException("Error interno al procesar notificación de nuevo pedido", e);
         }
     }
@@ -158,128 +225,342 @@ public class NotificacionService {
      * CASO 3: Notificar al cliente que su paquete fue entregado
      */
     public void notificarPedidoEntregado(PaqueteEventDTO evento) {
+        Futuros.esperar(notificarPedidoEntregadoAsync(evento));
+    }
+
+    /**
+     * Igual que notificarPedidoEntregado, pero con la agrupación habilitada no bloquea mientras la ventana
+     * está abierta: el futuro se completa cuando el historial y el push quedaron confirmados
+     */
+    public CompletableFuture<Void> notificarPedidoEntregadoAsync(PaqueteEventDTO evento) {
         try {
-            // Si falta el clienteId, buscarlo en el paquete
-            if (evento.getClienteId() == null) {
-                PaqueteModel paquete = obtenerPaquete(evento.getPaqueteId());
-                if (paquete != null) {
-                    evento.setClienteId(paquete.getClienteId());
-                } else {
-                    throw new RecursoNoEncontradoException("Paquete no encontrado con ID: " + evento.getPaqueteId());
+            // Guardar en Firestore (Historial) y enviar Push si tiene token
+            return notificarCliente(prepararPedidoEntregado(evento));
+        } catch (RecursoNoEncontradoException | ServicioNoDisponibleException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error al notificar pedido entregado paqueteId={}", evento.getPaqueteId(), e);
+            throw new NotificacionException("Error interno al procesar notificación de pedido entregado", e);
+        }
+    }
+
+    /**
+     * Completa el evento con las lecturas que falten y arma la notificación del cliente
+     */
+    private EnvioCliente prepararPedidoEntregado(PaqueteEventDTO evento) {
+        // Si falta el clienteId, buscarlo en el paquete; la lectura del cliente se encadena sin bloquear
+        boolean faltaClienteId = evento.getClienteId() == null;
+        CompletableFuture<PaqueteModel> paqueteFuture = faltaClienteId
+                ? lecturaService.obtenerPaqueteAsync(evento.getPaqueteId())
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<UsuarioModel> clienteFuture = obtenerClienteAsync(evento, faltaClienteId, paqueteFuture);
+
+        if (faltaClienteId) {
+            PaqueteModel paquete = Futuros.esperar(paqueteFuture);
+            if (paquete != null) {
+                evento.setClienteId(paquete.getClienteId());
+            } else {
+                throw new RecursoNoEncontradoException("Paquete no encontrado con ID: " + evento.getPaqueteId());
+            }
+        }
+
+        log.debug("Notificando pedido entregado paqueteId={} clienteId={}", evento.getPaqueteId(),
+                evento.getClienteId());
+
+        UsuarioModel cliente = Futuros.esperar(clienteFuture);
+
+        if (cliente == null) {
+            throw new RecursoNoEncontradoException("Cliente no encontrado con ID: " + evento.getClienteId());
+        }
+
+        Map<String, String> data = new HashMap<>();
+        data.put("tipo", "entrega");
+        data.put("paqueteId", evento.getPaqueteId());
+        data.put("userId", evento.getClienteId());
+
+        Plantilla plantilla = plantillas.obtener("entrega", cliente.getIdioma());
+        String titulo = plantilla.titulo(data);
+        String mensaje = plantilla.mensaje(data);
+
+        return new EnvioCliente(new NotificacionDTO(evento.getClienteId(), titulo, mensaje, "entrega", data),
+                cliente.getFcmToken(), cliente.getIdioma());
+    }
+
+    /**
+     * Varios eventos mezclados (CREADO, TOMADO, ENTREGADO) en una sola llamada.
+     * Los paquetes y usuarios que hacen falta se leen antes con getAll, así cada evento encuentra
+     * sus datos en caché; los pushes a clientes salen juntos en llamadas sendEach y su historial
+     * en un solo lote. Un evento con error no detiene a los demás.
+     *
+     * @return un resultado por evento, en el mismo orden
+     * @throws ServicioNoDisponibleException si Firestore no responde al precargar el lote
+     */
+    public List<ResultadoEventoDTO> notificarLote(List<PaqueteEventDTO> eventos) {
+        List<ResultadoEventoDTO> resultados = new ArrayList<>(Collections.nCopies(eventos.size(), null));
+        List<Integer> validos = new ArrayList<>(eventos.size());
+        for (int i = 0; i < eventos.size(); i++) {
+            PaqueteEventDTO evento = eventos.get(i);
+            try {
+                DespachadorEventosService.validar(evento);
+                validos.add(i);
+            } catch (EventoInvalidoException e) {
+                resultados.set(i, ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_INVALIDO,
+                        e.getMessage()));
+            }
+        }
+
+        precargar(validos.stream().map(eventos::get).toList());
+
+        List<Integer> indicesClientes = new ArrayList<>();
+        List<EnvioCliente> envios = new ArrayList<>();
+        for (int i : validos) {
+            PaqueteEventDTO evento = eventos.get(i);
+            try {
+                switch (evento.getAccion()) {
+                    case DespachadorEventosService.ACCION_CREADO -> {
+                        notificarNuevoPedido(evento);
+                        resultados.set(i, ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_ENVIADO, null));
+                    }
+                    case DespachadorEventosService.ACCION_TOMADO -> {
+                        envios.add(prepararPedidoTomado(evento));
+                        indicesClientes.add(i);
+                    }
+                    default -> {
+                        envios.add(prepararPedidoEntregado(evento));
+                        indicesClientes.add(i);
+                    }
                 }
+            } catch (RecursoNoEncontradoException e) {
+                resultados.set(i, ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_NO_ENCONTRADO,
+                        e.getMessage()));
+            } catch (ServicioNoDisponibleException e) {
+                resultados.set(i, ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_NO_DISPONIBLE,
+                        e.getMessage()));
+            } catch (RuntimeException e) {
+                log.error("Error al notificar evento del lote accion={} paqueteId={}", evento.getAccion(),
+                        evento.getPaqueteId(), e);
+                resultados.set(i, ResultadoEventoDTO.de(i, evento, ResultadoEventoDTO.ESTADO_ERROR,
+                        "Error interno al procesar el evento"));
             }
+        }
 
-            System.out.println("Notificando pedido entregado - Paquete: " + evento.getPaqueteId() + ", Cliente: "
-                    + evento.getClienteId());
+        notificarClientes(eventos, indicesClientes, envios, resultados);
 
-            UsuarioModel cliente = obtenerUsuario(evento.getClienteId());
+        if (log.isInfoEnabled()) {
+            long exitosos = resultados.stream().filter(ResultadoEventoDTO::isExitoso).count();
+            log.info("Lote de eventos procesado eventos={} exitosos={} pushClientes={}", eventos.size(), exitosos,
+                    envios.size());
+        }
+        return resultados;
+    }
 
-            if (cliente == null) {
-                throw new RecursoNoEncontradoException("Cliente no encontrado con ID: " + evento.getClienteId());
+    /**
+     * Lee con getAll los paquetes y después los usuarios que los eventos no traen, para dejarlos en caché
+     */
+    private void precargar(List<PaqueteEventDTO> eventos) {
+        Set<String> paqueteIds = new HashSet<>();
+        for (PaqueteEventDTO evento : eventos) {
+            boolean faltaPaquete = DespachadorEventosService.ACCION_CREADO.equals(evento.getAccion())
+                    ? evento.getDestinatario() == null || evento.getDireccion() == null
+                    : evento.getClienteId() == null || evento.getClienteId().isEmpty();
+            if (faltaPaquete) {
+                paqueteIds.add(evento.getPaqueteId());
             }
+        }
+        Map<String, PaqueteModel> paquetes = paqueteIds.isEmpty() ? Map.of()
+                : Futuros.esperar(lecturaService.obtenerPaquetesAsync(paqueteIds));
 
-            Map<String, String> data = new HashMap<>();
-            data.put("tipo", "entrega");
-            data.put("paqueteId", evento.getPaqueteId());
-            data.put("userId", evento.getClienteId());
+        Set<String> userIds = new HashSet<>();
+        for (PaqueteEventDTO evento : eventos) {
+            if (DespachadorEventosService.ACCION_CREADO.equals(evento.getAccion())) {
+                continue;
+            }
+            if (evento.getClienteId() != null && !evento.getClienteId().isEmpty()) {
+                userIds.add(evento.getClienteId());
+            } else if (paquetes.get(evento.getPaqueteId()) != null
+                    && paquetes.get(evento.getPaqueteId()).getClienteId() != null) {
+                userIds.add(paquetes.get(evento.getPaqueteId()).getClienteId());
+            }
+            if (DespachadorEventosService.ACCION_TOMADO.equals(evento.getAccion())
+                    && (evento.getRepartidorNombre() == null || evento.getRepartidorNombre().isEmpty())) {
+                userIds.add(evento.getRepartidorId());
+            }
+        }
+        if (!userIds.isEmpty()) {
+            Futuros.esperar(lecturaService.obtenerUsuariosAsync(userIds));
+        }
+    }
 
-            String titulo = "✅ Paquete entregado";
-            String mensaje = "Tu paquete ha sido entregado exitosamente";
+    /**
+     * Notificaciones a clientes del lote: historial en un solo lote y pushes agrupados en sendEach.
+     * Cada evento queda ENVIADO, SOLO_HISTORIAL (push rechazado), NO_DISPONIBLE (FCM o Firestore caídos)
+     * o ERROR (historial rechazado) según su propio push y su propio historial
+     */
+    private void notificarClientes(List<PaqueteEventDTO> eventos, List<Integer> indices, List<EnvioCliente> envios,
+            List<ResultadoEventoDTO> resultados) {
+        if (envios.isEmpty()) {
+            return;
+        }
+        if (agrupacion.isHabilitada()) {
+            // Se agregan todos antes de esperar, así los del mismo cliente caen en la misma ventana
+            List<CompletableFuture<Void>> agrupados = new ArrayList<>(envios.size());
+            for (EnvioCliente envio : envios) {
+                agrupados.add(notificarCliente(envio));
+            }
+            for (int j = 0; j < envios.size(); j++) {
+                int i = indices.get(j);
+                resultados.set(i, resultadoAgrupado(i, eventos.get(i), agrupados.get(j)));
+            }
+            return;
+        }
 
-            // Guardar en Firestore (Historial)
-            guardarNotificacionEnFirestore(evento.getClienteId(), titulo, mensaje, "entrega", data);
+        List<NotificacionDTO> notificaciones = new ArrayList<>(envios.size());
+        List<NotificacionDTO> conToken = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        List<Integer> indicesConToken = new ArrayList<>();
+        for (int j = 0; j < envios.size(); j++) {
+            EnvioCliente envio = envios.get(j);
+            notificaciones.add(envio.notificacion);
+            if (envio.tieneToken()) {
+                conToken.add(envio.notificacion);
+                tokens.add(envio.fcmToken);
+                indicesConToken.add(indices.get(j));
+            } else {
+                int i = indices.get(j);
+                resultados.set(i, ResultadoEventoDTO.de(i, eventos.get(i), ResultadoEventoDTO.ESTADO_SOLO_HISTORIAL,
+                        "Cliente sin token FCM"));
+            }
+        }
 
-            // Enviar Push si tiene token
-            if (cliente.getFcmToken() != null && !cliente.getFcmToken().isEmpty()) {
-                fcmService.enviarNotificacion(cliente.getFcmToken(), titulo, mensaje, data);
-                System.out.println("Notificación enviada al cliente: " + evento.getClienteId());
+        // Guardar en Firestore (Historial) en lotes mientras se envían los Push
+        CompletableFuture<List<ResultadoEnvioDTO>> guardado = historialService.guardarLoteAsync(notificaciones);
+        List<ResultadoEnvioDTO> enviados = fcmService.enviarNotificaciones(conToken, tokens);
+        for (int j = 0; j < enviados.size(); j++) {
+            int i = indicesConToken.get(j);
+            ResultadoEnvioDTO envio = enviados.get(j);
+            if (envio.isExitoso()) {
+                resultados.set(i, ResultadoEventoDTO.de(i, eventos.get(i), ResultadoEventoDTO.ESTADO_ENVIADO, null));
+            } else if (envio.isNoDisponible()) {
+                resultados.set(i, ResultadoEventoDTO.de(i, eventos.get(i), ResultadoEventoDTO.ESTADO_NO_DISPONIBLE,
+                        "FCM no disponible: " + envio.getCodigoError()));
             } else {
-                System.out.println(
-                        "Cliente " + evento.getClienteId() + " no tiene token FCM, solo se guardó en historial");
+                resultados.set(i, ResultadoEventoDTO.de(i, eventos.get(i), ResultadoEventoDTO.ESTADO_SOLO_HISTORIAL,
+                        "Push fallido: " + envio.getCodigoError()));
             }
+        }
 
-        } catch (RecursoNoEncontradoException e) {
-            throw e;
-        } catch (Exception e) {
-            System.err.println("Error al notificar pedido entregado: " + e.getMessage());
-            e.printStackTrace();
-            throw new NotificacionException("Error interno al procesar notificación de pedido entregado", e);
+        // Un resultado de historial por envío, en el mismo orden; sin historial el evento no se completó
+        List<ResultadoEnvioDTO> guardados = guardado.join();
+        int fallidos = 0;
+        for (int j = 0; j < guardados.size(); j++) {
+            ResultadoEnvioDTO guardadoEvento = guardados.get(j);
+            if (guardadoEvento.isExitoso()) {
+                continue;
+            }
+            fallidos++;
+            int i = indices.get(j);
+            resultados.set(i, ResultadoEventoDTO.de(i, eventos.get(i), guardadoEvento.isNoDisponible()
+                    ? ResultadoEventoDTO.ESTADO_NO_DISPONIBLE : ResultadoEventoDTO.ESTADO_ERROR,
+                    "Historial no guardado: " + guardadoEvento.getCodigoError()));
+        }
+        if (fallidos > 0) {
+            log.warn("Error al guardar historial del lote notificaciones={} fallidos={}", notificaciones.size(),
+                    fallidos);
+        }
+    }
+
+    /**
+     * Espera a que cierre la ventana del cliente y traduce su resultado al del evento
+     */
+    private static ResultadoEventoDTO resultadoAgrupado(int indice, PaqueteEventDTO evento,
+            CompletableFuture<Void> agrupado) {
+        try {
+            Futuros.esperar(agrupado);
+            return ResultadoEventoDTO.de(indice, evento, ResultadoEventoDTO.ESTADO_ENVIADO, null);
+        } catch (ServicioNoDisponibleException e) {
+            return ResultadoEventoDTO.de(indice, evento, ResultadoEventoDTO.ESTADO_NO_DISPONIBLE, e.getMessage());
+        } catch (RuntimeException e) {
+            return ResultadoEventoDTO.de(indice, evento, ResultadoEventoDTO.ESTADO_ERROR,
+                    "Error interno al procesar el evento");
         }
     }
 
     // --- MÉTODOS AUXILIARES DE FIRESTORE ---
 
-    private void guardarNotificacionEnFirestore(String userId, String titulo, String mensaje, String tipo,
-            Map<String, String> data) {
-        try {
-            Firestore db = FirestoreClient.getFirestore();
-            String notificacionId = String.valueOf(System.currentTimeMillis());
-
-            Map<String, Object> notificacion = new HashMap<>();
-            notificacion.put("id", notificacionId);
-            notificacion.put("titulo", titulo);
-            notificacion.put("mensaje", mensaje);
-            notificacion.put("fecha", new java.util.Date());
-            notificacion.put("leida", false);
-            notificacion.put("tipo", tipo);
-            notificacion.put("data", data);
-
-            db.collection("usuarios")
-                    .document(userId)
-                    .collection("notificaciones")
-                    .document(notificacionId)
-                    .set(notificacion);
-
-            System.out.println("Notificación guardada en Firestore para usuario: " + userId);
-        } catch (Exception e) {
-            System.err.println("Error al guardar notificación en Firestore para usuario: " + userId);
-            e.printStackTrace();
+    /**
+     * Lectura del cliente: directa si el evento trae clienteId, o encadenada a la lectura del paquete.
+     */
+    private CompletableFuture<UsuarioModel> obtenerClienteAsync(PaqueteEventDTO evento, boolean faltaClienteId,
+            CompletableFuture<PaqueteModel> paqueteFuture) {
+        if (!faltaClienteId) {
+            return lecturaService.obtenerUsuarioAsync(evento.getClienteId());
         }
+        return paqueteFuture.thenCompose(paquete -> paquete != null && paquete.getClienteId() != null
+                ? lecturaService.obtenerUsuarioAsync(paquete.getClienteId())
+                : CompletableFuture.completedFuture(null));
     }
 
-    private UsuarioModel obtenerUsuario(String userId) {
-        try {
-            Firestore db = FirestoreClient.getFirestore();
-            DocumentSnapshot doc = db.collection("usuarios").document(userId).get().get();
-            if (doc.exists()) {
-                return doc.toObject(UsuarioModel.class);
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al obtener usuario " + userId + ": " + e.getMessage());
+    /**
+     * Historial y push al cliente; con la agrupación habilitada se retienen hasta cerrar su ventana
+     *
+     * @return se completa cuando el historial y el push quedaron confirmados (de inmediato sin agrupación)
+     */
+    private CompletableFuture<Void> notificarCliente(EnvioCliente envio) {
+        NotificacionDTO notificacion = envio.notificacion;
+        String clienteId = notificacion.getUserId();
+        if (agrupacion.isHabilitada()) {
+            log.debug("Notificación retenida para agrupar clienteId={}", clienteId);
+            return agrupacion.agregar(notificacion, envio.tieneToken() ? envio.fcmToken : null, envio.idioma);
+        }
+
+        // El historial se escribe mientras sale el push, pero la notificación cuenta como entregada
+        // solo si ambos se confirman; un reintento tras un fallo parcial puede repetir uno de los dos
+        CompletableFuture<List<ResultadoEnvioDTO>> guardado = historialService.guardarLoteAsync(List.of(notificacion));
+        if (envio.tieneToken()) {
+            fcmService.enviarNotificacion(clienteId, envio.fcmToken, notificacion.getTitulo(),
+                    notificacion.getMensaje(), notificacion.getData());
+        }
+        guardarNotificacionEnFirestore(clienteId, guardado);
+        if (envio.tieneToken()) {
+            log.info("Notificación enviada clienteId={}", clienteId);
+        } else {
+            log.info("Cliente sin token FCM, solo se guardó en historial clienteId={}", clienteId);
         }
-        return null;
+        return CompletableFuture.completedFuture(null);
     }
 
-    private PaqueteModel obtenerPaquete(String paqueteId) {
-        try {
-            Firestore db = FirestoreClient.getFirestore();
-            DocumentSnapshot doc = db.collection("paquetes").document(paqueteId).get().get();
-            if (doc.exists()) {
-                return doc.toObject(PaqueteModel.class);
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al obtener paquete " + paqueteId + ": " + e.getMessage());
+    /**
+     * Espera el commit del historial
+     *
+     * @throws ServicioNoDisponibleException si Firestore no está disponible
+     * @throws NotificacionException         si el commit falló por otra causa
+     */
+    private void guardarNotificacionEnFirestore(String userId, CompletableFuture<List<ResultadoEnvioDTO>> guardado) {
+        List<ResultadoEnvioDTO> resultados = guardado.join();
+        historialService.verificarDisponible(resultados);
+        if (!resultados.get(0).isExitoso()) {
+            throw new NotificacionException("No se pudo guardar la notificación en historial userId=" + userId
+                    + " codigo=" + resultados.get(0).getCodigoError(), null);
         }
-        return null;
+        log.debug("Notificación guardada en historial userId={}", userId);
     }
 
-    private Map<String, String> obtenerRepartidoresConTokens() {
-        Map<String, String> tokens = new HashMap<>();
-        try {
-            Firestore db = FirestoreClient.getFirestore();
-            QuerySnapshot query = db.collection("usuarios")
-                    .whereEqualTo("rol", "repartidor")
-                    .get().get();
-
-            for (DocumentSnapshot doc : query.getDocuments()) {
-                String token = doc.getString("fcmToken");
-                if (token != null && !token.isEmpty()) {
-                    tokens.put(doc.getId(), token);
-                }
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println("Error al buscar repartidores: " + e.getMessage());
+    /**
+     * Notificación ya armada para un cliente, su token (null o vacío si no tiene) y su idioma
+     */
+    private static final class EnvioCliente {
+        private final NotificacionDTO notificacion;
+        private final String fcmToken;
+        private final String idioma;
+
+        private EnvioCliente(NotificacionDTO notificacion, String fcmToken, String idioma) {
+            this.notificacion = notificacion;
+            this.fcmToken = fcmToken;
+            this.idioma = idioma;
+        }
+
+        private boolean tieneToken() {
+            return fcmToken != null && !fcmToken.isEmpty();
         }
-        return tokens;
     }
 }
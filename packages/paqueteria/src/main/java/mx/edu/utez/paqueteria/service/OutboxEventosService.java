@@ -0,0 +1,221 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outbox local de los eventos aceptados en modo asíncrono.
+ * Cada evento se agrega a un archivo JSONL antes de responder 202 y se confirma con un registro
+ * de ACK cuando el despachador termina; al arrancar se reencolan los eventos sin ACK
+ * (entrega al menos una vez). El archivo se compacta al arrancar y cada
+ * notificaciones.outbox.compactar-cada confirmaciones, dejando solo los pendientes.
+ * Con notificaciones.outbox.sincronizar-disco=true cada escritura hace fsync y sobrevive también
+ * a una caída del sistema operativo; sin él basta para reinicios o caídas del proceso.
+ */
+@Service
+public class OutboxEventosService {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxEventosService.class);
+
+    private static final String TIPO_EVENTO = "EVENTO";
+    private static final String TIPO_ACK = "ACK";
+
+    private final ObjectMapper mapper;
+    private final boolean habilitado;
+    private final Path archivo;
+    private final boolean sincronizarDisco;
+    private final int compactarCada;
+
+    /** trackingId -> línea del evento, en orden de llegada */
+    private final Map<String, String> pendientes = new LinkedHashMap<>();
+    private FileChannel canal;
+    private int confirmacionesSinCompactar;
+
+    public OutboxEventosService(ObjectMapper mapper,
+            @Value("${notificaciones.ingesta.modo:sincrono}") String modoIngesta,
+            @Value("${notificaciones.outbox.habilitado:true}") boolean habilitado,
+            @Value("${notificaciones.outbox.directorio:outbox}") String directorio,
+            @Value("${notificaciones.outbox.sincronizar-disco:false}") boolean sincronizarDisco,
+            @Value("${notificaciones.outbox.compactar-cada:10000}") int compactarCada,
+            MeterRegistry registry) {
+        this.mapper = mapper;
+        this.habilitado = habilitado && "asincrono".equalsIgnoreCase(modoIngesta);
+        this.archivo = Paths.get(directorio, "eventos.jsonl");
+        this.sincronizarDisco = sincronizarDisco;
+        this.compactarCada = Math.max(1, compactarCada);
+        Gauge.builder("notificaciones.outbox.pendientes", this, OutboxEventosService::eventosPendientes)
+                .register(registry);
+    }
+
+    @PostConstruct
+    public synchronized void abrir() throws IOException {
+        if (!habilitado) {
+            return;
+        }
+        Files.createDirectories(archivo.toAbsolutePath().getParent());
+        if (Files.exists(archivo)) {
+            leer();
+        }
+        compactar();
+        if (!pendientes.isEmpty()) {
+            log.info("Outbox con eventos sin confirmar del arranque anterior pendientes={}", pendientes.size());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void cerrar() throws IOException {
+        if (canal != null) {
+            canal.close();
+            canal = null;
+        }
+    }
+
+    public boolean isHabilitado() {
+        return habilitado;
+    }
+
+    /**
+     * Persiste el evento; cuando regresa, el evento sobrevive a un reinicio
+     *
+     * @throws UncheckedIOException si no se pudo escribir
+     */
+    public synchronized void registrar(String trackingId, PaqueteEventDTO evento) {
+        if (!habilitado) {
+            return;
+        }
+        Map<String, Object> registro = new LinkedHashMap<>();
+        registro.put("tipo", TIPO_EVENTO);
+        registro.put("trackingId", trackingId);
+        registro.put("evento", evento);
+        try {
+            String linea = mapper.writeValueAsString(registro);
+            escribir(linea);
+            pendientes.put(trackingId, linea);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo guardar el evento en el outbox", e);
+        }
+    }
+
+    /**
+     * Marca el evento como terminado; ya no se reproducirá al arrancar
+     */
+    public synchronized void confirmar(String trackingId) {
+        if (!habilitado || pendientes.remove(trackingId) == null) {
+            return;
+        }
+        try {
+            escribir("{\"tipo\":\"" + TIPO_ACK + "\",\"trackingId\":\"" + trackingId + "\"}");
+            if (++confirmacionesSinCompactar >= compactarCada) {
+                compactar();
+            }
+        } catch (IOException e) {
+            // Sin el ACK el evento se reproducirá en el próximo arranque
+            log.warn("No se pudo confirmar el evento en el outbox trackingId={}: {}", trackingId, e.getMessage());
+        }
+    }
+
+    /**
+     * Eventos sin confirmar (trackingId -> evento) en orden de llegada
+     */
+    public synchronized Map<String, PaqueteEventDTO> eventosSinConfirmar() {
+        Map<String, PaqueteEventDTO> eventos = new LinkedHashMap<>();
+        pendientes.forEach((trackingId, linea) -> {
+            try {
+                eventos.put(trackingId, mapper.treeToValue(mapper.readTree(linea).get("evento"),
+                        PaqueteEventDTO.class));
+            } catch (JsonProcessingException e) {
+                log.warn("Evento ilegible en el outbox trackingId={}: {}", trackingId, e.getMessage());
+            }
+        });
+        return eventos;
+    }
+
+    public synchronized int eventosPendientes() {
+        return pendientes.size();
+    }
+
+    private void leer() throws IOException {
+        try (BufferedReader lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                if (linea.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode registro = mapper.readTree(linea);
+                    String trackingId = registro.path("trackingId").asText();
+                    if (TIPO_EVENTO.equals(registro.path("tipo").asText())) {
+                        pendientes.put(trackingId, linea);
+                    } else {
+                        pendientes.remove(trackingId);
+                    }
+                } catch (JsonProcessingException e) {
+                    // Última línea a medio escribir por una caída: el evento nunca se confirmó al cliente
+                    log.warn("Línea corrupta en el outbox ignorada: {}", e.getOriginalMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reescribe el archivo solo con los pendientes y lo reemplaza de forma atómica
+     */
+    private void compactar() throws IOException {
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        try (FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String linea : pendientes.values()) {
+                escribirEn(nuevo, linea);
+            }
+            nuevo.force(true);
+        }
+        if (canal != null) {
+            canal.close();
+        }
+        Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        confirmacionesSinCompactar = 0;
+    }
+
+    private void escribir(String linea) throws IOException {
+        if (canal == null) {
+            throw new IOException("Outbox cerrado");
+        }
+        escribirEn(canal, linea);
+        if (sincronizarDisco) {
+            canal.force(false);
+        }
+    }
+
+    private static void escribirEn(FileChannel destino, String linea) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((linea + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            destino.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package mx.edu.utez.paqueteria.service;
+
+import mx.edu.utez.paqueteria.util.PlantillaNotificacion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+/**
+ * Títulos y mensajes de las notificaciones por tipo (asignacion, paquete, entrega y los resúmenes
+ * de la agrupación) e idioma.
+ * Se leen al arrancar de plantillas/notificaciones[_idioma].properties y se compilan una sola vez;
+ * una clave que falte en un idioma se toma del archivo base (español). Si el usuario no tiene
+ * idioma o no está en notificaciones.plantillas.idiomas se usa el predeterminado.
+ */
+@Service
+public class PlantillasNotificacionService {
+
+    private static final Logger log = LoggerFactory.getLogger(PlantillasNotificacionService.class);
+
+    private static final String BUNDLE = "plantillas.notificaciones";
+    private static final List<String> TIPOS = List.of("asignacion", "paquete", "entrega", "resumen.asignacion",
+            "resumen.entrega", "resumen");
+
+    private final String idiomaPredeterminado;
+    /** idioma -> tipo -> plantilla */
+    private final Map<String, Map<String, Plantilla>> plantillas = new HashMap<>();
+
+    public PlantillasNotificacionService(
+            @Value("${notificaciones.plantillas.idioma-predeterminado:es}") String idiomaPredeterminado,
+            @Value("${notificaciones.plantillas.idiomas:es,en}") List<String> idiomas) {
+        this.idiomaPredeterminado = normalizar(idiomaPredeterminado);
+        ResourceBundle.Control sinRespaldo = ResourceBundle.Control.getNoFallbackControl(
+                ResourceBundle.Control.FORMAT_PROPERTIES);
+        for (String idioma : idiomas) {
+            String clave = normalizar(idioma);
+            ResourceBundle bundle = ResourceBundle.getBundle(BUNDLE, Locale.forLanguageTag(clave), sinRespaldo);
+            Map<String, Plantilla> porTipo = new HashMap<>();
+            for (String tipo : TIPOS) {
+                porTipo.put(tipo, compilar(bundle, tipo));
+            }
+            plantillas.put(clave, Map.copyOf(porTipo));
+        }
+        if (!plantillas.containsKey(this.idiomaPredeterminado)) {
+            throw new IllegalStateException("El idioma predeterminado " + idiomaPredeterminado
+                    + " no está en notificaciones.plantillas.idiomas");
+        }
+        log.info("Plantillas de notificación cargadas idiomas={}", plantillas.keySet());
+    }
+
+    /**
+     * Plantilla del tipo en el idioma del usuario, o en el predeterminado si no se conoce
+     *
+     * @param idioma etiqueta como "es" o "en-US"; puede ser null
+     */
+    public Plantilla obtener(String tipo, String idioma) {
+        Map<String, Plantilla> porTipo = idioma != null ? plantillas.get(normalizar(idioma)) : null;
+        if (porTipo == null) {
+            porTipo = plantillas.get(idiomaPredeterminado);
+        }
+        Plantilla plantilla = porTipo.get(tipo);
+        if (plantilla == null) {
+            throw new IllegalArgumentException("Tipo de notificación sin plantilla: " + tipo);
+        }
+        return plantilla;
+    }
+
+    private static Plantilla compilar(ResourceBundle bundle, String tipo) {
+        try {
+            return new Plantilla(PlantillaNotificacion.compilar(bundle.getString(tipo + ".titulo")),
+                    PlantillaNotificacion.compilar(bundle.getString(tipo + ".mensaje")));
+        } catch (MissingResourceException e) {
+            throw new IllegalStateException("Falta la plantilla " + e.getKey() + " en " + BUNDLE, e);
+        }
+    }
+
+    private static String normalizar(String idioma) {
+        return Locale.forLanguageTag(idioma.trim().replace('_', '-')).getLanguage();
+    }
+
+    /**
+     * Título y mensaje compilados de un tipo de notificación
+     */
+    public static final class Plantilla {
+        private final PlantillaNotificacion titulo;
+        private final PlantillaNotificacion mensaje;
+
+        private Plantilla(PlantillaNotificacion titulo, PlantillaNotificacion mensaje) {
+            this.titulo = titulo;
+            this.mensaje = mensaje;
+        }
+
+        public String titulo(Map<String, String> variables) {
+            return titulo.renderizar(variables);
+        }
+
+        public String mensaje(Map<String, String> variables) {
+            return mensaje.renderizar(variables);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.CambioDocumento;
+import mx.edu.utez.paqueteria.util.Futuros;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro en memoria de los tokens FCM de los repartidores.
+ * Se carga al iniciar con un listener en tiempo real sobre usuarios where rol == "repartidor"
+ * y se mantiene actualizado con cada cambio. Las difusiones leen un snapshot inmutable
+ * sin consultar Firestore; si el listener no está sincronizado se hace la consulta completa.
+ * Si el listener se detiene por un error se vuelve a registrar con backoff (EscuchaReconectable).
+ */
+@Service
+public class RegistroRepartidoresService {
+
+    private static final Logger log = LoggerFactory.getLogger(RegistroRepartidoresService.class);
+
+    private static final String ROL_REPARTIDOR = "repartidor";
+
+    private final AlmacenDocumentos almacen;
+    private final LecturaFirestoreService lecturaService;
+    private final ResilienciaFirestore resiliencia;
+    private final Timer consultas;
+    private final EscuchaReconectable escucha;
+
+    private volatile Map<String, String> tokens = Map.of();
+    private volatile boolean sincronizado = false;
+
+    public RegistroRepartidoresService(AlmacenDocumentos almacen, LecturaFirestoreService lecturaService,
+            ResilienciaFirestore resiliencia,
+            @Value("${notificaciones.repartidores.escucha-habilitada:true}") boolean escuchaHabilitada,
+            MeterRegistry registry) {
+        this.almacen = almacen;
+        this.lecturaService = lecturaService;
+        this.resiliencia = resiliencia;
+        this.escucha = escuchaHabilitada
+                ? new EscuchaReconectable(almacen, "repartidores", "usuarios", "rol", ROL_REPARTIDOR,
+                        this::aplicarSnapshot)
+                : null;
+        this.consultas = registry.timer("notificaciones.firestore.lectura", "coleccion", "repartidores",
+                "resultado", "consulta");
+        Gauge.builder("notificaciones.repartidores.tokens", this, registro -> registro.tokens.size())
+                .register(registry);
+        Gauge.builder("notificaciones.repartidores.sincronizado", this, registro -> registro.sincronizado ? 1 : 0)
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (escucha != null) {
+            escucha.iniciar();
+        }
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (escucha != null) {
+            escucha.cancelar();
+        }
+    }
+
+    /**
+     * Snapshot inmutable userId -> token FCM de los repartidores con token
+     *
+     * @throws ServicioNoDisponibleException si hay que consultar Firestore y no está disponible
+     */
+    public Map<String, String> obtenerTokens() {
+        if (sincronizado) {
+            return tokens;
+        }
+        return consultarTokens();
+    }
+
+    public boolean isSincronizado() {
+        return sincronizado;
+    }
+
+    /**
+     * Quita del snapshot los tokens reportados como no registrados por FCM, solo si el
+     * repartidor no tiene ya otro token; el listener confirmará el cambio al borrarse en Firestore
+     */
+    public synchronized void descartarTokens(Map<String, String> tokensInvalidos) {
+        Map<String, String> actuales = tokens;
+        Map<String, String> vigentes = new HashMap<>(actuales);
+        tokensInvalidos.forEach(vigentes::remove);
+        if (vigentes.size() != actuales.size()) {
+            tokens = Map.copyOf(vigentes);
+        }
+    }
+
+    private synchronized void aplicarSnapshot(List<Documento> documentos, List<CambioDocumento> cambios,
+            Exception error) {
+        if (error != null) {
+            // Hasta que se reconecte, obtenerTokens vuelve a consultar Firestore
+            sincronizado = false;
+            log.warn("Listener de repartidores detenido: {}", error.getMessage());
+            return;
+        }
+
+        for (CambioDocumento cambio : cambios) {
+            if (cambio.getTipo() != CambioDocumento.Tipo.AGREGADO) {
+                lecturaService.invalidarUsuario(cambio.getDocumento().getId());
+            }
+        }
+
+        tokens = extraerTokens(documentos);
+        if (!sincronizado) {
+            log.info("Registro de repartidores sincronizado conToken={}", tokens.size());
+        }
+        sincronizado = true;
+    }
+
+    private Map<String, String> consultarTokens() {
+        try {
+            Timer.Sample muestra = Timer.start();
+            List<Documento> repartidores = Futuros.esperar(resiliencia.leer(1,
+                    () -> almacen.consultar("usuarios", "rol", List.of(ROL_REPARTIDOR))));
+            muestra.stop(consultas);
+            return extraerTokens(repartidores);
+        } catch (ServicioNoDisponibleException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            log.error("Error al buscar repartidores: {}", e.getMessage());
+        }
+        return Map.of();
+    }
+
+    private static Map<String, String> extraerTokens(List<Documento> documentos) {
+        Map<String, String> tokens = new HashMap<>();
+        for (Documento doc : documentos) {
+            String token = doc.getString("fcmToken");
+            if (token != null && !token.isEmpty()) {
+                tokens.put(doc.getId(), token);
+            }
+        }
+        return Map.copyOf(tokens);
+    }
+}
@@ -0,0 +1,211 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.FirestoreException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Reintentos y circuit breaker para las operaciones asíncronas de Firestore.
+ * Los errores transitorios (UNAVAILABLE, DEADLINE_EXCEEDED, INTERNAL, RESOURCE_EXHAUSTED, ABORTED)
+ * se reintentan con backoff y jitter sin bloquear hilos (delayedExecutor) y cuentan para el
+ * circuito "firestore". Si se agotan los reintentos o el circuito está abierto el futuro falla con
+ * ServicioNoDisponibleException; los demás errores se propagan sin reintentar.
+ * Lecturas y escrituras pasan antes por su limitador de tasa, que se reduce con RESOURCE_EXHAUSTED.
+ * Si el turno tardaría más de notificaciones.resiliencia.espera-maxima-ms la llamada falla de inmediato
+ * con ServicioNoDisponibleException. leer y escribir son prioritarias (lo que pide un cliente);
+ * leerMasivo y escribirMasivo (difusiones, depuración) no les quitan el turno.
+ */
+@Component
+public class ResilienciaFirestore {
+
+    private static final Set<Status.Code> TRANSITORIOS = EnumSet.of(Status.Code.UNAVAILABLE,
+            Status.Code.DEADLINE_EXCEEDED, Status.Code.INTERNAL, Status.Code.RESOURCE_EXHAUSTED,
+            Status.Code.ABORTED);
+
+    private final CircuitBreaker circuito;
+    private final PoliticaReintentos politica;
+    private final LimitadorAdaptativo limitadorLectura;
+    private final LimitadorAdaptativo limitadorEscritura;
+    private final long abiertoSegundos;
+    private final Counter reintentos;
+
+    public ResilienciaFirestore(@Qualifier("circuitoFirestore") CircuitBreaker circuito,
+            PoliticaReintentos politica,
+            @Qualifier("limitadorFirestoreLectura") LimitadorAdaptativo limitadorLectura,
+            @Qualifier("limitadorFirestoreEscritura") LimitadorAdaptativo limitadorEscritura,
+            @Value("${notificaciones.resiliencia.circuito.abierto-segundos:30}") long abiertoSegundos,
+            MeterRegistry registry) {
+        this.circuito = circuito;
+        this.politica = politica;
+        this.limitadorLectura = limitadorLectura;
+        this.limitadorEscritura = limitadorEscritura;
+        this.abiertoSegundos = abiertoSegundos;
+        this.reintentos = registry.counter("notificaciones.firestore.reintentos");
+    }
+
+    /**
+     * @param documentos documentos que lee la operación, para el limitador de lecturas
+     * @param operacion  crea la llamada; se invoca de nuevo en cada intento
+     */
+    public <T> CompletableFuture<T> leer(int documentos, Supplier<CompletableFuture<T>> operacion) {
+        return intentar(limitadorLectura, documentos, true, operacion, 0);
+    }
+
+    /**
+     * Como leer, pero espera detrás de las lecturas prioritarias
+     */
+    public <T> CompletableFuture<T> leerMasivo(int documentos, Supplier<CompletableFuture<T>> operacion) {
+        return intentar(limitadorLectura, documentos, false, operacion, 0);
+    }
+
+    /**
+     * @param documentos documentos que escribe la operación, para el limitador de escrituras
+     * @param operacion  crea la llamada; se invoca de nuevo en cada intento
+     */
+    public <T> CompletableFuture<T> escribir(int documentos, Supplier<CompletableFuture<T>> operacion) {
+        return intentar(limitadorEscritura, documentos, true, operacion, 0);
+    }
+
+    /**
+     * Como escribir, pero espera detrás de las escrituras prioritarias
+     */
+    public <T> CompletableFuture<T> escribirMasivo(int documentos, Supplier<CompletableFuture<T>> operacion) {
+        return intentar(limitadorEscritura, documentos, false, operacion, 0);
+    }
+
+    private <T> CompletableFuture<T> intentar(LimitadorAdaptativo limitador, int documentos, boolean prioritaria,
+            Supplier<CompletableFuture<T>> operacion, int intento) {
+        // Con el circuito abierto no tiene caso gastar turno del limitador
+        if (circuito.getState() == CircuitBreaker.State.OPEN) {
+            return CompletableFuture.failedFuture(circuitoAbierto());
+        }
+
+        // Sin bloquear: si no hay tokens la llamada sale cuando le toca
+        long esperaNs = limitador.reservar(documentos, prioritaria,
+                TimeUnit.MILLISECONDS.toNanos(politica.getEsperaMaximaMs()));
+        if (esperaNs == LimitadorAdaptativo.RECHAZADA) {
+            return CompletableFuture.failedFuture(saturado());
+        }
+        if (esperaNs > 0) {
+            return CompletableFuture.runAsync(() -> { },
+                            CompletableFuture.delayedExecutor(esperaNs, TimeUnit.NANOSECONDS))
+                    .thenCompose(v -> llamar(limitador, documentos, prioritaria, operacion, intento));
+        }
+        return llamar(limitador, documentos, prioritaria, operacion, intento);
+    }
+
+    private <T> CompletableFuture<T> llamar(LimitadorAdaptativo limitador, int documentos, boolean prioritaria,
+            Supplier<CompletableFuture<T>> operacion, int intento) {
+        // El permiso se toma justo antes de la llamada: en HALF_OPEN los pocos permisos de prueba
+        // no se quedan retenidos mientras se espera turno
+        if (!circuito.tryAcquirePermission()) {
+            return CompletableFuture.failedFuture(circuitoAbierto());
+        }
+        long inicio = System.nanoTime();
+        CompletableFuture<T> llamada;
+        try {
+            llamada = operacion.get();
+        } catch (RuntimeException e) {
+            llamada = CompletableFuture.failedFuture(e);
+        }
+
+        return llamada.handle((valor, error) -> {
+            long duracion = System.nanoTime() - inicio;
+            if (error == null) {
+                circuito.onSuccess(duracion, TimeUnit.NANOSECONDS);
+                limitador.registrarExito(documentos);
+                return CompletableFuture.completedFuture(valor);
+            }
+            Throwable causa = causa(error);
+            if (esSaturacion(causa)) {
+                limitador.registrarSaturacion();
+            }
+            if (!esTransitorio(causa)) {
+                // Firestore respondió (permiso, argumento inválido...): no es una caída del servicio
+                circuito.onSuccess(duracion, TimeUnit.NANOSECONDS);
+                return CompletableFuture.<T>failedFuture(causa);
+            }
+
+            circuito.onError(duracion, TimeUnit.NANOSECONDS, causa);
+            if (intento >= politica.getReintentos()) {
+                return CompletableFuture.<T>failedFuture(new ServicioNoDisponibleException(
+                        "Firestore no respondió tras " + (intento + 1) + " intentos: " + causa.getMessage(),
+                        abiertoSegundos));
+            }
+            reintentos.increment();
+            return CompletableFuture.runAsync(() -> { },
+                            CompletableFuture.delayedExecutor(politica.espera(intento), TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> intentar(limitador, documentos, prioritaria, operacion, intento + 1));
+        }).thenCompose(Function.identity());
+    }
+
+    private ServicioNoDisponibleException circuitoAbierto() {
+        return new ServicioNoDisponibleException("Firestore no disponible temporalmente", abiertoSegundos);
+    }
+
+    /**
+     * El limitador tiene más trabajo en cola del que se puede esperar; se reintenta pasado ese tiempo
+     */
+    private ServicioNoDisponibleException saturado() {
+        return new ServicioNoDisponibleException("Límite de tasa de Firestore: la espera superaría "
+                + politica.getEsperaMaximaMs() + " ms", Math.max(1, politica.getEsperaMaximaMs() / 1000));
+    }
+
+    /**
+     * Segundos que el cliente debería esperar antes de reintentar tras una ServicioNoDisponibleException
+     */
+    public long getAbiertoSegundos() {
+        return abiertoSegundos;
+    }
+
+    static boolean esTransitorio(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof FirestoreException firestore && firestore.getStatus() != null) {
+                return TRANSITORIOS.contains(firestore.getStatus().getCode());
+            }
+            if (e instanceof ApiException api) {
+                return api.isRetryable() || TRANSITORIOS.contains(Status.Code.valueOf(
+                        api.getStatusCode().getCode().name()));
+            }
+        }
+        return false;
+    }
+
+    static boolean esSaturacion(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof FirestoreException firestore && firestore.getStatus() != null) {
+                return firestore.getStatus().getCode() == Status.Code.RESOURCE_EXHAUSTED;
+            }
+            if (e instanceof ApiException api) {
+                return api.getStatusCode().getCode() == StatusCode.Code.RESOURCE_EXHAUSTED;
+            }
+        }
+        return false;
+    }
+
+    private static Throwable causa(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
@@ -0,0 +1,115 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.messaging.MessagingErrorCode;
+
+/**
+ * Respuesta de FCM para un mensaje individual
+ */
+public final class RespuestaPush {
+
+    private static final RespuestaPush CIRCUITO_ABIERTO =
+            new RespuestaPush(null, null, "CIRCUIT_OPEN", "Circuito FCM abierto", false, 0, true);
+
+    private final String messageId;
+    private final MessagingErrorCode codigoError;
+    private final String nombreError;
+    private final String mensajeError;
+    private final boolean reintentable;
+    private final long reintentarTrasMs;
+    private final boolean noEnviado;
+
+    private RespuestaPush(String messageId, MessagingErrorCode codigoError, String nombreError,
+            String mensajeError, boolean reintentable, long reintentarTrasMs, boolean noEnviado) {
+        this.messageId = messageId;
+        this.codigoError = codigoError;
+        this.nombreError = nombreError;
+        this.mensajeError = mensajeError;
+        this.reintentable = reintentable;
+        this.reintentarTrasMs = reintentarTrasMs;
+        this.noEnviado = noEnviado;
+    }
+
+    public static RespuestaPush exito(String messageId) {
+        return new RespuestaPush(messageId, null, null, null, false, 0, false);
+    }
+
+    /**
+     * @param codigoError null si FCM no indicó un código
+     */
+    public static RespuestaPush fallo(MessagingErrorCode codigoError, String mensajeError) {
+        return fallo(codigoError, mensajeError, false, 0);
+    }
+
+    /**
+     * @param reintentable     el error es transitorio (UNAVAILABLE, INTERNAL, cuota...)
+     * @param reintentarTrasMs espera pedida por FCM en Retry-After, 0 si no la indicó
+     */
+    public static RespuestaPush fallo(MessagingErrorCode codigoError, String mensajeError, boolean reintentable,
+            long reintentarTrasMs) {
+        return new RespuestaPush(null, codigoError, codigoError != null ? codigoError.name() : "UNKNOWN",
+                mensajeError, reintentable, reintentarTrasMs, false);
+    }
+
+    /**
+     * Mensaje no enviado porque el circuito de FCM está abierto
+     */
+    public static RespuestaPush circuitoAbierto() {
+        return CIRCUITO_ABIERTO;
+    }
+
+    /**
+     * Mensaje no enviado porque el limitador de FCM tiene más cola de la que se puede esperar
+     *
+     * @param reintentarTrasMs cuánto esperar antes de volver a intentarlo
+     */
+    public static RespuestaPush limiteTasa(long reintentarTrasMs) {
+        return new RespuestaPush(null, null, "RATE_LIMITED", "Límite de tasa de FCM", false, reintentarTrasMs, true);
+    }
+
+    public boolean isExitoso() {
+        return messageId != null;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public MessagingErrorCode getCodigoError() {
+        return codigoError;
+    }
+
+    public String getMensajeError() {
+        return mensajeError;
+    }
+
+    /**
+     * FCM rechazó el mensaje por cuota agotada del proyecto
+     */
+    public boolean isSaturacion() {
+        return codigoError == MessagingErrorCode.QUOTA_EXCEEDED;
+    }
+
+    public boolean isReintentable() {
+        return reintentable;
+    }
+
+    /**
+     * No se entregó porque FCM no respondió (error transitorio tras los reintentos), su circuito
+     * está abierto o el limitador lo rechazó; a diferencia de un token inválido, reintentar más tarde
+     * puede funcionar
+     */
+    public boolean isNoDisponible() {
+        return reintentable || noEnviado;
+    }
+
+    public long getReintentarTrasMs() {
+        return reintentarTrasMs;
+    }
+
+    /**
+     * Nombre del código de error para reportes, UNKNOWN si no hay código
+     */
+    public String getNombreError() {
+        return nombreError;
+    }
+}
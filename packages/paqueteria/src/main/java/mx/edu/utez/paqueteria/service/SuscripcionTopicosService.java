@@ -0,0 +1,212 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import mx.edu.utez.paqueteria.util.Lotes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mantiene suscritos al tópico de difusión los tokens del registro de repartidores.
+ * Cada notificaciones.difusion.intervalo-sincronizacion-ms compara el snapshot del registro con
+ * lo ya suscrito: los tokens nuevos se suscriben y los que cambiaron o desaparecieron se quitan,
+ * en llamadas de hasta 1000 tokens. Si el snapshot no cambió no hace nada; los tokens que FCM
+ * no pudo suscribir o quitar se vuelven a intentar como máximo una vez por minuto.
+ * Lo suscrito y las bajas pendientes se guardan en suscritos-{topico}.json del directorio del outbox,
+ * así al arrancar la primera sincronización quita los tokens que dejaron de ser válidos mientras
+ * el servidor estaba abajo. Solo actúa con notificaciones.difusion.modo=topico.
+ */
+@Service
+public class SuscripcionTopicosService {
+
+    private static final Logger log = LoggerFactory.getLogger(SuscripcionTopicosService.class);
+
+    public static final String MODO_TOPICO = "topico";
+
+    /** Máximo de tokens que acepta FCM en subscribeToTopic */
+    private static final int MAX_TOKENS_POR_LLAMADA = 1000;
+    private static final long ESPERA_REINTENTO_MS = 60_000;
+
+    private final RegistroRepartidoresService registroRepartidores;
+    private final EnviadorPush enviador;
+    private final ObjectMapper mapper;
+    private final boolean habilitado;
+    private final String topico;
+    private final Path archivo;
+
+    /** userId -> token suscrito al tópico */
+    private final Map<String, String> suscritos = new ConcurrentHashMap<>();
+    /** Tokens que ya no deben estar en el tópico pero FCM no pudo quitar */
+    private final Set<String> bajasPendientes = new HashSet<>();
+    private Map<String, String> ultimoSnapshot;
+    private boolean hayFallos;
+    private long ultimoIntentoMs;
+
+    public SuscripcionTopicosService(RegistroRepartidoresService registroRepartidores, EnviadorPush enviador,
+            ObjectMapper mapper,
+            @Value("${notificaciones.difusion.modo:tokens}") String modo,
+            @Value("${notificaciones.difusion.topico:repartidores}") String topico,
+            @Value("${notificaciones.outbox.directorio:outbox}") String directorio,
+            MeterRegistry registry) {
+        this.registroRepartidores = registroRepartidores;
+        this.enviador = enviador;
+        this.mapper = mapper;
+        this.habilitado = MODO_TOPICO.equalsIgnoreCase(modo);
+        this.topico = topico;
+        this.archivo = Paths.get(directorio, "suscritos-" + topico + ".json");
+        Gauge.builder("notificaciones.difusion.suscritos", suscritos, Map::size).register(registry);
+    }
+
+    /**
+     * Recupera lo suscrito por el arranque anterior; sin el archivo se empieza de cero
+     */
+    @PostConstruct
+    public synchronized void cargar() {
+        if (!habilitado || !Files.exists(archivo)) {
+            return;
+        }
+        try {
+            Estado estado = mapper.readValue(archivo.toFile(), Estado.class);
+            suscritos.putAll(estado.suscritos);
+            bajasPendientes.addAll(estado.bajasPendientes);
+            log.info("Suscripciones del arranque anterior topico={} suscritos={} bajasPendientes={}", topico,
+                    suscritos.size(), bajasPendientes.size());
+        } catch (IOException e) {
+            log.warn("No se pudo leer el estado del tópico archivo={}: {}", archivo, e.getMessage());
+        }
+    }
+
+    public boolean isHabilitado() {
+        return habilitado;
+    }
+
+    public String getTopico() {
+        return topico;
+    }
+
+    @Scheduled(fixedDelayString = "${notificaciones.difusion.intervalo-sincronizacion-ms:5000}")
+    public synchronized void sincronizar() {
+        if (!habilitado || !registroRepartidores.isSincronizado()) {
+            return;
+        }
+        Map<String, String> actuales = registroRepartidores.obtenerTokens();
+        // El registro publica un mapa nuevo solo cuando cambia
+        if (actuales == ultimoSnapshot
+                && (!hayFallos || System.currentTimeMillis() - ultimoIntentoMs < ESPERA_REINTENTO_MS)) {
+            return;
+        }
+
+        List<String> altas = new ArrayList<>();
+        Map<String, String> usuarioPorToken = new HashMap<>();
+        actuales.forEach((userId, token) -> {
+            if (!token.equals(suscritos.get(userId))) {
+                altas.add(token);
+                usuarioPorToken.put(token, userId);
+            }
+        });
+        Set<String> bajas = new HashSet<>();
+        suscritos.forEach((userId, token) -> {
+            if (!token.equals(actuales.get(userId))) {
+                bajas.add(token);
+            }
+        });
+        suscritos.values().removeAll(bajas);
+        // Una baja pendiente cuyo token volvió al registro ya no debe quitarse
+        bajasPendientes.removeAll(actuales.values());
+        bajas.addAll(bajasPendientes);
+
+        // Primero las bajas: un token que cambió de usuario no debe quedar fuera del tópico
+        bajasPendientes.clear();
+        for (List<String> lote : Lotes.particionar(new ArrayList<>(bajas), MAX_TOKENS_POR_LLAMADA)) {
+            bajasPendientes.addAll(enviador.desuscribir(lote, topico));
+        }
+
+        int fallidos = 0;
+        for (List<String> lote : Lotes.particionar(altas, MAX_TOKENS_POR_LLAMADA)) {
+            Set<String> fallidosLote = new HashSet<>(enviador.suscribir(lote, topico));
+            fallidos += fallidosLote.size();
+            for (String token : lote) {
+                if (!fallidosLote.contains(token)) {
+                    suscritos.put(usuarioPorToken.get(token), token);
+                }
+            }
+        }
+
+        ultimoSnapshot = actuales;
+        hayFallos = fallidos > 0 || !bajasPendientes.isEmpty();
+        ultimoIntentoMs = System.currentTimeMillis();
+        if (!altas.isEmpty() || !bajas.isEmpty()) {
+            log.info("Tópico sincronizado topico={} altas={} bajas={} fallidos={} bajasPendientes={} suscritos={}",
+                    topico, altas.size() - fallidos, bajas.size() - bajasPendientes.size(), fallidos,
+                    bajasPendientes.size(), suscritos.size());
+            guardar();
+        }
+    }
+
+    /**
+     * Escribe el estado en un temporal y lo reemplaza de forma atómica; si falla, en el próximo
+     * arranque algunos tokens se suscriben de nuevo o quedan en el tópico hasta que FCM los descarte
+     */
+    private void guardar() {
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(archivo.toAbsolutePath().getParent());
+            mapper.writeValue(temporal.toFile(), new Estado(new LinkedHashMap<>(suscritos),
+                    new ArrayList<>(bajasPendientes)));
+            Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("No se pudo guardar el estado del tópico archivo={}: {}", archivo, e.getMessage());
+        }
+    }
+
+    /**
+     * Contenido de suscritos-{topico}.json
+     */
+    private static final class Estado {
+        private Map<String, String> suscritos = new HashMap<>();
+        private List<String> bajasPendientes = new ArrayList<>();
+
+        private Estado() {
+        }
+
+        private Estado(Map<String, String> suscritos, List<String> bajasPendientes) {
+            this.suscritos = suscritos;
+            this.bajasPendientes = bajasPendientes;
+        }
+
+        public Map<String, String> getSuscritos() {
+            return suscritos;
+        }
+
+        public void setSuscritos(Map<String, String> suscritos) {
+            this.suscritos = suscritos;
+        }
+
+        public List<String> getBajasPendientes() {
+            return bajasPendientes;
+        }
+
+        public void setBajasPendientes(List<String> bajasPendientes) {
+            this.bajasPendientes = bajasPendientes;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.CambioDocumento;
+import mx.edu.utez.paqueteria.util.IndiceGeografico;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ubicaciones de los repartidores en un índice espacial en memoria.
+ * Un listener sobre ubicaciones_repartidores (donde la app escribe latitud y longitud) mantiene
+ * el índice al día; los nuevos paquetes con coordenadas se difunden solo a los
+ * notificaciones.geo.repartidores-cercanos más cercanos dentro de notificaciones.geo.radio-km.
+ * Deshabilitado por defecto: requiere que la app publique ubicaciones y que los eventos traigan coordenadas.
+ * Si el paquete no trae coordenadas, el listener no está sincronizado o hay menos de
+ * notificaciones.geo.minimo-repartidores cerca, se notifica a todos como antes.
+ * Si el listener se detiene por un error se vuelve a registrar con backoff y el índice se reconstruye.
+ */
+@Service
+public class UbicacionRepartidoresService {
+
+    private static final Logger log = LoggerFactory.getLogger(UbicacionRepartidoresService.class);
+
+    private final boolean habilitado;
+    private final int repartidoresCercanos;
+    private final double radioKm;
+    private final int minimoRepartidores;
+    private final long antiguedadMaximaMs;
+    private final IndiceGeografico indice;
+    private final MeterRegistry registry;
+    private final Timer busquedas;
+    private final EscuchaReconectable escucha;
+
+    private volatile boolean sincronizado = false;
+
+    public UbicacionRepartidoresService(AlmacenDocumentos almacen,
+            @Value("${notificaciones.geo.habilitado:false}") boolean habilitado,
+            @Value("${notificaciones.geo.repartidores-cercanos:50}") int repartidoresCercanos,
+            @Value("${notificaciones.geo.radio-km:10}") double radioKm,
+            @Value("${notificaciones.geo.minimo-repartidores:5}") int minimoRepartidores,
+            @Value("${notificaciones.geo.tamano-celda-km:2}") double tamanoCeldaKm,
+            @Value("${notificaciones.geo.antiguedad-maxima-minutos:30}") long antiguedadMaximaMinutos,
+            MeterRegistry registry) {
+        this.habilitado = habilitado;
+        this.repartidoresCercanos = repartidoresCercanos;
+        this.radioKm = radioKm;
+        this.minimoRepartidores = Math.max(1, minimoRepartidores);
+        this.antiguedadMaximaMs = antiguedadMaximaMinutos * 60_000;
+        this.indice = new IndiceGeografico(tamanoCeldaKm);
+        this.registry = registry;
+        this.busquedas = registry.timer("notificaciones.geo.busqueda");
+        Gauge.builder("notificaciones.geo.ubicaciones", indice, IndiceGeografico::tamano).register(registry);
+        this.escucha = new EscuchaReconectable(almacen, "ubicaciones", "ubicaciones_repartidores", null, null,
+                (documentos, cambios, error) -> aplicarCambios(cambios, error));
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!habilitado) {
+            return;
+        }
+        escucha.iniciar();
+    }
+
+    @PreDestroy
+    public void detener() {
+        escucha.cancelar();
+    }
+
+    public boolean isHabilitado() {
+        return habilitado;
+    }
+
+    /**
+     * Repartidores a los que se difunde un paquete ubicado en (latitud, longitud)
+     *
+     * @param tokensPorUsuario todos los repartidores con token (userId -> token)
+     * @return los más cercanos con su token, o el mismo mapa si no aplica el filtro geográfico
+     */
+    public Map<String, String> seleccionar(Map<String, String> tokensPorUsuario, Double latitud, Double longitud) {
+        if (!habilitado || !sincronizado || latitud == null || longitud == null || tokensPorUsuario.isEmpty()) {
+            return tokensPorUsuario;
+        }
+
+        Timer.Sample muestra = Timer.start(registry);
+        List<String> cercanos = indice.cercanos(latitud, longitud, repartidoresCercanos, radioKm,
+                System.currentTimeMillis() - antiguedadMaximaMs, tokensPorUsuario::containsKey);
+        muestra.stop(busquedas);
+
+        if (cercanos.size() < minimoRepartidores) {
+            registry.counter("notificaciones.geo.difusiones", "alcance", "todos").increment();
+            log.debug("Pocos repartidores cerca, se notifica a todos cercanos={} lat={} lon={}", cercanos.size(),
+                    latitud, longitud);
+            return tokensPorUsuario;
+        }
+        Map<String, String> seleccionados = new HashMap<>(cercanos.size() * 2);
+        for (String userId : cercanos) {
+            seleccionados.put(userId, tokensPorUsuario.get(userId));
+        }
+        registry.counter("notificaciones.geo.difusiones", "alcance", "cercanos").increment();
+        return seleccionados;
+    }
+
+    private void aplicarCambios(List<CambioDocumento> cambios, Exception error) {
+        if (error != null) {
+            // Sin listener el índice envejece: mejor notificar a todos que a repartidores que ya se fueron
+            // Al reconectarse llegan otra vez todas como AGREGADO; las borradas mientras tanto no
+            sincronizado = false;
+            indice.limpiar();
+            log.warn("Listener de ubicaciones detenido: {}", error.getMessage());
+            return;
+        }
+
+        for (CambioDocumento cambio : cambios) {
+            Documento doc = cambio.getDocumento();
+            if (cambio.getTipo() == CambioDocumento.Tipo.ELIMINADO) {
+                indice.quitar(doc.getId());
+                continue;
+            }
+            Double latitud = doc.getDouble("latitud");
+            Double longitud = doc.getDouble("longitud");
+            if (latitud == null || longitud == null) {
+                indice.quitar(doc.getId());
+                continue;
+            }
+            // La app guarda la hora local sin zona; la hora de escritura del servidor es confiable
+            long marcaMs = doc.getActualizado() != null ? doc.getActualizado().toEpochMilli()
+                    : System.currentTimeMillis();
+            indice.actualizar(doc.getId(), latitud, longitud, marcaMs);
+        }
+
+        if (!sincronizado) {
+            log.info("Índice de ubicaciones sincronizado repartidores={}", indice.tamano());
+        }
+        sincronizado = true;
+    }
+}
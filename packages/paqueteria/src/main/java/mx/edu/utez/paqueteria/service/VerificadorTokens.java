@@ -0,0 +1,16 @@
+package mx.edu.utez.paqueteria.service;
+
+import mx.edu.utez.paqueteria.exception.NoAutenticadoException;
+
+/**
+ * Puerto para verificar los ID tokens de Firebase Authentication con que la app llama a la API.
+ * Permite sustituir Firebase por un doble en memoria en pruebas de carga.
+ */
+public interface VerificadorTokens {
+
+    /**
+     * @return uid del usuario dueño del token
+     * @throws NoAutenticadoException si el token no es válido, expiró o fue revocado
+     */
+    String verificar(String idToken);
+}
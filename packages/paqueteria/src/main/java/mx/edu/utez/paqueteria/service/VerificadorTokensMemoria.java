@@ -0,0 +1,26 @@
+package mx.edu.utez.paqueteria.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * VerificadorTokens en memoria para pruebas de carga (notificaciones.backend=memoria):
+ * el token es directamente el uid del usuario, sin firma. Nunca usar con datos reales.
+ */
+@Component
+@ConditionalOnProperty(name = "notificaciones.backend", havingValue = "memoria")
+public class VerificadorTokensMemoria implements VerificadorTokens {
+
+    private static final Logger log = LoggerFactory.getLogger(VerificadorTokensMemoria.class);
+
+    public VerificadorTokensMemoria() {
+        log.warn("Usando verificador de tokens en memoria: el token Bearer se toma como uid sin verificar");
+    }
+
+    @Override
+    public String verificar(String idToken) {
+        return idToken;
+    }
+}
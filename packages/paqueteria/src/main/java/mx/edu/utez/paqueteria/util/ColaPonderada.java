@@ -0,0 +1,195 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola bloqueante con varios carriles que se atienden por turno ponderado.
+ * Con pesos 4 y 1, mientras ambos carriles tengan elementos se entregan 4 del primero por cada
+ * uno del segundo, intercalados (round robin ponderado suave); un carril vacío no consume turnos.
+ * Dentro de cada carril el orden es FIFO. La capacidad es un total compartido: un carril usa el lugar
+ * que los demás no ocupan, hasta su propio máximo, que sirve para que uno no deje sin lugar a otro.
+ * Quien espera en poner cuenta como ocupando lugar: el que se libera es suyo y no de quien llega
+ * después con ofrecer.
+ */
+public final class ColaPonderada<T> {
+
+    private final ArrayDeque<T>[] carriles;
+    private final int[] pesos;
+    private final int[] creditos;
+    private final int[] esperando;
+    private final int[] maximos;
+    private final int capacidad;
+    private int tamano;
+    private int esperandoTotal;
+    private final ReentrantLock candado = new ReentrantLock();
+    private final Condition hayElementos = candado.newCondition();
+    private final Condition hayEspacio = candado.newCondition();
+
+    /**
+     * Cada carril puede ocupar toda la capacidad
+     *
+     * @param pesos     peso de cada carril (mayor a cero); el índice es el número de carril
+     * @param capacidad elementos que caben entre todos los carriles
+     */
+    public ColaPonderada(int[] pesos, int capacidad) {
+        this(pesos, capacidad, null);
+    }
+
+    /**
+     * @param pesos     peso de cada carril (mayor a cero); el índice es el número de carril
+     * @param capacidad elementos que caben entre todos los carriles
+     * @param maximos   elementos que puede ocupar cada carril dentro del total, o null para no limitarlos
+     */
+    @SuppressWarnings("unchecked")
+    public ColaPonderada(int[] pesos, int capacidad, int[] maximos) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor a cero");
+        }
+        this.carriles = new ArrayDeque[pesos.length];
+        this.pesos = pesos.clone();
+        this.creditos = new int[pesos.length];
+        this.esperando = new int[pesos.length];
+        this.maximos = new int[pesos.length];
+        this.capacidad = capacidad;
+        for (int i = 0; i < pesos.length; i++) {
+            if (pesos[i] <= 0) {
+                throw new IllegalArgumentException("El peso de cada carril debe ser mayor a cero");
+            }
+            if (maximos != null && maximos[i] <= 0) {
+                throw new IllegalArgumentException("El máximo de cada carril debe ser mayor a cero");
+            }
+            this.maximos[i] = maximos != null ? Math.min(maximos[i], capacidad) : capacidad;
+            carriles[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Agrega sin esperar
+     *
+     * @return false si la cola o el carril están llenos, contando a quienes esperan en poner
+     */
+    public boolean ofrecer(int carril, T elemento) {
+        candado.lock();
+        try {
+            if (carriles[carril].size() + esperando[carril] >= maximos[carril]
+                    || tamano + esperandoTotal >= capacidad) {
+                return false;
+            }
+            agregar(carril, elemento);
+            return true;
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Agrega esperando a que haya espacio en la cola y en el carril
+     */
+    public void poner(int carril, T elemento) throws InterruptedException {
+        candado.lockInterruptibly();
+        try {
+            esperando[carril]++;
+            esperandoTotal++;
+            try {
+                while (carriles[carril].size() >= maximos[carril] || tamano >= capacidad) {
+                    hayEspacio.await();
+                }
+            } finally {
+                esperando[carril]--;
+                esperandoTotal--;
+            }
+            agregar(carril, elemento);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Siguiente elemento del carril al que le toca turno, esperando si todos están vacíos
+     */
+    public T tomar() throws InterruptedException {
+        candado.lockInterruptibly();
+        try {
+            int carril;
+            while ((carril = siguienteCarril()) < 0) {
+                hayElementos.await();
+            }
+            return extraer(carril);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Siguiente elemento de un solo carril, para workers dedicados a él
+     */
+    public T tomar(int carril) throws InterruptedException {
+        candado.lockInterruptibly();
+        try {
+            while (carriles[carril].isEmpty()) {
+                hayElementos.await();
+            }
+            return extraer(carril);
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    public int tamano(int carril) {
+        candado.lock();
+        try {
+            return carriles[carril].size();
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    public int tamano() {
+        candado.lock();
+        try {
+            return tamano;
+        } finally {
+            candado.unlock();
+        }
+    }
+
+    /**
+     * Round robin ponderado suave entre los carriles con elementos: cada uno suma su peso al
+     * crédito, gana el de mayor crédito y se le resta la suma de pesos participantes
+     *
+     * @return el carril elegido, o -1 si todos están vacíos
+     */
+    private int siguienteCarril() {
+        int elegido = -1;
+        int pesoParticipantes = 0;
+        for (int i = 0; i < carriles.length; i++) {
+            if (carriles[i].isEmpty()) {
+                continue;
+            }
+            creditos[i] += pesos[i];
+            pesoParticipantes += pesos[i];
+            if (elegido < 0 || creditos[i] > creditos[elegido]) {
+                elegido = i;
+            }
+        }
+        if (elegido >= 0) {
+            creditos[elegido] -= pesoParticipantes;
+        }
+        return elegido;
+    }
+
+    private void agregar(int carril, T elemento) {
+        carriles[carril].addLast(elemento);
+        tamano++;
+        hayElementos.signalAll();
+    }
+
+    private T extraer(int carril) {
+        T elemento = carriles[carril].pollFirst();
+        tamano--;
+        hayEspacio.signalAll();
+        return elemento;
+    }
+}
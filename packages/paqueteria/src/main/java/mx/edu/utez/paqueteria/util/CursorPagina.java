@@ -0,0 +1,49 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Cursor opaco de paginación por llave (fecha, id) del último documento entregado.
+ * Se codifica en base64url para que el cliente lo devuelva tal cual en ?cursor=.
+ */
+public final class CursorPagina {
+
+    private final long fechaMs;
+    private final String id;
+
+    public CursorPagina(long fechaMs, String id) {
+        this.fechaMs = fechaMs;
+        this.id = id;
+    }
+
+    public long getFechaMs() {
+        return fechaMs;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String codificar() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((fechaMs + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException si el cursor no lo generó codificar()
+     */
+    public static CursorPagina decodificar(String cursor) {
+        try {
+            String texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separador = texto.indexOf(':');
+            if (separador <= 0 || separador == texto.length() - 1) {
+                throw new IllegalArgumentException("Cursor inválido: " + cursor);
+            }
+            return new CursorPagina(Long.parseLong(texto.substring(0, separador)), texto.substring(separador + 1));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException y los errores de base64 también son IllegalArgumentException
+            throw new IllegalArgumentException("Cursor inválido: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package mx.edu.utez.paqueteria.util;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Adaptadores entre los futuros de Google Cloud y CompletableFuture
+ */
+public final class Futuros {
+
+    private Futuros() {
+    }
+
+    /**
+     * Convierte un ApiFuture en CompletableFuture sin bloquear ningún hilo
+     */
+    public static <T> CompletableFuture<T> aCompletable(ApiFuture<T> futuro) {
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        ApiFutures.addCallback(futuro, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(T valor) {
+                resultado.complete(valor);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                resultado.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return resultado;
+    }
+
+    /**
+     * join que relanza la excepción original en lugar de envolverla en CompletionException
+     */
+    public static <T> T esperar(CompletableFuture<T> futuro) {
+        try {
+            return futuro.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+}
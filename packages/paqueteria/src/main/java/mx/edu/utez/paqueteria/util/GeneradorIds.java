@@ -0,0 +1,94 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generador de ids únicos y ordenables por tiempo, estilo Snowflake.
+ *
+ * 64 bits: 42 de milisegundos desde 2025-01-01, 10 de nodo y 12 de secuencia.
+ * Se codifican en 13 caracteres Crockford base32 de ancho fijo, así el orden
+ * lexicográfico (el que usa Firestore para los ids) coincide con el cronológico.
+ * Es libre de bloqueos: el último milisegundo y la secuencia viven en un AtomicLong.
+ */
+@Component
+public class GeneradorIds {
+
+    private static final long EPOCA = 1735689600000L; // 2025-01-01T00:00:00Z
+    private static final int BITS_NODO = 10;
+    private static final int BITS_SECUENCIA = 12;
+    private static final long MAX_NODO = (1L << BITS_NODO) - 1;
+    private static final long MASCARA_SECUENCIA = (1L << BITS_SECUENCIA) - 1;
+    private static final char[] ALFABETO = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int LONGITUD = 13;
+
+    private final long nodo;
+    /** (milisegundos desde EPOCA << BITS_SECUENCIA) | secuencia del último id emitido */
+    private final AtomicLong estado = new AtomicLong();
+
+    public GeneradorIds(@Value("${notificaciones.ids.nodo:-1}") long nodo) {
+        this.nodo = nodo >= 0 ? nodo & MAX_NODO : nodoPorHost();
+    }
+
+    public String siguiente() {
+        long actual;
+        long nuevo;
+        do {
+            actual = estado.get();
+            long ahora = System.currentTimeMillis() - EPOCA;
+            // Mismo milisegundo o reloj atrasado: se incrementa la secuencia; si se desborda
+            // el acarreo pasa al milisegundo siguiente y el id sigue siendo creciente.
+            nuevo = ahora > (actual >>> BITS_SECUENCIA) ? ahora << BITS_SECUENCIA : actual + 1;
+        } while (!estado.compareAndSet(actual, nuevo));
+
+        long milisegundos = nuevo >>> BITS_SECUENCIA;
+        long id = (milisegundos << (BITS_NODO + BITS_SECUENCIA)) | (nodo << BITS_SECUENCIA)
+                | (nuevo & MASCARA_SECUENCIA);
+        return codificar(id);
+    }
+
+    public long getNodo() {
+        return nodo;
+    }
+
+    /**
+     * Milisegundos epoch en que se generó el id; así un outbox grabado conserva el ritmo de sus eventos
+     *
+     * @throws IllegalArgumentException si el id no tiene el formato de este generador
+     */
+    public static long instante(String id) {
+        if (id == null || id.length() != LONGITUD) {
+            throw new IllegalArgumentException("Id inválido: " + id);
+        }
+        String alfabeto = String.valueOf(ALFABETO);
+        long valor = 0;
+        for (int i = 0; i < LONGITUD; i++) {
+            int digito = alfabeto.indexOf(id.charAt(i));
+            if (digito < 0) {
+                throw new IllegalArgumentException("Id inválido: " + id);
+            }
+            valor = (valor << 5) | digito;
+        }
+        return (valor >>> (BITS_NODO + BITS_SECUENCIA)) + EPOCA;
+    }
+
+    static String codificar(long id) {
+        char[] caracteres = new char[LONGITUD];
+        for (int i = LONGITUD - 1; i >= 0; i--) {
+            caracteres[i] = ALFABETO[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(caracteres);
+    }
+
+    private static long nodoPorHost() {
+        try {
+            return InetAddress.getLocalHost().getHostName().hashCode() & MAX_NODO;
+        } catch (Exception e) {
+            return ProcessHandle.current().pid() & MAX_NODO;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Índice espacial en memoria sobre una rejilla fija de celdas en grados.
+ * Cada posición vive en la celda que le corresponde; una búsqueda recorre anillos de celdas
+ * alrededor del punto y se detiene en cuanto ningún anillo pendiente puede mejorar el resultado,
+ * así solo toca las celdas cercanas sin importar cuántas posiciones haya en total.
+ * Las escrituras se serializan y las lecturas no bloquean. No contempla el cruce del meridiano 180.
+ */
+public final class IndiceGeografico {
+
+    private static final double RADIO_TIERRA_KM = 6371.0088;
+    private static final double KM_POR_GRADO = 111.32;
+
+    private final double gradosCelda;
+    private final double kmCelda;
+    private final Map<String, Posicion> posiciones = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> celdas = new ConcurrentHashMap<>();
+
+    /**
+     * @param tamanoCeldaKm lado de la celda; unas cinco celdas por radio de búsqueda es un buen punto de partida
+     */
+    public IndiceGeografico(double tamanoCeldaKm) {
+        if (tamanoCeldaKm <= 0) {
+            throw new IllegalArgumentException("El tamaño de celda debe ser mayor a cero");
+        }
+        this.kmCelda = tamanoCeldaKm;
+        this.gradosCelda = tamanoCeldaKm / KM_POR_GRADO;
+    }
+
+    /**
+     * Agrega o mueve una posición
+     *
+     * @param marcaMs momento del reporte, para descartar posiciones viejas al buscar
+     */
+    public synchronized void actualizar(String id, double latitud, double longitud, long marcaMs) {
+        long celda = celda(fila(latitud), columna(longitud));
+        Posicion anterior = posiciones.put(id, new Posicion(latitud, longitud, celda, marcaMs));
+        if (anterior != null && anterior.celda != celda) {
+            quitarDeCelda(id, anterior.celda);
+        }
+        if (anterior == null || anterior.celda != celda) {
+            celdas.computeIfAbsent(celda, c -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    public synchronized void quitar(String id) {
+        Posicion anterior = posiciones.remove(id);
+        if (anterior != null) {
+            quitarDeCelda(id, anterior.celda);
+        }
+    }
+
+    public synchronized void limpiar() {
+        posiciones.clear();
+        celdas.clear();
+    }
+
+    public int tamano() {
+        return posiciones.size();
+    }
+
+    /**
+     * Hasta {@code k} ids más cercanos al punto dentro de {@code radioKm}, del más cercano al más lejano
+     *
+     * @param desdeMs  se ignoran las posiciones reportadas antes de este momento
+     * @param aceptar  filtro adicional por id (p. ej. solo los que tienen token)
+     */
+    public List<String> cercanos(double latitud, double longitud, int k, double radioKm, long desdeMs,
+            Predicate<String> aceptar) {
+        if (k <= 0 || posiciones.isEmpty()) {
+            return List.of();
+        }
+        // Montículo de máximos: la cabeza es el peor de los k mejores
+        PriorityQueue<Candidato> mejores = new PriorityQueue<>(k + 1,
+                Comparator.comparingDouble((Candidato c) -> c.distanciaKm).reversed());
+        int fila = fila(latitud);
+        int columna = columna(longitud);
+        int anillos = (int) Math.ceil(radioKm / kmCeldaMinimo(latitud, radioKm)) + 1;
+
+        for (int anillo = 0; anillo <= anillos; anillo++) {
+            if (mejores.size() == k && mejores.peek().distanciaKm <= distanciaMinimaAnillo(anillo, latitud)) {
+                break;
+            }
+            if (8L * anillo > celdas.size()) {
+                // Con pocas celdas ocupadas sale más barato revisar directamente las que faltan
+                evaluarDesdeAnillo(anillo, fila, columna, latitud, longitud, k, radioKm, desdeMs, aceptar, mejores);
+                break;
+            }
+            for (int f = fila - anillo; f <= fila + anillo; f++) {
+                // En las filas intermedias del anillo solo cuentan las dos columnas del borde
+                int paso = (f == fila - anillo || f == fila + anillo) ? 1 : Math.max(1, 2 * anillo);
+                for (int c = columna - anillo; c <= columna + anillo; c += paso) {
+                    Set<String> ids = celdas.get(celda(f, c));
+                    if (ids != null) {
+                        evaluar(ids, latitud, longitud, k, radioKm, desdeMs, aceptar, mejores);
+                    }
+                }
+            }
+        }
+
+        List<String> resultado = new ArrayList<>(mejores.size());
+        while (!mejores.isEmpty()) {
+            resultado.add(mejores.poll().id);
+        }
+        Collections.reverse(resultado);
+        return resultado;
+    }
+
+    /**
+     * Distancia de gran círculo (haversine) en kilómetros
+     */
+    public static double distanciaKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * RADIO_TIERRA_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void evaluar(Set<String> ids, double latitud, double longitud, int k, double radioKm, long desdeMs,
+            Predicate<String> aceptar, PriorityQueue<Candidato> mejores) {
+        for (String id : ids) {
+            Posicion posicion = posiciones.get(id);
+            if (posicion == null || posicion.marcaMs < desdeMs || !aceptar.test(id)) {
+                continue;
+            }
+            double distancia = distanciaKm(latitud, longitud, posicion.latitud, posicion.longitud);
+            if (distancia > radioKm) {
+                continue;
+            }
+            if (mejores.size() < k) {
+                mejores.add(new Candidato(id, distancia));
+            } else if (distancia < mejores.peek().distanciaKm) {
+                mejores.poll();
+                mejores.add(new Candidato(id, distancia));
+            }
+        }
+    }
+
+    private void evaluarDesdeAnillo(int anillo, int fila, int columna, double latitud, double longitud, int k,
+            double radioKm, long desdeMs, Predicate<String> aceptar, PriorityQueue<Candidato> mejores) {
+        celdas.forEach((celda, ids) -> {
+            int distancia = Math.max(Math.abs((int) (celda >> 32) - fila), Math.abs((int) (long) celda - columna));
+            if (distancia >= anillo) {
+                evaluar(ids, latitud, longitud, k, radioKm, desdeMs, aceptar, mejores);
+            }
+        });
+    }
+
+    /**
+     * Cota inferior de la distancia a cualquier punto en el anillo indicado o más lejos:
+     * hay al menos (anillo - 1) celdas completas de por medio
+     */
+    private double distanciaMinimaAnillo(int anillo, double latitud) {
+        return Math.max(0, anillo - 1) * kmCeldaMinimo(latitud, anillo * kmCelda);
+    }
+
+    /**
+     * Lado más corto de una celda en la franja de latitudes a {@code alcanceKm} del punto;
+     * hacia los polos las celdas se angostan en longitud
+     */
+    private double kmCeldaMinimo(double latitud, double alcanceKm) {
+        double latitudExtrema = Math.min(89.9, Math.abs(latitud) + alcanceKm / KM_POR_GRADO + gradosCelda);
+        return kmCelda * Math.cos(Math.toRadians(latitudExtrema));
+    }
+
+    private void quitarDeCelda(String id, long celda) {
+        Set<String> ids = celdas.get(celda);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                celdas.remove(celda);
+            }
+        }
+    }
+
+    private int fila(double latitud) {
+        return (int) Math.floor((latitud + 90) / gradosCelda);
+    }
+
+    private int columna(double longitud) {
+        return (int) Math.floor((longitud + 180) / gradosCelda);
+    }
+
+    private static long celda(int fila, int columna) {
+        return ((long) fila << 32) | (columna & 0xFFFFFFFFL);
+    }
+
+    private static final class Posicion {
+        private final double latitud;
+        private final double longitud;
+        private final long celda;
+        private final long marcaMs;
+
+        private Posicion(double latitud, double longitud, long celda, long marcaMs) {
+            this.latitud = latitud;
+            this.longitud = longitud;
+            this.celda = celda;
+            this.marcaMs = marcaMs;
+        }
+    }
+
+    private static final class Candidato {
+        private final String id;
+        private final double distanciaKm;
+
+        private Candidato(String id, double distanciaKm) {
+            this.id = id;
+            this.distanciaKm = distanciaKm;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Cubeta de tokens cuya tasa se ajusta con AIMD (aumento aditivo, disminución multiplicativa).
+ * Cada llamada reserva sus permisos y recibe cuánto debe esperar; la cubeta puede quedar en deuda,
+ * así las llamadas que llegan juntas se reparten en el tiempo en orden de llegada en lugar de
+ * competir. Cada éxito sube la tasa hasta sumar unos {@code incremento} permisos/s por segundo
+ * a plena carga; una señal de saturación (cuota agotada) la multiplica por {@code factorReduccion},
+ * como máximo una vez por segundo para que un lote con cientos de rechazos cuente como uno.
+ * La deuda está acotada: una reserva que tendría que esperar más de lo que acepta el llamador se
+ * rechaza sin tomar permisos. Las reservas prioritarias (una notificación a un cliente) no hacen fila
+ * detrás de la deuda de las masivas: además de la cubeta común tienen una propia que se llena a
+ * {@code fraccionPrioritaria} de la tasa, y esperan lo menos que pida cualquiera de las dos. Lo que
+ * consumen se descuenta también de la común, así las masivas que llegan después les ceden el paso.
+ */
+public class LimitadorAdaptativo {
+
+    private static final long ENFRIAMIENTO_NS = TimeUnit.SECONDS.toNanos(1);
+    private static final double NS_POR_SEGUNDO = 1_000_000_000d;
+    private static final double FRACCION_PRIORITARIA = 0.2;
+
+    /** reservar devuelve esto cuando la espera superaría el máximo; no se tomó ningún permiso */
+    public static final long RECHAZADA = -1;
+
+    private final double tasaMinima;
+    private final double tasaMaxima;
+    private final double incremento;
+    private final double factorReduccion;
+    private final double fraccionPrioritaria;
+    private final LongSupplier relojNs;
+
+    private double tasa;
+    private double tokens;
+    private double tokensPrioritarios;
+    private long ultimaRecargaNs;
+    private long ultimaReduccionNs;
+
+    /**
+     * @param tasaInicial permisos por segundo al arrancar; también es la ráfaga inicial disponible
+     */
+    public LimitadorAdaptativo(double tasaInicial, double tasaMinima, double tasaMaxima, double incremento,
+            double factorReduccion) {
+        this(tasaInicial, tasaMinima, tasaMaxima, incremento, factorReduccion, FRACCION_PRIORITARIA);
+    }
+
+    /**
+     * @param fraccionPrioritaria parte de la tasa reservada a las llamadas prioritarias cuando las masivas
+     *                            dejaron la cubeta en deuda
+     */
+    public LimitadorAdaptativo(double tasaInicial, double tasaMinima, double tasaMaxima, double incremento,
+            double factorReduccion, double fraccionPrioritaria) {
+        this(tasaInicial, tasaMinima, tasaMaxima, incremento, factorReduccion, fraccionPrioritaria,
+                System::nanoTime);
+    }
+
+    LimitadorAdaptativo(double tasaInicial, double tasaMinima, double tasaMaxima, double incremento,
+            double factorReduccion, LongSupplier relojNs) {
+        this(tasaInicial, tasaMinima, tasaMaxima, incremento, factorReduccion, FRACCION_PRIORITARIA, relojNs);
+    }
+
+    LimitadorAdaptativo(double tasaInicial, double tasaMinima, double tasaMaxima, double incremento,
+            double factorReduccion, double fraccionPrioritaria, LongSupplier relojNs) {
+        if (tasaMinima <= 0 || tasaMaxima < tasaMinima) {
+            throw new IllegalArgumentException("Se requiere 0 < tasaMinima <= tasaMaxima");
+        }
+        if (factorReduccion <= 0 || factorReduccion >= 1) {
+            throw new IllegalArgumentException("El factor de reducción debe estar entre 0 y 1");
+        }
+        if (fraccionPrioritaria <= 0 || fraccionPrioritaria > 1) {
+            throw new IllegalArgumentException("La fracción prioritaria debe estar entre 0 y 1");
+        }
+        this.tasaMinima = tasaMinima;
+        this.tasaMaxima = tasaMaxima;
+        this.incremento = Math.max(0, incremento);
+        this.factorReduccion = factorReduccion;
+        this.fraccionPrioritaria = fraccionPrioritaria;
+        this.relojNs = relojNs;
+        this.tasa = Math.min(tasaMaxima, Math.max(tasaMinima, tasaInicial));
+        this.tokens = tasa;
+        this.tokensPrioritarios = tasa * fraccionPrioritaria;
+        this.ultimaRecargaNs = relojNs.getAsLong();
+        this.ultimaReduccionNs = ultimaRecargaNs - ENFRIAMIENTO_NS;
+    }
+
+    /**
+     * Reserva permisos sin bloquear y sin límite de espera, detrás de todas las reservas anteriores
+     *
+     * @return nanosegundos que el llamador debe esperar antes de usarlos (0 si hay tokens)
+     */
+    public long reservar(int permisos) {
+        return reservar(permisos, false, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reserva permisos sin bloquear si la espera no supera {@code esperaMaximaNs}
+     *
+     * @param prioritaria la llamada no espera detrás de la deuda de las masivas
+     * @return nanosegundos que el llamador debe esperar antes de usarlos (0 si hay tokens), o
+     *         {@link #RECHAZADA} si serían más de esperaMaximaNs
+     */
+    public synchronized long reservar(int permisos, boolean prioritaria, long esperaMaximaNs) {
+        recargar();
+        long esperaNs = espera(tokens - permisos, tasa);
+        if (prioritaria) {
+            esperaNs = Math.min(esperaNs, espera(tokensPrioritarios - permisos, tasa * fraccionPrioritaria));
+        }
+        if (esperaNs > esperaMaximaNs) {
+            return RECHAZADA;
+        }
+        tokens -= permisos;
+        if (prioritaria) {
+            tokensPrioritarios -= permisos;
+        }
+        return esperaNs;
+    }
+
+    /**
+     * Nanosegundos que tarda una cubeta a {@code tasa} en volver a cero desde {@code saldo}
+     */
+    private static long espera(double saldo, double tasa) {
+        return saldo >= 0 ? 0 : (long) (-saldo / tasa * NS_POR_SEGUNDO);
+    }
+
+    /**
+     * La llamada con {@code permisos} terminó sin señales de saturación
+     */
+    public synchronized void registrarExito(int permisos) {
+        recargar();
+        tasa = Math.min(tasaMaxima, tasa + incremento * permisos / tasa);
+    }
+
+    /**
+     * El servicio respondió con cuota agotada; reduce la tasa si no se redujo en el último segundo
+     */
+    public synchronized void registrarSaturacion() {
+        recargar();
+        long ahora = ultimaRecargaNs;
+        if (ahora - ultimaReduccionNs < ENFRIAMIENTO_NS) {
+            return;
+        }
+        ultimaReduccionNs = ahora;
+        tasa = Math.max(tasaMinima, tasa * factorReduccion);
+        // Los tokens acumulados a la tasa anterior ya no son sostenibles
+        tokens = Math.min(tokens, tasa);
+        tokensPrioritarios = Math.min(tokensPrioritarios, tasa * fraccionPrioritaria);
+    }
+
+    /**
+     * Permisos por segundo actuales
+     */
+    public synchronized double getTasa() {
+        return tasa;
+    }
+
+    /**
+     * Suma los tokens generados desde la última recarga, con tope de un segundo de ráfaga
+     */
+    private void recargar() {
+        long ahora = relojNs.getAsLong();
+        double segundos = (ahora - ultimaRecargaNs) / NS_POR_SEGUNDO;
+        tokens = Math.min(tasa, tokens + segundos * tasa);
+        double tasaPrioritaria = tasa * fraccionPrioritaria;
+        tokensPrioritarios = Math.min(tasaPrioritaria, tokensPrioritarios + segundos * tasaPrioritaria);
+        ultimaRecargaNs = ahora;
+    }
+}
@@ -0,0 +1,28 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utilidades para dividir colecciones en lotes
+ */
+public final class Lotes {
+
+    private Lotes() {
+    }
+
+    /**
+     * Divide una lista en sublistas consecutivas de como máximo {@code tamano} elementos.
+     * Las sublistas son vistas de la lista original, no copias.
+     */
+    public static <T> List<List<T>> particionar(List<T> elementos, int tamano) {
+        if (tamano <= 0) {
+            throw new IllegalArgumentException("El tamaño de lote debe ser mayor a cero");
+        }
+        List<List<T>> lotes = new ArrayList<>((elementos.size() + tamano - 1) / tamano);
+        for (int inicio = 0; inicio < elementos.size(); inicio += tamano) {
+            lotes.add(elementos.subList(inicio, Math.min(inicio + tamano, elementos.size())));
+        }
+        return lotes;
+    }
+}
@@ -0,0 +1,79 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Texto con variables {nombre} analizado una sola vez.
+ * Se guarda como tramos literales intercalados con nombres de variable, así renderizar solo
+ * concatena en un StringBuilder de tamaño estimado, sin volver a recorrer el patrón.
+ * Una llave sin cerrar o vacía ({}) se conserva como texto literal.
+ */
+public final class PlantillaNotificacion {
+
+    private final String[] literales;
+    private final String[] variables;
+    private final int longitudLiterales;
+
+    private PlantillaNotificacion(String[] literales, String[] variables) {
+        this.literales = literales;
+        this.variables = variables;
+        int longitud = 0;
+        for (String literal : literales) {
+            longitud += literal.length();
+        }
+        this.longitudLiterales = longitud;
+    }
+
+    public static PlantillaNotificacion compilar(String texto) {
+        List<String> literales = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < texto.length()) {
+            int apertura = texto.indexOf('{', i);
+            int cierre = apertura < 0 ? -1 : texto.indexOf('}', apertura + 1);
+            if (apertura < 0 || cierre < 0) {
+                literal.append(texto, i, texto.length());
+                break;
+            }
+            if (cierre == apertura + 1) {
+                literal.append(texto, i, cierre + 1);
+            } else {
+                literal.append(texto, i, apertura);
+                literales.add(literal.toString());
+                variables.add(texto.substring(apertura + 1, cierre));
+                literal.setLength(0);
+            }
+            i = cierre + 1;
+        }
+        literales.add(literal.toString());
+        return new PlantillaNotificacion(literales.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    /**
+     * @param valores valor de cada variable; las que falten o sean null quedan vacías
+     */
+    public String renderizar(Map<String, String> valores) {
+        if (variables.length == 0) {
+            return literales[0];
+        }
+        StringBuilder texto = new StringBuilder(longitudLiterales + 16 * variables.length);
+        for (int i = 0; i < variables.length; i++) {
+            texto.append(literales[i]);
+            String valor = valores.get(variables[i]);
+            if (valor != null) {
+                texto.append(valor);
+            }
+        }
+        return texto.append(literales[variables.length]).toString();
+    }
+
+    /**
+     * Nombres de las variables en el orden en que aparecen
+     */
+    public List<String> getVariables() {
+        return List.of(variables);
+    }
+}
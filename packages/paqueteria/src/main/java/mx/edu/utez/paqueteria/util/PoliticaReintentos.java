@@ -0,0 +1,37 @@
+package mx.edu.utez.paqueteria.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reintentos acotados con backoff exponencial y jitter completo: la espera antes del
+ * reintento n es aleatoria entre 0 y min(esperaMaxima, esperaBase * 2^n), así los clientes
+ * que fallaron juntos no reintentan juntos.
+ */
+public class PoliticaReintentos {
+
+    private final int reintentos;
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+
+    public PoliticaReintentos(int reintentos, long esperaBaseMs, long esperaMaximaMs) {
+        this.reintentos = Math.max(0, reintentos);
+        this.esperaBaseMs = Math.max(1, esperaBaseMs);
+        this.esperaMaximaMs = Math.max(this.esperaBaseMs, esperaMaximaMs);
+    }
+
+    /**
+     * @param intento 0 para la espera antes del primer reintento
+     */
+    public long espera(int intento) {
+        long tope = Math.min(esperaMaximaMs, esperaBaseMs << Math.min(intento, 20));
+        return ThreadLocalRandom.current().nextLong(tope + 1);
+    }
+
+    public int getReintentos() {
+        return reintentos;
+    }
+
+    public long getEsperaMaximaMs() {
+        return esperaMaximaMs;
+    }
+}
@@ -0,0 +1,108 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.firebase.messaging.MessagingErrorCode;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AgrupacionNotificacionesServiceTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final EnviadorPushProgramado enviador = new EnviadorPushProgramado();
+	private final AlmacenDocumentosMemoria almacen = new AlmacenDocumentosMemoria(
+			new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES), 0, 0, 0, 2, 0, 0);
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+			new PoliticaReintentos(0, 1, 1), new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5),
+			new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5), 30, registry);
+	private final BandejaNotificacionesService bandeja = new BandejaNotificacionesService(almacen, resiliencia, 20,
+			100, 100, 60, registry);
+	private final ExecutorService fanOut = Executors.newFixedThreadPool(2);
+	private final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor();
+	private final AgrupacionNotificacionesService agrupacion = new AgrupacionNotificacionesService(
+			new FirebaseMessagingService(fanOut, 500, 30, enviador,
+					// Sin tokens UNREGISTERED la depuración no llega a usar el registro ni la lectura
+					new DepuracionTokensService(almacen, null, null, resiliencia, 100, 1_000, registry), registry),
+			new HistorialNotificacionesService(almacen, bandeja, new GeneradorIds(1), resiliencia, 2, true, registry),
+			new PlantillasNotificacionService("es", List.of("es", "en")), temporizador, 200, 20, registry);
+
+	@AfterEach
+	void cerrar() {
+		temporizador.shutdownNow();
+		fanOut.shutdownNow();
+		almacen.detener();
+	}
+
+	@Test
+	void lasNotificacionesDeUnaVentanaSalenEnUnSoloPush() throws Exception {
+		CompletableFuture<Void> primera = agrupacion.agregar(notificacion("cli0", "pkg0"), "token-cli0", "es");
+		CompletableFuture<Void> segunda = agrupacion.agregar(notificacion("cli0", "pkg3"), "token-cli0", "es");
+		CompletableFuture<Void> otroCliente = agrupacion.agregar(notificacion("cli1", "pkg1"), "token-cli1", null);
+
+		// No se confirma mientras solo está en memoria
+		assertFalse(primera.isDone());
+		assertSame(primera, segunda);
+
+		primera.get(5, TimeUnit.SECONDS);
+		otroCliente.get(5, TimeUnit.SECONDS);
+		assertEquals(2, enviador.getMensajes());
+		assertEquals(2, bandeja.obtenerPagina("cli0", null, null).getContenido().getNotificaciones().size());
+	}
+
+	@Test
+	void elFuturoFallaSiFcmNoEstaDisponible() {
+		enviador.programar(RespuestaPush.fallo(MessagingErrorCode.UNAVAILABLE, "caído", true, 0));
+
+		CompletableFuture<Void> confirmado = agrupacion.agregar(notificacion("cli0", "pkg0"), "token-cli0", "es");
+
+		ExecutionException error = assertThrows(ExecutionException.class, () -> confirmado.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(ServicioNoDisponibleException.class, error.getCause());
+	}
+
+	@Test
+	void elResumenUsaLasPlantillasDelIdiomaDelUsuario() {
+		List<NotificacionDTO> notificaciones = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			notificaciones.add(notificacion("cli0", "pkg" + i));
+		}
+
+		NotificacionDTO resumen = agrupacion.crearResumen("cli0", "en", notificaciones);
+
+		assertEquals("🚚 5 packages on their way", resumen.getTitulo());
+		assertEquals("Mensaje pkg0\nMensaje pkg1\nMensaje pkg2\nand 2 more", resumen.getMensaje());
+		assertEquals("pkg0,pkg1,pkg2,pkg3,pkg4", resumen.getData().get("paqueteIds"));
+		assertEquals(AgrupacionNotificacionesService.TIPO_RESUMEN, resumen.getTipo());
+
+		NotificacionDTO corto = agrupacion.crearResumen("cli0", "es", notificaciones.subList(0, 2));
+		assertEquals("🚚 2 paquetes en camino", corto.getTitulo());
+		assertEquals("Mensaje pkg0\nMensaje pkg1", corto.getMensaje());
+	}
+
+	private static NotificacionDTO notificacion(String userId, String paqueteId) {
+		return new NotificacionDTO(userId, "Paquete en camino", "Mensaje " + paqueteId, "asignacion",
+				Map.of("paqueteId", paqueteId, "userId", userId));
+	}
+}
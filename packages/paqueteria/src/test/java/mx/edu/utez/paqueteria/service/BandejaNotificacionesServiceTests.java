@@ -0,0 +1,97 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.dto.PaginaNotificacionesDTO;
+import mx.edu.utez.paqueteria.model.NotificacionModel;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BandejaNotificacionesServiceTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final AlmacenDocumentosMemoria almacen = new AlmacenDocumentosMemoria(
+			new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES), 0, 0, 0, 2, 0, 0);
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+			new PoliticaReintentos(0, 1, 1), new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5),
+			new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5), 30, registry);
+	private final BandejaNotificacionesService bandeja = new BandejaNotificacionesService(almacen, resiliencia, 20,
+			100, 100, 60, registry);
+	private final HistorialNotificacionesService historial = new HistorialNotificacionesService(almacen, bandeja,
+			new GeneradorIds(1), resiliencia, 2, true, registry);
+
+	@AfterEach
+	void detener() {
+		almacen.detener();
+	}
+
+	@Test
+	void recorreElHistorialPorCursorDeLaMasRecienteALaMasAntigua() {
+		for (int i = 0; i < 5; i++) {
+			guardar("cli0", "Mensaje " + i);
+		}
+
+		List<String> mensajes = new ArrayList<>();
+		List<Integer> tamanos = new ArrayList<>();
+		String cursor = null;
+		do {
+			PaginaNotificacionesDTO pagina = bandeja.obtenerPagina("cli0", cursor, 2).getContenido();
+			tamanos.add(pagina.getNotificaciones().size());
+			pagina.getNotificaciones().forEach(notificacion -> mensajes.add(notificacion.getMensaje()));
+			assertEquals(5, pagina.getNoLeidas());
+			cursor = pagina.getSiguienteCursor();
+		} while (cursor != null);
+
+		assertEquals(List.of(2, 2, 1), tamanos);
+		assertEquals(List.of("Mensaje 4", "Mensaje 3", "Mensaje 2", "Mensaje 1", "Mensaje 0"), mensajes);
+	}
+
+	@Test
+	void laPrimeraPaginaEnCacheSeRenuevaConHistorialNuevo() {
+		guardar("cli0", "Mensaje 0");
+		BandejaNotificacionesService.Pagina antes = bandeja.obtenerPagina("cli0", null, null);
+		assertEquals(antes.getEtag(), bandeja.obtenerPagina("cli0", null, null).getEtag());
+
+		guardar("cli0", "Mensaje 1");
+		BandejaNotificacionesService.Pagina despues = bandeja.obtenerPagina("cli0", null, null);
+
+		assertNotEquals(antes.getEtag(), despues.getEtag());
+		List<NotificacionModel> notificaciones = despues.getContenido().getNotificaciones();
+		assertEquals("Mensaje 1", notificaciones.get(0).getMensaje());
+		assertEquals(2, despues.getContenido().getNoLeidas());
+		assertNull(despues.getContenido().getSiguienteCursor());
+	}
+
+	@Test
+	void lasDifusionesSeResuelvenYUnCursorInvalidoSeRechaza() {
+		historial.guardarDifusionAsync(List.of("cli0", "cli1"), "Nuevo paquete", "Hay un paquete cerca",
+				"nuevo_pedido", Map.of("paqueteId", "pkg0")).join();
+
+		NotificacionModel notificacion = bandeja.obtenerPagina("cli1", null, null).getContenido()
+				.getNotificaciones().get(0);
+
+		assertEquals("Nuevo paquete", notificacion.getTitulo());
+		assertEquals("pkg0", notificacion.getData().get("paqueteId"));
+		assertThrows(IllegalArgumentException.class, () -> bandeja.obtenerPagina("cli0", "no-es-cursor", 2));
+	}
+
+	private void guardar(String userId, String mensaje) {
+		historial.guardarLote(List.of(new NotificacionDTO(userId, "Titulo", mensaje, "asignacion",
+				Map.of("userId", userId))));
+	}
+}
@@ -0,0 +1,134 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class DepuracionTokensServiceTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final AlmacenControlado almacen = new AlmacenControlado();
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+			new PoliticaReintentos(0, 1, 1), new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5),
+			new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5), 30, registry);
+	private final LecturaFirestoreService lectura = new LecturaFirestoreService(almacen, resiliencia, 100, 300, false,
+			registry);
+	private final DepuracionTokensService depuracion = new DepuracionTokensService(almacen,
+			new RegistroRepartidoresService(almacen, lectura, resiliencia, false, registry), lectura, resiliencia,
+			10_000, 200, registry);
+
+	@AfterEach
+	void detener() {
+		almacen.detener();
+	}
+
+	@Test
+	void noBorraUnTokenQueLaAppCambioDespuesDeLaLectura() {
+		depuracion.registrarResultados(List.of(noRegistrado("cli0", "token-cli0")));
+		almacen.tokenNuevoTrasLeer = Map.of("cli0", "nuevo");
+
+		depuracion.depurar();
+
+		// La precondición sobre updateTime rechazó el borrado y el token quedó para la siguiente pasada
+		assertEquals("nuevo", fcmToken("cli0"));
+		assertEquals(1, depuracion.tokensPendientes());
+
+		almacen.tokenNuevoTrasLeer = Map.of();
+		depuracion.depurar();
+
+		assertEquals("nuevo", fcmToken("cli0"));
+		assertEquals(0, depuracion.tokensPendientes());
+	}
+
+	@Test
+	void borraElTokenVigenteAunqueElUsuarioHayaDejadoVariosMuertos() {
+		depuracion.registrarResultados(List.of(noRegistrado("cli0", "token-cli0"), noRegistrado("cli0", "anterior"),
+				noRegistrado("cli1", "anterior-cli1")));
+
+		depuracion.depurar();
+
+		assertNull(fcmToken("cli0"));
+		assertEquals("token-cli1", fcmToken("cli1"));
+		assertEquals(0, depuracion.tokensPendientes());
+	}
+
+	@Test
+	void leeLosUsuariosEnGruposDe300() {
+		List<ResultadoEnvioDTO> resultados = new ArrayList<>();
+		for (int i = 0; i < 301; i++) {
+			resultados.add(noRegistrado("cli" + i, "token-cli" + i));
+		}
+		depuracion.registrarResultados(resultados);
+
+		depuracion.depurar();
+
+		assertEquals(List.of(300, 1), almacen.lecturas.stream().sorted((a, b) -> b - a).toList());
+		assertNull(fcmToken("cli300"));
+	}
+
+	@Test
+	void siFirestoreNoRespondeSeReagendaAlVencerElTimeout() {
+		depuracion.registrarResultados(List.of(noRegistrado("cli0", "token-cli0")));
+		almacen.sinRespuesta = true;
+
+		assertTimeoutPreemptively(Duration.ofSeconds(2), depuracion::depurar);
+
+		assertEquals(1, depuracion.tokensPendientes());
+		assertEquals("token-cli0", fcmToken("cli0"));
+	}
+
+	private String fcmToken(String userId) {
+		return almacen.leer("usuarios", userId).join().getString("fcmToken");
+	}
+
+	private static ResultadoEnvioDTO noRegistrado(String userId, String token) {
+		return ResultadoEnvioDTO.fallo(userId, token, DepuracionTokensService.CODIGO_NO_REGISTRADO);
+	}
+
+	/**
+	 * Almacén en memoria que anota el tamaño de cada getAll y puede cambiar un token justo después de
+	 * leerlo, como la app que registra uno nuevo, o no responder
+	 */
+	private static final class AlmacenControlado extends AlmacenDocumentosMemoria {
+
+		private final List<Integer> lecturas = new CopyOnWriteArrayList<>();
+		private volatile Map<String, String> tokenNuevoTrasLeer = Map.of();
+		private volatile boolean sinRespuesta;
+
+		private AlmacenControlado() {
+			super(new ObjectMapper(), 0, 0, 0, 301, 0, 0);
+		}
+
+		@Override
+		public CompletableFuture<List<Documento>> leerVarios(String coleccion, Collection<String> ids) {
+			lecturas.add(ids.size());
+			if (sinRespuesta) {
+				return new CompletableFuture<>();
+			}
+			return super.leerVarios(coleccion, ids).thenCompose(documentos -> {
+				List<Escritura> cambios = new ArrayList<>();
+				tokenNuevoTrasLeer.forEach((userId, token) -> cambios.add(Escritura.guardar("usuarios/" + userId,
+						Map.of("nombre", userId, "rol", "cliente", "fcmToken", token))));
+				return cambios.isEmpty() ? CompletableFuture.completedFuture(documentos)
+						: escribir(cambios).thenApply(v -> documentos);
+			});
+		}
+	}
+}
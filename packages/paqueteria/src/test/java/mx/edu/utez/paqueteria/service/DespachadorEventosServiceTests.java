@@ -0,0 +1,175 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import mx.edu.utez.paqueteria.exception.ColaLlenaException;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DespachadorEventosServiceTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+	private final NotificacionesControladas notificaciones = new NotificacionesControladas();
+
+	@AfterEach
+	void detener() {
+		workers.shutdownNow();
+	}
+
+	@Test
+	void unEventoQueFallaConLaColaLlenaEsperaLugarYEntraAntesQueLosNuevos() throws Exception {
+		CompletableFuture<Void> primerIntento = new CompletableFuture<>();
+		CountDownLatch liberar = new CountDownLatch(1);
+		AtomicInteger intentos = new AtomicInteger();
+		notificaciones.respuesta = evento -> switch (evento.getPaqueteId()) {
+			case "a" -> intentos.incrementAndGet() == 1 ? primerIntento : CompletableFuture.completedFuture(null);
+			case "b" -> {
+				// Ocupa al único worker para que la cola se llene
+				esperar(liberar);
+				yield CompletableFuture.completedFuture(null);
+			}
+			default -> CompletableFuture.completedFuture(null);
+		};
+		DespachadorEventosService despachador = despachador(1, 1, 1);
+		despachador.iniciar();
+
+		String a = despachador.encolar(evento("a"), DespachadorEventosService.ACCION_TOMADO);
+		esperarHasta(() -> notificaciones.procesados.contains("a"));
+		despachador.encolar(evento("b"), DespachadorEventosService.ACCION_TOMADO);
+		esperarHasta(() -> notificaciones.procesados.contains("b"));
+		despachador.encolar(evento("c"), DespachadorEventosService.ACCION_TOMADO);
+		assertThrows(ColaLlenaException.class,
+				() -> despachador.encolar(evento("d"), DespachadorEventosService.ACCION_TOMADO));
+
+		primerIntento.completeExceptionally(new ServicioNoDisponibleException("Firestore no disponible", 0));
+		esperarHasta(() -> registry.counter("notificaciones.ingesta.reencolados-en-espera").count() == 1);
+		assertThrows(ColaLlenaException.class,
+				() -> despachador.encolar(evento("e"), DespachadorEventosService.ACCION_TOMADO));
+
+		liberar.countDown();
+		esperarHasta(() -> DespachadorEventosService.ESTADO_COMPLETADO.equals(despachador.obtenerEstado(a)));
+		assertEquals(List.of("a", "b", "c", "a"), notificaciones.procesados);
+	}
+
+	@Test
+	void elCarrilTransaccionalPuedeOcuparTodaLaColaYElMasivoSoloSuMaximo() {
+		DespachadorEventosService despachador = despachador(0, 10, 4);
+
+		for (int i = 0; i < 4; i++) {
+			despachador.encolar(evento("m" + i), DespachadorEventosService.ACCION_CREADO);
+		}
+		assertThrows(ColaLlenaException.class,
+				() -> despachador.encolar(evento("m4"), DespachadorEventosService.ACCION_CREADO));
+		for (int i = 0; i < 6; i++) {
+			despachador.encolar(evento("t" + i), DespachadorEventosService.ACCION_TOMADO);
+		}
+		assertThrows(ColaLlenaException.class,
+				() -> despachador.encolar(evento("t6"), DespachadorEventosService.ACCION_TOMADO));
+
+		// Sin difusiones, una ráfaga a clientes cabe completa como en la cola única
+		DespachadorEventosService soloClientes = despachador(0, 10, 4);
+		for (int i = 0; i < 10; i++) {
+			soloClientes.encolar(evento("t" + i), DespachadorEventosService.ACCION_ENTREGADO);
+		}
+		assertEquals(10, soloClientes.eventosPendientes());
+		assertThrows(ColaLlenaException.class,
+				() -> soloClientes.encolar(evento("m0"), DespachadorEventosService.ACCION_CREADO));
+	}
+
+	@Test
+	void losWorkersAtiendenLosCarrilesPorTurnoPonderado() throws InterruptedException {
+		DespachadorEventosService despachador = despachador(1, 100, 50);
+		despachador.encolar(evento("m0"), DespachadorEventosService.ACCION_CREADO);
+		despachador.encolar(evento("m1"), DespachadorEventosService.ACCION_CREADO);
+		for (int i = 0; i < 8; i++) {
+			despachador.encolar(evento("t" + i), DespachadorEventosService.ACCION_TOMADO);
+		}
+
+		despachador.iniciar();
+
+		esperarHasta(() -> notificaciones.procesados.size() == 10);
+		assertEquals(List.of("t0", "t1", "m0", "t2", "t3", "t4", "t5", "m1", "t6", "t7"), notificaciones.procesados);
+	}
+
+	/**
+	 * Sin iniciar: los eventos se quedan en la cola hasta que la prueba llame a iniciar
+	 */
+	private DespachadorEventosService despachador(int workersPorTurno, int capacidadCola, int capacidadMasivo) {
+		OutboxEventosService outbox = new OutboxEventosService(new ObjectMapper(), "sincrono", false, "outbox",
+				false, 10_000, registry);
+		return new DespachadorEventosService(notificaciones, outbox, new GeneradorIds(1), workers, workersPorTurno, 0,
+				capacidadCola, capacidadMasivo, 4, 1, 100, registry);
+	}
+
+	private static PaqueteEventDTO evento(String paqueteId) {
+		return PaqueteEventDTO.builder().paqueteId(paqueteId).repartidorId("rep0").build();
+	}
+
+	private static void esperar(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void esperarHasta(BooleanSupplier condicion) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 2_000;
+		while (!condicion.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limite, "la condición no se cumplió a tiempo");
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * NotificacionService sin Firebase: registra cada paquete procesado y responde lo que indique la prueba
+	 */
+	private static final class NotificacionesControladas extends NotificacionService {
+
+		private final List<String> procesados = new CopyOnWriteArrayList<>();
+		private volatile Function<PaqueteEventDTO, CompletableFuture<Void>> respuesta =
+				evento -> CompletableFuture.completedFuture(null);
+
+		private NotificacionesControladas() {
+			super(null, null, null, null, null, null, null, null);
+		}
+
+		@Override
+		public CompletableFuture<Void> notificarPedidoTomadoAsync(PaqueteEventDTO evento) {
+			return procesar(evento);
+		}
+
+		@Override
+		public CompletableFuture<Void> notificarPedidoEntregadoAsync(PaqueteEventDTO evento) {
+			return procesar(evento);
+		}
+
+		@Override
+		public void notificarNuevoPedido(PaqueteEventDTO evento) {
+			procesar(evento).join();
+		}
+
+		private CompletableFuture<Void> procesar(PaqueteEventDTO evento) {
+			procesados.add(evento.getPaqueteId());
+			return respuesta.apply(evento);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * EnviadorPush para pruebas: responde con las respuestas programadas por posición y éxito en las demás,
+ * y registra las llamadas de suscripción al tópico.
+ */
+class EnviadorPushProgramado implements EnviadorPush {
+
+	private final List<RespuestaPush> programadas = new ArrayList<>();
+	private final Set<String> tokensConFallo = new HashSet<>();
+	private final List<List<String>> suscripciones = new ArrayList<>();
+	private final List<List<String>> bajas = new ArrayList<>();
+	private int llamadas;
+	private int mensajes;
+
+	/**
+	 * Respuestas para los primeros mensajes de la próxima llamada a enviarLote
+	 */
+	synchronized void programar(RespuestaPush... respuestas) {
+		programadas.clear();
+		programadas.addAll(List.of(respuestas));
+	}
+
+	/**
+	 * Tokens que suscribir y desuscribir reportarán como fallidos
+	 */
+	synchronized void fallarTokens(String... tokens) {
+		tokensConFallo.clear();
+		tokensConFallo.addAll(List.of(tokens));
+	}
+
+	@Override
+	public synchronized List<RespuestaPush> enviarLote(List<Message> lote) {
+		llamadas++;
+		mensajes += lote.size();
+		List<RespuestaPush> respuestas = new ArrayList<>(lote.size());
+		for (int i = 0; i < lote.size(); i++) {
+			respuestas.add(i < programadas.size() ? programadas.get(i) : RespuestaPush.exito("prueba/" + mensajes + i));
+		}
+		programadas.clear();
+		return respuestas;
+	}
+
+	@Override
+	public synchronized List<String> suscribir(List<String> tokens, String topico) {
+		suscripciones.add(List.copyOf(tokens));
+		return tokens.stream().filter(tokensConFallo::contains).toList();
+	}
+
+	@Override
+	public synchronized List<String> desuscribir(List<String> tokens, String topico) {
+		bajas.add(List.copyOf(tokens));
+		return tokens.stream().filter(tokensConFallo::contains).toList();
+	}
+
+	synchronized int getLlamadas() {
+		return llamadas;
+	}
+
+	synchronized int getMensajes() {
+		return mensajes;
+	}
+
+	synchronized List<List<String>> getSuscripciones() {
+		return List.copyOf(suscripciones);
+	}
+
+	synchronized List<List<String>> getBajas() {
+		return List.copyOf(bajas);
+	}
+}
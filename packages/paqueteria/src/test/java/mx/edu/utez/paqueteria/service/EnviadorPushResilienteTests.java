@@ -0,0 +1,125 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EnviadorPushResilienteTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final EnviadorGuionado destino = new EnviadorGuionado();
+	private final CircuitBreaker circuito = CircuitBreaker.of("fcm", CircuitBreakerConfig.custom()
+			.slidingWindowSize(2)
+			.minimumNumberOfCalls(2)
+			.failureRateThreshold(100)
+			.build());
+
+	@Test
+	void reintentaSoloLosMensajesFallidosDespuesDelRetryAfter() {
+		destino.responder(RespuestaPush.exito("m0"), RespuestaPush.fallo(MessagingErrorCode.UNAVAILABLE, "caído",
+				true, 150));
+		destino.responder(RespuestaPush.exito("m1"));
+
+		long inicio = System.nanoTime();
+		List<RespuestaPush> respuestas = enviador(new PoliticaReintentos(3, 1, 1_000)).enviarLote(mensajes(2));
+		long transcurridoMs = (System.nanoTime() - inicio) / 1_000_000;
+
+		assertEquals(List.of("m0", "m1"), respuestas.stream().map(RespuestaPush::getMessageId).toList());
+		assertEquals(List.of(2, 1), destino.lotes);
+		assertTrue(transcurridoMs >= 150, "no esperó el Retry-After: " + transcurridoMs + " ms");
+		assertEquals(1, registry.counter("notificaciones.fcm.reintentos").count());
+	}
+
+	@Test
+	void unRetryAfterMayorALaEsperaMaximaNoSeReintenta() {
+		destino.responder(RespuestaPush.fallo(MessagingErrorCode.QUOTA_EXCEEDED, "cuota", true, 60_000));
+
+		long inicio = System.nanoTime();
+		List<RespuestaPush> respuestas = enviador(new PoliticaReintentos(3, 1, 100)).enviarLote(mensajes(1));
+
+		assertTrue((System.nanoTime() - inicio) / 1_000_000 < 1_000);
+		assertEquals(List.of(1), destino.lotes);
+		assertEquals(60_000, respuestas.get(0).getReintentarTrasMs());
+	}
+
+	@Test
+	void losLotesQueFallanCompletosAbrenElCircuito() {
+		// Un fallo parcial no cuenta: FCM respondió
+		destino.responder(RespuestaPush.exito("m0"), RespuestaPush.fallo(MessagingErrorCode.UNAVAILABLE, "caído",
+				true, 0));
+		EnviadorPushResiliente enviador = enviador(new PoliticaReintentos(0, 1, 100));
+		enviador.enviarLote(mensajes(2));
+		destino.responder(RespuestaPush.fallo(MessagingErrorCode.INTERNAL, "error", true, 0));
+		enviador.enviarLote(mensajes(1));
+		assertEquals(CircuitBreaker.State.CLOSED, circuito.getState());
+
+		destino.responder(RespuestaPush.fallo(MessagingErrorCode.INTERNAL, "error", true, 0));
+		enviador.enviarLote(mensajes(1));
+		assertEquals(CircuitBreaker.State.OPEN, circuito.getState());
+
+		List<RespuestaPush> respuestas = enviador.enviarLote(mensajes(3));
+		assertEquals(List.of(2, 1, 1), destino.lotes);
+		assertTrue(respuestas.stream().allMatch(respuesta -> "CIRCUIT_OPEN".equals(respuesta.getNombreError())));
+		assertEquals(List.of("t0"), enviador.suscribir(List.of("t0"), "repartidores"));
+	}
+
+	private EnviadorPushResiliente enviador(PoliticaReintentos politica) {
+		return new EnviadorPushResiliente(destino, circuito, politica,
+				new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5), registry);
+	}
+
+	private static List<Message> mensajes(int cantidad) {
+		List<Message> mensajes = new ArrayList<>();
+		for (int i = 0; i < cantidad; i++) {
+			mensajes.add(Message.builder().setToken("t" + i).build());
+		}
+		return mensajes;
+	}
+
+	/**
+	 * Destino que contesta cada llamada con las respuestas preparadas, en orden, y éxito si no hay
+	 */
+	private static final class EnviadorGuionado implements EnviadorPush {
+
+		private final Deque<List<RespuestaPush>> guion = new ArrayDeque<>();
+		private final List<Integer> lotes = new ArrayList<>();
+
+		private void responder(RespuestaPush... respuestas) {
+			guion.add(List.of(respuestas));
+		}
+
+		@Override
+		public List<RespuestaPush> enviarLote(List<Message> mensajes) {
+			lotes.add(mensajes.size());
+			List<RespuestaPush> preparadas = guion.isEmpty() ? List.of() : guion.poll();
+			List<RespuestaPush> respuestas = new ArrayList<>(mensajes.size());
+			for (int i = 0; i < mensajes.size(); i++) {
+				respuestas.add(i < preparadas.size() ? preparadas.get(i) : RespuestaPush.exito("ok" + i));
+			}
+			return respuestas;
+		}
+
+		@Override
+		public List<String> suscribir(List<String> tokens, String topico) {
+			return List.of();
+		}
+
+		@Override
+		public List<String> desuscribir(List<String> tokens, String topico) {
+			return List.of();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.grpc.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.NotificacionDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEnvioDTO;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistorialNotificacionesServiceTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final AlmacenControlado almacen = new AlmacenControlado();
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+			new PoliticaReintentos(0, 1, 1), new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5),
+			new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5), 30, registry);
+	private final HistorialNotificacionesService historial = new HistorialNotificacionesService(almacen,
+			new BandejaNotificacionesService(almacen, resiliencia, 20, 100, 100, 60, registry), new GeneradorIds(1),
+			resiliencia, 2, true, registry);
+
+	@AfterEach
+	void detener() {
+		almacen.detener();
+	}
+
+	@Test
+	void partePorLotesDe500YDaUnResultadoPorDestinatario() {
+		List<NotificacionDTO> notificaciones = new ArrayList<>();
+		for (int i = 0; i < 1_200; i++) {
+			notificaciones.add(new NotificacionDTO("u" + i, "Título", "Mensaje", "PAQUETE_TOMADO", Map.of()));
+		}
+		almacen.commitQueFalla = 1;
+
+		List<ResultadoEnvioDTO> resultados = historial.guardarLote(notificaciones);
+
+		assertEquals(List.of(500, 500, 200), almacen.commits);
+		assertEquals(1_200, resultados.size());
+		for (int i = 0; i < resultados.size(); i++) {
+			ResultadoEnvioDTO resultado = resultados.get(i);
+			assertEquals("u" + i, resultado.getUserId());
+			// El segundo lote lo rechazó Firestore; un error no transitorio no es noDisponible
+			assertEquals(i < 500 || i >= 1_000, resultado.isExitoso());
+			assertFalse(resultado.isNoDisponible());
+		}
+	}
+
+	@Test
+	void unaDifusionNoBloqueaNiOcupaTodosLosTurnos() {
+		List<String> repartidores = new ArrayList<>();
+		for (int i = 0; i < 1_000; i++) {
+			repartidores.add("rep" + i);
+		}
+		almacen.retener = true;
+
+		// Con la difusión compacta son 3 commits y 2 turnos: antes el tercero bloqueaba a quien guardaba
+		CompletableFuture<List<ResultadoEnvioDTO>> difusion = assertTimeoutPreemptively(Duration.ofSeconds(1),
+				() -> historial.guardarDifusionAsync(repartidores, "Nuevo paquete", "Hay un paquete disponible",
+						"NUEVO_PAQUETE", Map.of()));
+		assertEquals(List.of(500), almacen.commits);
+
+		CompletableFuture<List<ResultadoEnvioDTO>> cliente = historial.guardarLoteAsync(List.of(
+				new NotificacionDTO("cli0", "Paquete tomado", "Tu paquete va en camino", "PAQUETE_TOMADO", Map.of())));
+		assertEquals(List.of(500, 1), almacen.commits);
+
+		almacen.liberar();
+		assertTrue(cliente.join().get(0).isExitoso());
+		List<ResultadoEnvioDTO> resultados = difusion.join();
+		assertEquals(1_000, resultados.size());
+		assertTrue(resultados.stream().allMatch(ResultadoEnvioDTO::isExitoso));
+		assertEquals(List.of(500, 1, 499, 2), almacen.commits);
+	}
+
+	/**
+	 * Almacén en memoria que anota el tamaño de cada commit y puede rechazar uno o retenerlos
+	 */
+	private static final class AlmacenControlado extends AlmacenDocumentosMemoria {
+
+		private final List<Integer> commits = new CopyOnWriteArrayList<>();
+		private final List<CompletableFuture<Void>> retenidos = new CopyOnWriteArrayList<>();
+		private volatile int commitQueFalla = -1;
+		private volatile boolean retener;
+
+		private AlmacenControlado() {
+			super(new ObjectMapper(), 0, 0, 0, 0, 0, 0);
+		}
+
+		@Override
+		public CompletableFuture<Void> escribir(List<Escritura> escrituras) {
+			int numero = commits.size();
+			commits.add(escrituras.size());
+			if (numero == commitQueFalla) {
+				return CompletableFuture.failedFuture(ApiExceptionFactory.createException("Documento inválido",
+						null, GrpcStatusCode.of(Status.Code.INVALID_ARGUMENT), false));
+			}
+			if (!retener) {
+				return super.escribir(escrituras);
+			}
+			CompletableFuture<Void> retenido = new CompletableFuture<>();
+			retenidos.add(retenido);
+			return retenido.thenCompose(v -> super.escribir(escrituras));
+		}
+
+		private void liberar() {
+			retener = false;
+			retenidos.forEach(retenido -> retenido.complete(null));
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package mx.edu.utez.paqueteria.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotenciaServiceTests {
+
+	private final IdempotenciaService idempotencia = new IdempotenciaService(600, 1000);
+	private final AtomicInteger procesados = new AtomicInteger();
+
+	@Test
+	void unDuplicadoRecibeLaRespuestaOriginalSinProcesarse() {
+		ResponseEntity<?> original = idempotencia.ejecutar("TOMADO:pkg0", () -> procesar(HttpStatus.OK));
+		ResponseEntity<?> duplicado = idempotencia.ejecutar("TOMADO:pkg0", () -> procesar(HttpStatus.OK));
+
+		assertSame(original, duplicado);
+		assertEquals(1, procesados.get());
+	}
+
+	@Test
+	void lasRespuestasQueNoSon2xxSeOlvidan() {
+		idempotencia.ejecutar("TOMADO:pkg0", () -> procesar(HttpStatus.NOT_FOUND));
+		ResponseEntity<?> reintento = idempotencia.ejecutar("TOMADO:pkg0", () -> procesar(HttpStatus.OK));
+
+		assertEquals(HttpStatus.OK, reintento.getStatusCode());
+		assertEquals(2, procesados.get());
+	}
+
+	@Test
+	void unErrorLiberaLaClave() {
+		assertThrows(IllegalStateException.class, () -> idempotencia.ejecutar("TOMADO:pkg0", () -> {
+			throw new IllegalStateException("falla");
+		}));
+		idempotencia.ejecutar("TOMADO:pkg0", () -> procesar(HttpStatus.OK));
+
+		assertEquals(1, procesados.get());
+	}
+
+	@Test
+	void sinClaveSeProcesaSiempre() {
+		idempotencia.ejecutar(IdempotenciaService.clave(null, null, "TOMADO"), () -> procesar(HttpStatus.OK));
+		idempotencia.ejecutar(IdempotenciaService.clave(" ", "", "TOMADO"), () -> procesar(HttpStatus.OK));
+
+		assertEquals(2, procesados.get());
+		assertEquals("key:abc", IdempotenciaService.clave("abc", "pkg0", "TOMADO"));
+		assertEquals("TOMADO:pkg0", IdempotenciaService.clave(null, "pkg0", "TOMADO"));
+	}
+
+	@Test
+	void lasReservasDeUnLoteSeCompletanUnaPorUna() {
+		IdempotenciaService.Reserva propia = idempotencia.reservar("ENTREGADO:pkg1");
+		IdempotenciaService.Reserva repetida = idempotencia.reservar("ENTREGADO:pkg1");
+		assertTrue(propia.isPropia());
+		assertFalse(repetida.isPropia());
+
+		ResponseEntity<?> respuesta = ResponseEntity.ok("enviado");
+		idempotencia.completar(propia, respuesta);
+		assertSame(respuesta, repetida.esperarOriginal());
+		assertFalse(idempotencia.reservar("ENTREGADO:pkg1").isPropia());
+
+		IdempotenciaService.Reserva fallida = idempotencia.reservar("ENTREGADO:pkg2");
+		idempotencia.completar(fallida, ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+		assertTrue(idempotencia.reservar("ENTREGADO:pkg2").isPropia());
+	}
+
+	private ResponseEntity<?> procesar(HttpStatus status) {
+		procesados.incrementAndGet();
+		return ResponseEntity.status(status).body("respuesta " + procesados.get());
+	}
+}
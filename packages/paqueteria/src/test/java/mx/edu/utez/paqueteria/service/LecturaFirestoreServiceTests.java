@@ -0,0 +1,103 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.CambioDocumento;
+import mx.edu.utez.paqueteria.service.AlmacenDocumentos.OyenteDocumentos;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LecturaFirestoreServiceTests {
+
+	private final AlmacenDocumentosMemoria almacen = new AlmacenDocumentosMemoria(
+			new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES), 0, 0, 0, 2, 1, 0);
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+			new PoliticaReintentos(0, 1, 1), new LimitadorAdaptativo(1_000, 1, 1_000, 0, 0.5),
+			new LimitadorAdaptativo(1_000, 1, 1_000, 0, 0.5), 30, new SimpleMeterRegistry());
+	private LecturaFirestoreService lectura;
+
+	@AfterEach
+	void detener() {
+		if (lectura != null) {
+			lectura.detener();
+		}
+		almacen.detener();
+	}
+
+	@Test
+	void sinListenerElCambioSeVeAlInvalidarLaEntrada() {
+		lectura = new LecturaFirestoreService(almacen, resiliencia, 100, 300, false, new SimpleMeterRegistry());
+		lectura.iniciar();
+		assertEquals("token-cli0", lectura.obtenerUsuario("cli0").getFcmToken());
+
+		cambiarToken("cli0", "cliente", "nuevo");
+
+		assertEquals("token-cli0", lectura.obtenerUsuario("cli0").getFcmToken());
+		lectura.invalidarUsuario("cli0");
+		assertEquals("nuevo", lectura.obtenerUsuario("cli0").getFcmToken());
+	}
+
+	@Test
+	void elListenerDeClientesInvalidaAlClienteQueCambiaYNoALosRepartidores() throws InterruptedException {
+		lectura = new LecturaFirestoreService(almacen, resiliencia, 100, 300, true, new SimpleMeterRegistry());
+		lectura.iniciar();
+		assertEquals("token-cli0", lectura.obtenerUsuario("cli0").getFcmToken());
+		assertEquals("token-rep0", lectura.obtenerUsuario("rep0").getFcmToken());
+
+		// Los listeners se notifican en orden: cuando se ve el cliente ya pasó el aviso del repartidor
+		cambiarToken("rep0", "repartidor", "nuevo-rep");
+		cambiarToken("cli0", "cliente", "nuevo-cli");
+
+		esperarHasta(() -> "nuevo-cli".equals(lectura.obtenerUsuario("cli0").getFcmToken()));
+		assertEquals("token-rep0", lectura.obtenerUsuario("rep0").getFcmToken());
+	}
+
+	@Test
+	void unOyenteDeSoloCambiosRecibeLaListaDeDocumentosVacia() throws InterruptedException {
+		List<Integer> documentosRecibidos = new CopyOnWriteArrayList<>();
+		List<CambioDocumento> cambiosRecibidos = new CopyOnWriteArrayList<>();
+		almacen.escuchar("usuarios", "rol", "cliente", new OyenteDocumentos() {
+			@Override
+			public void alCambiar(List<Documento> documentos, List<CambioDocumento> cambios, Exception error) {
+				documentosRecibidos.add(documentos.size());
+				cambiosRecibidos.addAll(cambios);
+			}
+
+			@Override
+			public boolean usaDocumentos() {
+				return false;
+			}
+		});
+
+		cambiarToken("cli1", "cliente", "nuevo");
+
+		esperarHasta(() -> cambiosRecibidos.size() == 3);
+		assertEquals(List.of(0, 0), documentosRecibidos);
+		assertEquals(CambioDocumento.Tipo.MODIFICADO, cambiosRecibidos.get(2).getTipo());
+	}
+
+	private void cambiarToken(String userId, String rol, String token) {
+		almacen.escribir(List.of(Escritura.guardar("usuarios/" + userId,
+				Map.of("nombre", userId, "rol", rol, "fcmToken", token)))).join();
+	}
+
+	private static void esperarHasta(BooleanSupplier condicion) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 2_000;
+		while (!condicion.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limite, "la condición no se cumplió a tiempo");
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.firebase.messaging.MessagingErrorCode;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import mx.edu.utez.paqueteria.dto.ResultadoEventoDTO;
+import mx.edu.utez.paqueteria.util.GeneradorIds;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NotificacionServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final EnviadorPushProgramado enviador = new EnviadorPushProgramado();
+	/** 3 clientes, 2 repartidores y 5 paquetes */
+	private final AlmacenDocumentosMemoria almacen = new AlmacenDocumentosMemoria(
+			new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES), 0, 0, 0, 3, 2, 5);
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(CircuitBreaker.ofDefaults("firestore"),
+			new PoliticaReintentos(0, 1, 1), new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5),
+			new LimitadorAdaptativo(1_000_000, 1, 1_000_000, 0, 0.5), 30, registry);
+	private final LecturaFirestoreService lectura = new LecturaFirestoreService(almacen, resiliencia, 100, 300, false,
+			registry);
+	private final RegistroRepartidoresService registro = new RegistroRepartidoresService(almacen, lectura,
+			resiliencia, false, registry);
+	private final BandejaNotificacionesService bandeja = new BandejaNotificacionesService(almacen, resiliencia, 20,
+			100, 100, 60, registry);
+	private final ExecutorService fanOut = Executors.newFixedThreadPool(2);
+	private final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor();
+
+	@AfterEach
+	void cerrar() {
+		temporizador.shutdownNow();
+		fanOut.shutdownNow();
+		almacen.detener();
+	}
+
+	@Test
+	void cadaEventoDelLoteRecibeSuPropioEstado() {
+		// Pushes en orden de los eventos con token: pkg0, pkg1, pkg2
+		enviador.programar(RespuestaPush.exito("m0"),
+				RespuestaPush.fallo(MessagingErrorCode.UNAVAILABLE, "caído", true, 0),
+				RespuestaPush.fallo(MessagingErrorCode.INVALID_ARGUMENT, "mensaje inválido"));
+
+		List<ResultadoEventoDTO> resultados = crearServicio().notificarLote(List.of(
+				evento("TOMADO", "pkg0", "rep0"),
+				evento("ENTREGADO", "pkg1", null),
+				evento("ENTREGADO", "pkg2", null),
+				evento("TOMADO", "pkg3", null),
+				evento("ENTREGADO", "pkg-inexistente", null),
+				evento("PERDIDO", "pkg4", null)));
+
+		assertEquals(List.of(ResultadoEventoDTO.ESTADO_ENVIADO, ResultadoEventoDTO.ESTADO_NO_DISPONIBLE,
+				ResultadoEventoDTO.ESTADO_SOLO_HISTORIAL, ResultadoEventoDTO.ESTADO_INVALIDO,
+				ResultadoEventoDTO.ESTADO_NO_ENCONTRADO, ResultadoEventoDTO.ESTADO_INVALIDO),
+				resultados.stream().map(ResultadoEventoDTO::getEstado).toList());
+		for (int i = 0; i < resultados.size(); i++) {
+			assertEquals(i, resultados.get(i).getIndice());
+		}
+		// El historial se guarda aunque el push falle
+		assertEquals(1, bandeja.obtenerPagina("cli1", null, null).getContenido().getNoLeidas());
+	}
+
+	private NotificacionService crearServicio() {
+		FirebaseMessagingService fcm = new FirebaseMessagingService(fanOut, 500, 30, enviador,
+				new DepuracionTokensService(almacen, registro, lectura, resiliencia, 100, 1_000, registry), registry);
+		HistorialNotificacionesService historial = new HistorialNotificacionesService(almacen, bandeja,
+				new GeneradorIds(1), resiliencia, 2, true, registry);
+		PlantillasNotificacionService plantillas = new PlantillasNotificacionService("es", List.of("es", "en"));
+		SuscripcionTopicosService suscripcion = new SuscripcionTopicosService(registro, enviador, new ObjectMapper(),
+				"tokens", "repartidores", directorio.toString(), registry);
+		UbicacionRepartidoresService ubicacion = new UbicacionRepartidoresService(almacen, false, 50, 10, 5, 2, 30,
+				registry);
+		AgrupacionNotificacionesService agrupacion = new AgrupacionNotificacionesService(fcm, historial, plantillas,
+				temporizador, 0, 20, registry);
+		return new NotificacionService(fcm, lectura, registro, historial, suscripcion, ubicacion, agrupacion,
+				plantillas);
+	}
+
+	private static PaqueteEventDTO evento(String accion, String paqueteId, String repartidorId) {
+		return PaqueteEventDTO.builder().accion(accion).paqueteId(paqueteId).repartidorId(repartidorId).build();
+	}
+}
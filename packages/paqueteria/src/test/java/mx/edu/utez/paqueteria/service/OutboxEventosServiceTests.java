@@ -0,0 +1,94 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.dto.PaqueteEventDTO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class OutboxEventosServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	@Test
+	void alArrancarSeReproducenLosEventosSinAck() throws IOException {
+		OutboxEventosService outbox = abrir(10_000);
+		outbox.registrar("t1", evento("pkg1"));
+		outbox.registrar("t2", evento("pkg2"));
+		outbox.registrar("t3", evento("pkg3"));
+		outbox.confirmar("t2");
+		outbox.cerrar();
+
+		OutboxEventosService reinicio = abrir(10_000);
+		Map<String, PaqueteEventDTO> pendientes = reinicio.eventosSinConfirmar();
+
+		assertEquals(List.of("t1", "t3"), List.copyOf(pendientes.keySet()));
+		assertEquals("pkg3", pendientes.get("t3").getPaqueteId());
+		assertEquals("TOMADO", pendientes.get("t3").getAccion());
+		reinicio.cerrar();
+	}
+
+	@Test
+	void unaUltimaLineaAMedioEscribirSeIgnora() throws IOException {
+		OutboxEventosService outbox = abrir(10_000);
+		outbox.registrar("t1", evento("pkg1"));
+		outbox.cerrar();
+		Files.writeString(directorio.resolve("eventos.jsonl"), "{\"tipo\":\"EVENTO\",\"trackingId\":\"t2\",\"eve",
+				StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		OutboxEventosService reinicio = abrir(10_000);
+
+		assertEquals(List.of("t1"), List.copyOf(reinicio.eventosSinConfirmar().keySet()));
+		reinicio.cerrar();
+	}
+
+	@Test
+	void compactarDejaSoloLosPendientes() throws IOException {
+		OutboxEventosService outbox = abrir(2);
+		outbox.registrar("t1", evento("pkg1"));
+		outbox.registrar("t2", evento("pkg2"));
+		outbox.registrar("t3", evento("pkg3"));
+		outbox.confirmar("t1");
+		outbox.confirmar("t2");
+
+		List<String> lineas = Files.readAllLines(directorio.resolve("eventos.jsonl"), StandardCharsets.UTF_8);
+		assertEquals(1, lineas.size());
+		assertEquals(1, outbox.eventosPendientes());
+		outbox.cerrar();
+	}
+
+	@Test
+	void enModoSincronoNoEscribeNada() throws IOException {
+		OutboxEventosService outbox = new OutboxEventosService(new ObjectMapper(), "sincrono", true,
+				directorio.toString(), false, 10_000, new SimpleMeterRegistry());
+		outbox.abrir();
+		outbox.registrar("t1", evento("pkg1"));
+
+		assertFalse(outbox.isHabilitado());
+		assertEquals(0, outbox.eventosPendientes());
+		assertFalse(Files.exists(directorio.resolve("eventos.jsonl")));
+	}
+
+	private OutboxEventosService abrir(int compactarCada) throws IOException {
+		OutboxEventosService outbox = new OutboxEventosService(new ObjectMapper(), "asincrono", true,
+				directorio.toString(), false, compactarCada, new SimpleMeterRegistry());
+		outbox.abrir();
+		return outbox;
+	}
+
+	private static PaqueteEventDTO evento(String paqueteId) {
+		return PaqueteEventDTO.builder().paqueteId(paqueteId).repartidorId("rep0").accion("TOMADO").build();
+	}
+}
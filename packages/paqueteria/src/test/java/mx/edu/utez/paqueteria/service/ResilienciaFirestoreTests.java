@@ -0,0 +1,61 @@
+package mx.edu.utez.paqueteria.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mx.edu.utez.paqueteria.exception.ServicioNoDisponibleException;
+import mx.edu.utez.paqueteria.util.LimitadorAdaptativo;
+import mx.edu.utez.paqueteria.util.PoliticaReintentos;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResilienciaFirestoreTests {
+
+	private final CircuitBreaker circuito = CircuitBreaker.of("firestore", CircuitBreakerConfig.custom()
+			.permittedNumberOfCallsInHalfOpenState(1)
+			.build());
+	private final LimitadorAdaptativo escrituras = new LimitadorAdaptativo(10, 1, 10, 0, 0.5);
+	private final ResilienciaFirestore resiliencia = new ResilienciaFirestore(circuito,
+			new PoliticaReintentos(0, 1, 1000), new LimitadorAdaptativo(10, 1, 10, 0, 0.5), escrituras, 30,
+			new SimpleMeterRegistry());
+	private final AtomicInteger llamadas = new AtomicInteger();
+
+	@Test
+	void unaLlamadaEnEsperaNoRetieneElPermisoDePruebaDelCircuito() {
+		escrituras.reservar(10);
+		circuito.transitionToOpenState();
+		circuito.transitionToHalfOpenState();
+
+		// La masiva espera medio segundo de turno; la prioritaria sale antes y usa el único permiso
+		CompletableFuture<Integer> masiva = resiliencia.escribirMasivo(5, this::llamar);
+		CompletableFuture<Integer> prioritaria = resiliencia.escribir(1, this::llamar);
+
+		assertEquals(1, prioritaria.join());
+		assertEquals(CircuitBreaker.State.CLOSED, circuito.getState());
+		assertEquals(2, masiva.join());
+	}
+
+	@Test
+	void siElTurnoTardaMasDeLaEsperaMaximaFallaDeInmediato() {
+		escrituras.reservar(10);
+
+		CompletableFuture<Integer> escritura = resiliencia.escribirMasivo(20, this::llamar);
+
+		assertTrue(escritura.isCompletedExceptionally());
+		CompletionException error = assertThrows(CompletionException.class, escritura::join);
+		assertInstanceOf(ServicioNoDisponibleException.class, error.getCause());
+		assertEquals(0, llamadas.get());
+	}
+
+	private CompletableFuture<Integer> llamar() {
+		return CompletableFuture.completedFuture(llamadas.incrementAndGet());
+	}
+}
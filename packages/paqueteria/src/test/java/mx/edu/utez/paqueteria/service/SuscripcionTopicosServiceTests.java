@@ -0,0 +1,105 @@
+package mx.edu.utez.paqueteria.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuscripcionTopicosServiceTests {
+
+	@TempDir
+	Path directorio;
+
+	private final RegistroFijo registro = new RegistroFijo();
+	private final EnviadorPushProgramado enviador = new EnviadorPushProgramado();
+
+	@Test
+	void suscribeLosNuevosYQuitaLosQueCambiaron() {
+		SuscripcionTopicosService suscripcion = crear();
+		registro.tokens = Map.of("rep0", "t0", "rep1", "t1");
+		suscripcion.sincronizar();
+		assertEquals(Set.of("t0", "t1"), new HashSet<>(enviador.getSuscripciones().get(0)));
+
+		// Mismo snapshot: no vuelve a llamar a FCM
+		suscripcion.sincronizar();
+		assertEquals(1, enviador.getSuscripciones().size());
+
+		registro.tokens = Map.of("rep0", "t0-nuevo");
+		suscripcion.sincronizar();
+		assertEquals(Set.of("t0", "t1"), new HashSet<>(enviador.getBajas().get(0)));
+		assertEquals(List.of("t0-nuevo"), enviador.getSuscripciones().get(1));
+	}
+
+	@Test
+	void lasBajasFallidasSeGuardanYSeReintentanAlArrancar() {
+		SuscripcionTopicosService suscripcion = crear();
+		registro.tokens = Map.of("rep0", "t0", "rep1", "t1");
+		suscripcion.sincronizar();
+		enviador.fallarTokens("t1");
+		registro.tokens = Map.of("rep0", "t0");
+		suscripcion.sincronizar();
+		assertTrue(Files.exists(directorio.resolve("suscritos-repartidores.json")));
+
+		enviador.fallarTokens();
+		SuscripcionTopicosService reinicio = crear();
+		reinicio.cargar();
+		registro.tokens = Map.of("rep0", "t0");
+		reinicio.sincronizar();
+
+		// t0 ya estaba suscrito antes del reinicio; solo se reintenta quitar t1
+		assertEquals(1, enviador.getSuscripciones().size());
+		assertEquals(List.of("t1"), enviador.getBajas().get(enviador.getBajas().size() - 1));
+	}
+
+	@Test
+	void unTokenQueVolvioAlRegistroNoSeQuita() {
+		SuscripcionTopicosService suscripcion = crear();
+		registro.tokens = Map.of("rep0", "t0");
+		suscripcion.sincronizar();
+		enviador.fallarTokens("t0");
+		registro.tokens = Map.of();
+		suscripcion.sincronizar();
+
+		enviador.fallarTokens();
+		registro.tokens = Map.of("rep0", "t0");
+		suscripcion.sincronizar();
+
+		assertEquals(List.of(List.of("t0")), enviador.getBajas());
+	}
+
+	private SuscripcionTopicosService crear() {
+		return new SuscripcionTopicosService(registro, enviador, new ObjectMapper(), "topico", "repartidores",
+				directorio.toString(), new SimpleMeterRegistry());
+	}
+
+	/**
+	 * Registro sincronizado cuyo snapshot fija cada prueba
+	 */
+	private static final class RegistroFijo extends RegistroRepartidoresService {
+		private Map<String, String> tokens = Map.of();
+
+		private RegistroFijo() {
+			super(null, null, null, false, new SimpleMeterRegistry());
+		}
+
+		@Override
+		public Map<String, String> obtenerTokens() {
+			return tokens;
+		}
+
+		@Override
+		public boolean isSincronizado() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColaPonderadaTests {
+
+	@Test
+	void reparteTurnosSegunPesos() throws InterruptedException {
+		ColaPonderada<String> cola = new ColaPonderada<>(new int[] { 4, 1 }, 100);
+		for (int i = 0; i < 20; i++) {
+			cola.ofrecer(0, "t" + i);
+			cola.ofrecer(1, "m" + i);
+		}
+
+		List<String> tomados = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			tomados.add(cola.tomar());
+		}
+		// Intercalados: nunca más de 4 transaccionales seguidos y cada carril en orden FIFO
+		assertEquals(List.of("t0", "t1", "m0", "t2", "t3", "t4", "t5", "m1", "t6", "t7"), tomados);
+	}
+
+	@Test
+	void carrilVacioCedeSuTurnoYSeRespetaLaCapacidad() throws InterruptedException {
+		ColaPonderada<String> cola = new ColaPonderada<>(new int[] { 4, 1 }, 2);
+		assertTrue(cola.ofrecer(1, "m0"));
+		assertTrue(cola.ofrecer(1, "m1"));
+		assertFalse(cola.ofrecer(1, "m2"));
+		assertFalse(cola.ofrecer(0, "t0"));
+
+		assertEquals("m0", cola.tomar());
+		assertEquals("m1", cola.tomar());
+		assertEquals(0, cola.tamano());
+
+		cola.ofrecer(1, "m3");
+		cola.ofrecer(0, "t0");
+		assertEquals("t0", cola.tomar(0));
+		assertEquals(1, cola.tamano(1));
+	}
+
+	@Test
+	void unCarrilUsaElLugarLibreHastaSuMaximo() {
+		ColaPonderada<String> cola = new ColaPonderada<>(new int[] { 4, 1 }, 4, new int[] { 4, 2 });
+		assertTrue(cola.ofrecer(1, "m0"));
+		assertTrue(cola.ofrecer(1, "m1"));
+		assertFalse(cola.ofrecer(1, "m2"));
+
+		assertTrue(cola.ofrecer(0, "t0"));
+		assertTrue(cola.ofrecer(0, "t1"));
+		assertFalse(cola.ofrecer(0, "t2"));
+		assertEquals(4, cola.tamano());
+	}
+
+	@Test
+	void quienEsperaEnPonerTomaElLugarAntesQueUnOfrecer() throws InterruptedException {
+		ColaPonderada<String> cola = new ColaPonderada<>(new int[] { 4, 1 }, 1);
+		cola.ofrecer(0, "t0");
+		Thread esperando = Thread.ofPlatform().start(() -> {
+			try {
+				cola.poner(0, "reencolado");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		while (esperando.getState() != Thread.State.WAITING) {
+			Thread.onSpinWait();
+		}
+
+		assertEquals("t0", cola.tomar());
+		// Haya entrado ya o no, el lugar libre es de quien esperaba
+		assertFalse(cola.ofrecer(0, "nuevo"));
+		esperando.join();
+		assertEquals("reencolado", cola.tomar());
+	}
+}
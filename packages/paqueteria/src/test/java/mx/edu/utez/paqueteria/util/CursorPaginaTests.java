@@ -0,0 +1,26 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CursorPaginaTests {
+
+	@Test
+	void cursorSeRecuperaAlDecodificar() {
+		String codificado = new CursorPagina(1_700_000_000_123L, "01HZX3K9QW2AB").codificar();
+
+		CursorPagina cursor = CursorPagina.decodificar(codificado);
+
+		assertEquals(1_700_000_000_123L, cursor.getFechaMs());
+		assertEquals("01HZX3K9QW2AB", cursor.getId());
+	}
+
+	@Test
+	void cursorAjenoSeRechaza() {
+		assertThrows(IllegalArgumentException.class, () -> CursorPagina.decodificar("no es base64!"));
+		assertThrows(IllegalArgumentException.class, () -> CursorPagina.decodificar("c2luLXNlcGFyYWRvcg"));
+		assertThrows(IllegalArgumentException.class, () -> CursorPagina.decodificar("YWJjOmlk"));
+	}
+}
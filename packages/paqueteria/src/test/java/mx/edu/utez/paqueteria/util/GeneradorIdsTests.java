@@ -0,0 +1,65 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeneradorIdsTests {
+
+	@Test
+	void idsSonCrecientesYDeAnchoFijo() {
+		GeneradorIds generador = new GeneradorIds(7);
+		String anterior = generador.siguiente();
+		for (int i = 0; i < 100_000; i++) {
+			String siguiente = generador.siguiente();
+			assertEquals(13, siguiente.length());
+			assertTrue(siguiente.compareTo(anterior) > 0, siguiente + " <= " + anterior);
+			anterior = siguiente;
+		}
+	}
+
+	@Test
+	void idsSonUnicosEntreHilos() throws InterruptedException {
+		GeneradorIds generador = new GeneradorIds(1);
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		int hilos = 8;
+		int porHilo = 20_000;
+		CountDownLatch listos = new CountDownLatch(hilos);
+		List<Thread> trabajadores = new ArrayList<>();
+		for (int h = 0; h < hilos; h++) {
+			Thread hilo = new Thread(() -> {
+				listos.countDown();
+				for (int i = 0; i < porHilo; i++) {
+					ids.add(generador.siguiente());
+				}
+			});
+			trabajadores.add(hilo);
+			hilo.start();
+		}
+		for (Thread hilo : trabajadores) {
+			hilo.join();
+		}
+		assertEquals(hilos * porHilo, ids.size());
+	}
+
+	@Test
+	void nodosDistintosNoColisionan() {
+		assertTrue(!new GeneradorIds(1).siguiente().equals(new GeneradorIds(2).siguiente()));
+	}
+
+	@Test
+	void instanteSeRecuperaDelId() {
+		long antes = System.currentTimeMillis();
+		String id = new GeneradorIds(3).siguiente();
+		long despues = System.currentTimeMillis();
+		long instante = GeneradorIds.instante(id);
+		assertTrue(instante >= antes && instante <= despues, instante + " fuera de [" + antes + ", " + despues + "]");
+	}
+}
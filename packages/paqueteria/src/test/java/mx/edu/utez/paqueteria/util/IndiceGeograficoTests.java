@@ -0,0 +1,63 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndiceGeograficoTests {
+
+	@Test
+	void cercanosCoincideConBusquedaExhaustiva() {
+		IndiceGeografico indice = new IndiceGeografico(2);
+		Map<String, double[]> puntos = new HashMap<>();
+		Random aleatorio = new Random(42);
+		for (int i = 0; i < 5_000; i++) {
+			// Zona metropolitana de Cuernavaca, unos 40 km por lado
+			double[] punto = { 18.75 + aleatorio.nextDouble() * 0.36, -99.40 + aleatorio.nextDouble() * 0.38 };
+			puntos.put("rep" + i, punto);
+			indice.actualizar("rep" + i, punto[0], punto[1], 0);
+		}
+
+		for (int consulta = 0; consulta < 50; consulta++) {
+			double lat = 18.75 + aleatorio.nextDouble() * 0.36;
+			double lon = -99.40 + aleatorio.nextDouble() * 0.38;
+			List<String> esperados = new ArrayList<>(puntos.keySet());
+			esperados.removeIf(id -> distancia(puntos.get(id), lat, lon) > 5);
+			esperados.sort(Comparator.comparingDouble(id -> distancia(puntos.get(id), lat, lon)));
+			esperados = esperados.subList(0, Math.min(20, esperados.size()));
+
+			assertEquals(esperados, indice.cercanos(lat, lon, 20, 5, 0, id -> true));
+		}
+	}
+
+	@Test
+	void respetaRadioMovimientosYAntiguedad() {
+		IndiceGeografico indice = new IndiceGeografico(1);
+		indice.actualizar("cerca", 18.8500, -99.2000, 1_000);
+		indice.actualizar("lejos", 18.9500, -99.2000, 1_000);
+		indice.actualizar("viejo", 18.8510, -99.2000, 10);
+
+		assertEquals(List.of("cerca"), indice.cercanos(18.85, -99.20, 10, 5, 500, id -> true));
+
+		indice.actualizar("lejos", 18.8520, -99.2000, 2_000);
+		assertEquals(List.of("cerca", "lejos"), indice.cercanos(18.85, -99.20, 10, 5, 500, id -> true));
+		assertEquals(List.of("lejos"), indice.cercanos(18.85, -99.20, 10, 5, 500, id -> !id.equals("cerca")));
+
+		indice.quitar("cerca");
+		indice.quitar("lejos");
+		assertTrue(indice.cercanos(18.85, -99.20, 10, 5, 500, id -> true).isEmpty());
+		assertEquals(1, indice.tamano());
+	}
+
+	private static double distancia(double[] punto, double lat, double lon) {
+		return IndiceGeografico.distanciaKm(lat, lon, punto[0], punto[1]);
+	}
+}
@@ -0,0 +1,75 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LimitadorAdaptativoTests {
+
+	private final AtomicLong reloj = new AtomicLong();
+
+	@Test
+	void reservaEnDeudaYRecargaConElTiempo() {
+		LimitadorAdaptativo limitador = new LimitadorAdaptativo(100, 10, 1000, 0, 0.5, reloj::get);
+
+		assertEquals(0, limitador.reservar(100));
+		// Sin tokens: 50 permisos a 100/s esperan medio segundo, y el siguiente se forma detrás
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limitador.reservar(50));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), limitador.reservar(50));
+
+		reloj.addAndGet(TimeUnit.SECONDS.toNanos(3));
+		// La ráfaga acumulada no pasa de un segundo de tasa
+		assertEquals(0, limitador.reservar(100));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limitador.reservar(1));
+	}
+
+	@Test
+	void rechazaLaEsperaExcesivaYLasPrioritariasNoHacenFila() {
+		LimitadorAdaptativo limitador = new LimitadorAdaptativo(100, 10, 1000, 0, 0.5, 0.2, reloj::get);
+		long unSegundo = TimeUnit.SECONDS.toNanos(1);
+
+		assertEquals(0, limitador.reservar(100, false, unSegundo));
+		assertEquals(unSegundo, limitador.reservar(100, false, unSegundo));
+		// Esperaría 1.5 s: se rechaza sin tomar permisos
+		assertEquals(LimitadorAdaptativo.RECHAZADA, limitador.reservar(50, false, unSegundo));
+
+		// Las prioritarias usan su propia cubeta (20 permisos/s) en lugar de esperar la deuda de las masivas
+		assertEquals(0, limitador.reservar(10, true, unSegundo));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limitador.reservar(20, true, unSegundo));
+		// y lo que consumen se descuenta también de la común
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1310), limitador.reservar(1));
+	}
+
+	@Test
+	void aumentaDeFormaAditivaYReduceALaMitadUnaVezPorSegundo() {
+		LimitadorAdaptativo limitador = new LimitadorAdaptativo(100, 10, 150, 50, 0.5, reloj::get);
+
+		// Un segundo a plena carga (100 permisos) sube unos 50 permisos/s
+		for (int i = 0; i < 10; i++) {
+			limitador.registrarExito(10);
+		}
+		assertEquals(141, limitador.getTasa(), 2);
+		for (int i = 0; i < 100; i++) {
+			limitador.registrarExito(10);
+		}
+		assertEquals(150, limitador.getTasa(), 0.001);
+
+		limitador.registrarSaturacion();
+		limitador.registrarSaturacion();
+		assertEquals(75, limitador.getTasa(), 0.001);
+
+		reloj.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		limitador.registrarSaturacion();
+		limitador.registrarSaturacion();
+		assertEquals(37.5, limitador.getTasa(), 0.001);
+
+		for (int i = 0; i < 5; i++) {
+			reloj.addAndGet(TimeUnit.SECONDS.toNanos(1));
+			limitador.registrarSaturacion();
+		}
+		assertEquals(10, limitador.getTasa(), 0.001);
+	}
+}
@@ -0,0 +1,35 @@
+package mx.edu.utez.paqueteria.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PlantillaNotificacionTests {
+
+	@Test
+	void sustituyeVariablesEnOrden() {
+		PlantillaNotificacion plantilla = PlantillaNotificacion.compilar("Paquete para {destinatario} - {direccion}");
+
+		assertEquals(List.of("destinatario", "direccion"), plantilla.getVariables());
+		assertEquals("Paquete para María López - Calle 123",
+				plantilla.renderizar(Map.of("destinatario", "María López", "direccion", "Calle 123")));
+		assertEquals("Paquete para  - Calle 123", plantilla.renderizar(Map.of("direccion", "Calle 123")));
+		assertEquals("{repartidor} tomó tu paquete", PlantillaNotificacion.compilar("{repartidor} tomó tu paquete")
+				.renderizar(Collections.singletonMap("repartidor", "{repartidor}")));
+	}
+
+	@Test
+	void conservaLlavesSinVariable() {
+		String texto = "✅ Paquete {} entregado {sin cerrar";
+		PlantillaNotificacion plantilla = PlantillaNotificacion.compilar(texto);
+
+		assertEquals(List.of(), plantilla.getVariables());
+		assertSame(plantilla.renderizar(Map.of()), plantilla.renderizar(Map.of("x", "y")));
+		assertEquals(texto, plantilla.renderizar(Map.of()));
+	}
+}